@@ -0,0 +1,94 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.fringe_visibility;
+
+import org.scijava.ItemIO;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import net.imagej.ops.AbstractOp;
+import net.imagej.ops.Op;
+
+/** This is the same as {@link FringeVisibilityOp}, but it works directly on
+ * the row-major pixels of a hologram, such as the pixels of a
+ * <code>FloatProcessor</code>, instead of a <code>float[][]</code>.
+ * <p>
+ * It has the name "Fringe Visibility" and has these parameters:
+ * <ol>
+ *     <li>Data: a <code>float[]</code> with the hologram, where the pixel
+ *               (x, y) is at index <code>y * width + x</code>.
+ *     <li>Width: The width of the hologram.
+ *     <li>Height: The height of the hologram.
+ *     <li>Window size (optional): The width and height of the window around
+ *                                 every pixel, which must be odd.  It defaults
+ *                                 to three.
+ * </ol>
+ * The result is a <code>float[]</code> with the fringe visibility, in the same
+ * order as the data.
+ */
+@Plugin(type = Op.class, name = "Fringe Visibility")
+public class FlatFringeVisibilityOp extends AbstractOp {
+    // Inputs
+    @Parameter private float[] P_data;
+    @Parameter private int     P_width;
+    @Parameter private int     P_height;
+    @Parameter(required = false) private int P_windowSize = 3;
+    // Outputs
+    @Parameter(type = ItemIO.OUTPUT) private float[] P_result;
+
+    /** Compute the fringe visibility. */
+    @Override
+    public void run()
+    {
+        P_result = calculate(P_data, P_width, P_height, P_windowSize);
+    }
+    // This is shared with FringeVisibilityOp.  The minimum and maximum of every
+    // window are found with SlidingWindow.
+    static float[] calculate(float[] data, int width, int height,
+                             int windowSize)
+    {
+        if (windowSize < 1 || windowSize % 2 == 0) {
+            throw new IllegalArgumentException("The fringe visibility window "
+                + "size must be odd and positive.");
+        }
+        int radius = windowSize / 2;
+
+        // Every value must be greater than zero, so we need to subtract the
+        // minimum to all of the values.
+        float originalMin = Float.MAX_VALUE;
+        for (float val : data) {
+            if (val < originalMin) originalMin = val;
+        }
+
+        float[] min = SlidingWindow.min(data, width, height, radius);
+        float[] max = SlidingWindow.max(data, width, height, radius);
+
+        float[] result = new float[width * height];
+        for (int p = 0; p < result.length; ++p) {
+            // Make the values positive
+            float windowMax = max[p] - originalMin;
+            float windowMin = min[p] - originalMin;
+            if (windowMax == 0 && windowMin == 0) result[p] = 0;
+            else {
+                result[p] = (windowMax - windowMin) / (windowMax + windowMin);
+            }
+        }
+        return result;
+    }
+}
@@ -26,6 +26,22 @@ import net.imagej.ops.AbstractOp;
 import net.imagej.ops.Op;
 
 /** This is a simple Op that determines the "fringe visibility" of a hologram.
+ * The fringe visibility of every pixel is <code>(max - min) / (max +
+ * min)</code>, where <code>max</code> and <code>min</code> are the largest and
+ * smallest values of a square window around it, after making every value of
+ * the hologram positive.
+ * <p>
+ * It has the name "Fringe Visibility" and has these parameters:
+ * <ol>
+ *     <li>Data: a <code>float[][]</code> with the hologram.
+ *     <li>Window size (optional): The width and height of the window around
+ *                                 every pixel, which must be odd.  It defaults
+ *                                 to three.  The hologram's fringes should fit
+ *                                 in the window.
+ * </ol>
+ * The minimum and maximum of every window are found with running minimums and
+ * maximums along the rows and then the columns, so the time taken doesn't
+ * depend on the window size.
  * <p>
  * Note that because its only input is a float[][], when calling this Op, you
  * must cast your float[][] to an Object, or else Java thinks you are passing
@@ -35,6 +51,7 @@ import net.imagej.ops.Op;
 public class FringeVisibilityOp extends AbstractOp {
     // Inputs
     @Parameter private float[][] P_data;
+    @Parameter(required = false) private int P_windowSize = 3;
     // Outputs
     @Parameter(type = ItemIO.OUTPUT) private float[][] P_result;
 
@@ -49,39 +66,18 @@ public class FringeVisibilityOp extends AbstractOp {
     {
         int width = P_data.length;
         int height = P_data[0].length;
-        P_result = new float[width][height];
-
-        // Every value must be greater than zero, so we need to subtract the
-        // minimum to all of the values.
-        float originalMin = Float.MAX_VALUE;
+        float[] data = new float[width * height];
         for (int x = 0; x < width; ++x) {
             for (int y = 0; y < height; ++y) {
-                float val = P_data[x][y];
-                if (val < originalMin) originalMin = val;
+                data[y * width + x] = P_data[x][y];
             }
         }
-
+        float[] result = FlatFringeVisibilityOp.calculate(data, width, height,
+                                                          P_windowSize);
+        P_result = new float[width][height];
         for (int x = 0; x < width; ++x) {
             for (int y = 0; y < height; ++y) {
-                float max = 0;
-                float min = Float.MAX_VALUE;
-                for (int xPlus = -1; xPlus <= 1; ++xPlus) {
-                    for (int yPlus = -1; yPlus <= 1; ++yPlus) {
-                        int newX = x + xPlus;
-                        int newY = y + yPlus;
-                        if (   (newX < 0)
-                            || (newY < 0)
-                            || (newX == width)
-                            || (newY == height)) continue;
-                        float val = P_data[newX][newY];
-                        // Make value positive
-                        val -= originalMin;
-                        if (val > max) max = val;
-                        if (val < min) min = val;
-                    }
-                }
-                if (max == 0 && min == 0) P_result[x][y] = 0;
-                else P_result[x][y] = (max - min) / (max + min);
+                P_result[x][y] = result[y * width + x];
             }
         }
     }
@@ -0,0 +1,118 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.fringe_visibility;
+
+import java.util.stream.IntStream;
+
+/** SlidingWindow finds the minimum or maximum of the square window around every
+ * pixel of a row-major image.  Windows that go past the edges of the image only
+ * use the pixels that are in the image.
+ * <p>
+ * They are found with van Herk/Gil-Werman running minimums and maximums,
+ * first along every row and then along every column of the row results, so
+ * they take the same time for any window size.  The rows and columns are each
+ * done in parallel.
+ */
+public final class SlidingWindow {
+    /** Find the minimum of the window around every pixel.
+     *
+     * @param values The image, where the pixel (x, y) is at index
+     *               <code>y * width + x</code>.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param radius The number of pixels on each side of the center of the
+     *               window, so that it is <code>2 * radius + 1</code> pixels
+     *               wide and tall.
+     * @return The minimum of every window, in the same order as the image.
+     */
+    public static float[] min(float[] values, int width, int height,
+                              int radius)
+    {
+        return calculate(values, width, height, radius, false);
+    }
+    /** Find the maximum of the window around every pixel.
+     *
+     * @param values The image, where the pixel (x, y) is at index
+     *               <code>y * width + x</code>.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param radius The number of pixels on each side of the center of the
+     *               window, so that it is <code>2 * radius + 1</code> pixels
+     *               wide and tall.
+     * @return The maximum of every window, in the same order as the image.
+     */
+    public static float[] max(float[] values, int width, int height,
+                              int radius)
+    {
+        return calculate(values, width, height, radius, true);
+    }
+
+    private static float[] calculate(float[] values, int width, int height,
+                                     int radius, boolean max)
+    {
+        float[] rows = new float[width * height];
+        IntStream.range(0, height).parallel().forEach(y ->
+            slide(values, rows, y * width, 1, width, radius, max));
+        float[] result = new float[width * height];
+        IntStream.range(0, width).parallel().forEach(x ->
+            slide(rows, result, x, width, height, radius, max));
+        return result;
+    }
+    // Find the minimum or maximum of every window of 2 * radius + 1 values
+    // along a line of count values of in, which starts at start and goes by
+    // step.  The results go in the same places in out.  Windows that go past
+    // the ends of the line only use the values that are on the line.
+    //
+    // The line is padded by radius on both sides and split into blocks the
+    // size of a window.  Every window covers the end of one block and the
+    // start of the next, so it is the combination of a running value from the
+    // start of its last block and a running value from the end of its first
+    // block, no matter how big the window is.
+    private static void slide(float[] in, float[] out, int start, int step,
+                              int count, int radius, boolean max)
+    {
+        int window = 2 * radius + 1;
+        int padded = count + 2 * radius;
+        float pad = max ? Float.NEGATIVE_INFINITY : Float.POSITIVE_INFINITY;
+        float[] fromStart = new float[padded];
+        float[] fromEnd = new float[padded];
+        for (int j = 0, inBlock = 0; j < padded; ++j, ++inBlock) {
+            if (inBlock == window) inBlock = 0;
+            int i = j - radius;
+            float val = i < 0 || i >= count ? pad : in[start + i * step];
+            if (inBlock == 0) fromStart[j] = val;
+            else fromStart[j] = combine(fromStart[j - 1], val, max);
+        }
+        for (int j = padded - 1; j >= 0; --j) {
+            int i = j - radius;
+            float val = i < 0 || i >= count ? pad : in[start + i * step];
+            if (j == padded - 1 || j % window == window - 1) fromEnd[j] = val;
+            else fromEnd[j] = combine(fromEnd[j + 1], val, max);
+        }
+        for (int i = 0; i < count; ++i) {
+            out[start + i * step]
+                = combine(fromEnd[i], fromStart[i + window - 1], max);
+        }
+    }
+    private static float combine(float a, float b, boolean max)
+    {
+        return max ? Math.max(a, b) : Math.min(a, b);
+    }
+}
@@ -0,0 +1,251 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.stream.IntStream;
+
+import edu.pdx.imagej.phase_unwrapping.ArrayOps.FloatBinaryOperator;
+import edu.pdx.imagej.phase_unwrapping.ArrayOps.FloatUnaryOperator;
+
+// An element-wise calculation on arrays that is only done when it is
+// evaluated.  Expressions are made from arrays with of, and then built up with
+// map and combine, which don't calculate anything.  When one or more
+// expressions are evaluated, every step of all of them is done in one pass
+// over the arrays, a block of elements at a time, so the steps in between
+// never need whole arrays of their own.  Only the expressions that are asked
+// for are put into arrays.  A step that is used by more than one expression is
+// only calculated once per element.
+//
+// Arrays can be either a float[width][height] or a row-major float[], but
+// every array in one evaluation has to be the same shape.  Everything uses
+// primitive floats, so nothing is boxed.
+final class ArrayExpression {
+    // An expression that is just an array, which isn't copied
+    static ArrayExpression of(float[][] a)
+    {
+        return new ArrayExpression(a, null, null, null, null);
+    }
+    static ArrayExpression of(float[] a)
+    {
+        return of(new float[][] {a});
+    }
+    // This expression with op applied to every element
+    ArrayExpression map(FloatUnaryOperator op)
+    {
+        return new ArrayExpression(null, this, null, op, null);
+    }
+    // This expression and another one combined element by element with op,
+    // with the elements of this expression on the left
+    ArrayExpression combine(ArrayExpression other, FloatBinaryOperator op)
+    {
+        return new ArrayExpression(null, this, other, null, op);
+    }
+    ArrayExpression combine(float[][] other, FloatBinaryOperator op)
+    {
+        return combine(of(other), op);
+    }
+    float[][] toArray()
+    {
+        return evaluate(true, null, this)[0];
+    }
+    float[] toFlatArray()
+    {
+        return evaluateFlat(true, null, this)[0];
+    }
+    // Evaluate several float[width][height] expressions in one pass.  If into
+    // isn't null, the results are put into any of its arrays that aren't null,
+    // which must be the right size.  The rest are made.
+    static float[][][] evaluate(boolean parallel, float[][][] into,
+                                ArrayExpression... expressions)
+    {
+        float[][][] result = new float[expressions.length][][];
+        for (int i = 0; i < expressions.length; ++i) {
+            result[i] = into == null ? null : into[i];
+        }
+        run(parallel, expressions, result);
+        return result;
+    }
+    // The same as above, but with row-major arrays
+    static float[][] evaluateFlat(boolean parallel, float[][] into,
+                                  ArrayExpression... expressions)
+    {
+        float[][][] columns = new float[expressions.length][][];
+        for (int i = 0; i < expressions.length; ++i) {
+            if (into != null && into[i] != null) {
+                columns[i] = new float[][] {into[i]};
+            }
+        }
+        run(parallel, expressions, columns);
+        float[][] result = new float[expressions.length][];
+        for (int i = 0; i < expressions.length; ++i) {
+            result[i] = columns[i][0];
+        }
+        return result;
+    }
+
+    private ArrayExpression(float[][] source, ArrayExpression left,
+                            ArrayExpression right, FloatUnaryOperator unary,
+                            FloatBinaryOperator binary)
+    {
+        M_source = source;
+        M_left = left;
+        M_right = right;
+        M_unary = unary;
+        M_binary = binary;
+    }
+    // Calculate one block of this step from the blocks of the steps it uses,
+    // where every block is an array and the offset of the block in it
+    private void calculate(float[] a, int aOffset, float[] b, int bOffset,
+                           float[] out, int outOffset, int length)
+    {
+        if (M_unary != null) {
+            for (int j = 0; j < length; ++j) {
+                out[outOffset + j] = M_unary.apply(a[aOffset + j]);
+            }
+        }
+        else {
+            for (int j = 0; j < length; ++j) {
+                out[outOffset + j]
+                    = M_binary.apply(a[aOffset + j], b[bOffset + j]);
+            }
+        }
+    }
+
+    // Put every step needed by the expressions in order, so that every step
+    // comes after the steps it uses, and fill in the outputs that are null
+    private static void run(boolean parallel, ArrayExpression[] expressions,
+                            float[][][] outputs)
+    {
+        ArrayList<ArrayExpression> steps = new ArrayList<>();
+        IdentityHashMap<ArrayExpression, Integer> indices
+            = new IdentityHashMap<>();
+        for (ArrayExpression expression : expressions) {
+            order(expression, steps, indices);
+        }
+        int[] lefts = new int[steps.size()];
+        int[] rights = new int[steps.size()];
+        for (int s = 0; s < steps.size(); ++s) {
+            ArrayExpression step = steps.get(s);
+            if (step.M_left != null) lefts[s] = indices.get(step.M_left);
+            if (step.M_right != null) rights[s] = indices.get(step.M_right);
+        }
+        float[][] shape = null;
+        for (ArrayExpression step : steps) {
+            if (step.M_source == null) continue;
+            if (shape == null) shape = step.M_source;
+            else if (step.M_source.length != shape.length
+                    || step.M_source[0].length != shape[0].length) {
+                throw new IllegalArgumentException(
+                    "Every array in an expression must be the same size.");
+            }
+        }
+        int columns = shape.length;
+        int length = shape[0].length;
+        // Which output each step goes into directly, if any.  An expression
+        // that is asked for twice goes into the first one and is copied into
+        // the others, as are arrays that are asked for.
+        int[] outputOf = new int[steps.size()];
+        Arrays.fill(outputOf, -1);
+        for (int i = 0; i < expressions.length; ++i) {
+            if (outputs[i] == null) outputs[i] = new float[columns][length];
+            else if (outputs[i].length != columns
+                    || outputs[i][0].length != length) {
+                throw new IllegalArgumentException(
+                    "The arrays to evaluate into must be the right size.");
+            }
+            int step = indices.get(expressions[i]);
+            if (outputOf[step] == -1 && expressions[i].M_source == null) {
+                outputOf[step] = i;
+            }
+        }
+        int blocksPerColumn = (length + S_block - 1) / S_block;
+        int blocks = columns * blocksPerColumn;
+        int groups = parallel
+            ? Math.min(blocks, 4 * Runtime.getRuntime().availableProcessors())
+            : 1;
+        IntStream stream = IntStream.range(0, groups);
+        if (parallel) stream = stream.parallel();
+        stream.forEach(g -> {
+            float[][] arrays = new float[steps.size()][];
+            int[] offsets = new int[steps.size()];
+            float[][] scratch = new float[steps.size()][];
+            int first = (int)((long)blocks * g / groups);
+            int end = (int)((long)blocks * (g + 1) / groups);
+            for (int block = first; block < end; ++block) {
+                int column = block / blocksPerColumn;
+                int start = (block % blocksPerColumn) * S_block;
+                int size = Math.min(S_block, length - start);
+                for (int s = 0; s < steps.size(); ++s) {
+                    ArrayExpression step = steps.get(s);
+                    if (step.M_source != null) {
+                        arrays[s] = step.M_source[column];
+                        offsets[s] = start;
+                        continue;
+                    }
+                    if (outputOf[s] != -1) {
+                        arrays[s] = outputs[outputOf[s]][column];
+                        offsets[s] = start;
+                    }
+                    else {
+                        if (scratch[s] == null) scratch[s] = new float[S_block];
+                        arrays[s] = scratch[s];
+                        offsets[s] = 0;
+                    }
+                    step.calculate(arrays[lefts[s]], offsets[lefts[s]],
+                                   arrays[rights[s]], offsets[rights[s]],
+                                   arrays[s], offsets[s], size);
+                }
+                for (int i = 0; i < expressions.length; ++i) {
+                    int s = indices.get(expressions[i]);
+                    if (outputOf[s] == i) continue;
+                    System.arraycopy(arrays[s], offsets[s],
+                                     outputs[i][column], start, size);
+                }
+            }
+        });
+    }
+    private static void order(ArrayExpression expression,
+                              ArrayList<ArrayExpression> steps,
+                              IdentityHashMap<ArrayExpression, Integer> indices)
+    {
+        if (indices.containsKey(expression)) return;
+        if (expression.M_left != null) {
+            order(expression.M_left, steps, indices);
+        }
+        if (expression.M_right != null) {
+            order(expression.M_right, steps, indices);
+        }
+        indices.put(expression, steps.size());
+        steps.add(expression);
+    }
+
+    // Elements per block, which is small enough that a block of every step
+    // stays in the cache
+    private static final int S_block = 1024;
+
+    private final float[][]           M_source;
+    private final ArrayExpression     M_left;
+    private final ArrayExpression     M_right;
+    private final FloatUnaryOperator  M_unary;
+    private final FloatBinaryOperator M_binary;
+}
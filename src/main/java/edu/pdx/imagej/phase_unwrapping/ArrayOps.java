@@ -19,45 +19,109 @@
 
 package edu.pdx.imagej.phase_unwrapping;
 
-import java.util.function.BinaryOperator;
-import java.util.function.UnaryOperator;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
 
 final class ArrayOps {
+    // Operators on primitive floats, so that nothing is boxed
+    interface FloatUnaryOperator {
+        float apply(float a);
+    }
+    interface FloatBinaryOperator {
+        float apply(float a, float b);
+    }
+
+    // Apply op to every pair of elements of a1 and a2.  Use ArrayExpression
+    // directly to do several of these in one pass.
     public static float[][] binary(final float[][] a1,
                                    final float[][] a2,
-                                   BinaryOperator<Float> op)
-    {
-        assert a1.length == a2.length;
-        assert a1[0].length == a2[0].length;
-        // Hopefully the others are all equal as well
-        float[][] result = new float[a1.length][a1[0].length];
-        for (int x = 0; x < a1.length; ++x) {
-            for (int y = 0; y < a1[0].length; ++y) {
-                result[x][y] = op.apply(a1[x][y], a2[x][y]);
+                                   FloatBinaryOperator op)
+    {
+        return ArrayExpression.of(a1).combine(a2, op).toArray();
+    }
+    public static float[][] unary(final float[][] a, FloatUnaryOperator op)
+    {
+        return ArrayExpression.of(a).map(op).toArray();
+    }
+    // Convert a float[width][height] into a row-major array, where the pixel
+    // (x, y) is at index y * width + x
+    public static float[] flatten(final float[][] a)
+    {
+        float[] result = new float[a.length * a[0].length];
+        flatten(a, result, 0);
+        return result;
+    }
+    // The same as flatten, but putting the result into a slice of a volume,
+    // starting at offset
+    public static void flatten(final float[][] a, float[] result, int offset)
+    {
+        int width = a.length;
+        int height = a[0].length;
+        for (int x = 0; x < width; ++x) {
+            for (int y = 0; y < height; ++y) {
+                result[offset + y * width + x] = a[x][y];
+            }
+        }
+    }
+    // Get the pixels of an image as a row-major array, the same as flattening
+    // getFloatArray().  The pixels of a FloatProcessor are already like this,
+    // so they are returned directly instead of being copied, and must not be
+    // modified.
+    public static float[] pixels(ImageProcessor image)
+    {
+        if (image instanceof FloatProcessor) return (float[])image.getPixels();
+        return pixels(image, null);
+    }
+    // The same as pixels, but always copying into buffer, unless it is null or
+    // the wrong size, in which case a new array is made
+    public static float[] pixels(ImageProcessor image, float[] buffer)
+    {
+        int size = image.getWidth() * image.getHeight();
+        if (buffer == null || buffer.length != size) buffer = new float[size];
+        for (int i = 0; i < size; ++i) buffer[i] = image.getf(i);
+        return buffer;
+    }
+    // The same as flatten, but for masks.  A null mask stays null.
+    public static boolean[] flatten(final boolean[][] a)
+    {
+        if (a == null) return null;
+        int width = a.length;
+        int height = a[0].length;
+        boolean[] result = new boolean[width * height];
+        for (int x = 0; x < width; ++x) {
+            for (int y = 0; y < height; ++y) {
+                result[y * width + x] = a[x][y];
             }
         }
         return result;
     }
-    public static float[][] unary(final float[][] a, UnaryOperator<Float> op)
+    // The opposite of flatten
+    public static float[][] unflatten(final float[] a, int width, int height)
+    {
+        return unflatten(a, 0, width, height);
+    }
+    // The opposite of flatten into a slice of a volume
+    public static float[][] unflatten(final float[] a, int offset, int width,
+                                      int height)
     {
-        float[][] result = new float[a.length][a[0].length];
-        for (int x = 0; x < a.length; ++x) {
-            for (int y = 0; y < a[0].length; ++y) {
-                result[x][y] = op.apply(a[x][y]);
+        float[][] result = new float[width][height];
+        for (int x = 0; x < width; ++x) {
+            for (int y = 0; y < height; ++y) {
+                result[x][y] = a[offset + y * width + x];
             }
         }
         return result;
     }
-    public static BinaryOperator<Float> Add = (a, b) -> a + b;
-    public static BinaryOperator<Float> Subtract = (a, b) -> a - b;
-    public static BinaryOperator<Float> Multiply = (a, b) -> a * b;
-    public static BinaryOperator<Float> Divide = (a, b) -> a / b;
-    public static UnaryOperator<Float> AddBy(float val)
+    public static FloatBinaryOperator Add = (a, b) -> a + b;
+    public static FloatBinaryOperator Subtract = (a, b) -> a - b;
+    public static FloatBinaryOperator Multiply = (a, b) -> a * b;
+    public static FloatBinaryOperator Divide = (a, b) -> a / b;
+    public static FloatUnaryOperator AddBy(float val)
         {return a -> a + val;}
-    public static UnaryOperator<Float> SubtractBy(float val)
+    public static FloatUnaryOperator SubtractBy(float val)
         {return a -> a - val;}
-    public static UnaryOperator<Float> MultiplyBy(float val)
+    public static FloatUnaryOperator MultiplyBy(float val)
         {return a -> a * val;}
-    public static UnaryOperator<Float> DivideBy(float val)
+    public static FloatUnaryOperator DivideBy(float val)
         {return a -> a / val;}
 }
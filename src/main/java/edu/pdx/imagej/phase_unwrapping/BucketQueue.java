@@ -0,0 +1,83 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import java.util.Arrays;
+
+// BucketQueue is a priority queue of integer items (usually pixel indices)
+// keyed by a small integer level.  Every level has its own FIFO list, so items
+// with the same level come out in the order they were put in.  Pushing is O(1),
+// and popping only has to scan a bitmap of the non-empty levels.
+//
+// Every item must be less than the capacity and must only be in the queue once
+// at a time, because the lists are threaded through a single array indexed by
+// item.
+final class BucketQueue {
+    public static final int DEFAULT_LEVELS = 1 << 16;
+
+    public BucketQueue(int capacity, int levels)
+    {
+        M_head = new int[levels];
+        M_tail = new int[levels];
+        M_next = new int[capacity];
+        M_occupied = new long[(levels + 63) / 64];
+        Arrays.fill(M_head, -1);
+        Arrays.fill(M_tail, -1);
+    }
+    public void push(int item, int level)
+    {
+        M_next[item] = -1;
+        if (M_tail[level] == -1) {
+            M_head[level] = item;
+            M_occupied[level >>> 6] |= 1L << (level & 63);
+        }
+        else M_next[M_tail[level]] = item;
+        M_tail[level] = item;
+        if (level > M_top) M_top = level;
+        ++M_size;
+    }
+    // Remove and return the oldest item of the highest non-empty level
+    public int pop()
+    {
+        assert M_size > 0;
+        int word = M_top >>> 6;
+        while (M_occupied[word] == 0) --word;
+        int level = (word << 6) + 63
+                    - Long.numberOfLeadingZeros(M_occupied[word]);
+        int item = M_head[level];
+        M_head[level] = M_next[item];
+        if (M_head[level] == -1) {
+            M_tail[level] = -1;
+            M_occupied[word] &= ~(1L << (level & 63));
+        }
+        M_top = level;
+        --M_size;
+        return item;
+    }
+    public boolean isEmpty() {return M_size == 0;}
+    public int size() {return M_size;}
+
+    private final int[]  M_head;
+    private final int[]  M_tail;
+    private final int[]  M_next;
+    private final long[] M_occupied;
+    private int M_top;
+    private int M_size;
+}
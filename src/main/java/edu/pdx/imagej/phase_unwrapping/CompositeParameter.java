@@ -0,0 +1,130 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import java.util.HashMap;
+
+import org.scijava.plugin.Plugin;
+
+import edu.pdx.imagej.dynamic_parameters.ChoiceParameter;
+import edu.pdx.imagej.dynamic_parameters.DParameter;
+import edu.pdx.imagej.dynamic_parameters.DoubleParameter;
+import edu.pdx.imagej.dynamic_parameters.HoldingParameter;
+
+/** CompositeParameter is a DParameter that gets the inputs for
+ * {@link CompositeQuality}: how to combine the qualities, and up to three
+ * qualities with their own parameters and weights.  Every component can be
+ * any quality except for another composite quality, and components that are
+ * "None" are left out.
+ */
+@Plugin(type = DParameter.class)
+public class CompositeParameter extends HoldingParameter<Quality[]> {
+    /** Construct a CompositeParameter.
+     *
+     * @param qualityService The service used to get the qualities that can be
+     *                       components.  Every component gets its own
+     *                       instances.
+     */
+    public CompositeParameter(QualityService qualityService)
+    {
+        super("CompositeBase");
+        String[] operators = {"Product", "Weighted sum"};
+        M_operator = addParameter(
+            new ChoiceParameter("Combine_qualities_by", operators));
+        for (int i = 0; i < S_components; ++i) {
+            HashMap<String, Quality> qualities = qualityService.getQualities();
+            qualities.values().removeIf(q -> q instanceof CompositeQuality);
+            M_qualities[i] = addParameter(
+                new QualityParameter("Quality_" + (i + 1), qualities));
+            M_weights[i] = addParameter(
+                new DoubleParameter(1.0, "Weight_" + (i + 1)));
+        }
+        setVisibilities();
+    }
+    /** See DParameter's documentation. */
+    @Override
+    public void readFromDialog()
+    {
+        super.readFromDialog();
+        setVisibilities();
+    }
+    /** See DParameter's documentation.
+     *
+     * @param c The class that is reading, usually the command that is being
+     *          run.
+     * @param name The name used for this parameter.
+     */
+    @Override
+    public void readFromPrefs(Class<?> c, String name)
+    {
+        super.readFromPrefs(c, name);
+        setVisibilities();
+    }
+    /** Get the component qualities.
+     *
+     * @return The quality chosen for every component, including the ones that
+     *         are "None".
+     */
+    @Override
+    public Quality[] getValue()
+    {
+        Quality[] result = new Quality[S_components];
+        for (int i = 0; i < S_components; ++i) {
+            result[i] = M_qualities[i].getValue();
+        }
+        return result;
+    }
+    /** Get how the qualities are combined.
+     *
+     * @return The operator that combines the qualities.
+     */
+    public CompositeQuality.Operator getOperator()
+    {
+        return M_operator.getValue().equals("Product")
+            ? CompositeQuality.Operator.Product
+            : CompositeQuality.Operator.WeightedSum;
+    }
+    /** Get the weights of the components, in the same order as
+     * {@link getValue}.
+     *
+     * @return The weight of every component.
+     */
+    public double[] getWeights()
+    {
+        double[] result = new double[S_components];
+        for (int i = 0; i < S_components; ++i) {
+            result[i] = M_weights[i].getValue();
+        }
+        return result;
+    }
+
+    // The weights are only used by the weighted sum
+    private void setVisibilities()
+    {
+        boolean sum = getOperator() == CompositeQuality.Operator.WeightedSum;
+        for (DoubleParameter weight : M_weights) weight.setNewVisibility(sum);
+    }
+
+    private static final int S_components = 3;
+
+    private ChoiceParameter    M_operator;
+    private QualityParameter[] M_qualities = new QualityParameter[S_components];
+    private DoubleParameter[]  M_weights = new DoubleParameter[S_components];
+}
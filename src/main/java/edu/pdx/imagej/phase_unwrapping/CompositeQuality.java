@@ -0,0 +1,271 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import java.util.ArrayList;
+import java.util.stream.IntStream;
+
+import org.scijava.Priority;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+import edu.pdx.imagej.dynamic_parameters.DParameter;
+
+/** CompositeQuality is a {@link Quality} that combines several other
+ * qualities, such as the fringe visibility and the phase gradient.  Every
+ * component is first scaled so that its lowest value on the image is zero and
+ * its highest value is one, so that qualities with very different ranges can
+ * be combined.  The scaled components are then either multiplied together or
+ * added together with a weight for each one.
+ * <p>
+ * Components whose value at every pixel only depends on a few pixels around
+ * it, like {@link PhaseGradientQuality} and {@link GradientQuality}, are
+ * calculated one pixel at a time while the components are being combined, so
+ * their maps are never made.  Other components are calculated as usual first.
+ */
+@Plugin(type = Quality.class,
+        name = "Composite",
+        priority = Priority.LOW) // After every other quality
+public class CompositeQuality extends AbstractQuality {
+    /** Operator is the way that the components are combined. */
+    public enum Operator {
+        /** Multiply the scaled components together. */
+        Product,
+        /** Add the scaled components multiplied by their weights. */
+        WeightedSum
+    };
+
+    @Parameter private QualityService P_qualityService;
+    /** {@inheritDoc}
+     * <p>
+     * For CompositeQuality, it is a {@link CompositeParameter}, which has the
+     * operator and the components.
+     */
+    @Override
+    public DParameter param()
+    {
+        if (M_param == null) {
+            M_param = new CompositeParameter(P_qualityService);
+        }
+        return M_param;
+    }
+    /** {@inheritDoc}
+     * <p>
+     * The phase value is given to every component.
+     */
+    @Override
+    public void setPhaseValue(float phaseValue) {M_phase = phaseValue;}
+    /** {@inheritDoc} */
+    @Override
+    public float[][] calculate(float[][] phaseImage, int t, int z)
+    {
+        int width = phaseImage.length;
+        int height = phaseImage[0].length;
+        M_result = ArrayOps.unflatten(calculate(ArrayOps.flatten(phaseImage),
+                                                width, height, t, z),
+                                      width, height);
+        return M_result;
+    }
+    /** {@inheritDoc} */
+    @Override
+    public float[] calculate(float[] phaseImage, int width, int height, int t,
+                             int z)
+    {
+        Quality[] qualities = qualities();
+        double[] weights = weights();
+        boolean product = operator() == Operator.Product;
+        ArrayList<Component> components = new ArrayList<>();
+        for (int i = 0; i < qualities.length; ++i) {
+            if (qualities[i] instanceof NoneQuality) continue;
+            components.add(new Component(qualities[i], weights[i], phaseImage,
+                width, height, slice(t, qualities[i].getTs()),
+                slice(z, qualities[i].getZs())));
+        }
+        float[] result = new float[width * height];
+        if (components.isEmpty()) return result;
+        for (Component component : components) {
+            component.findRange(width, height);
+        }
+        Component[] all = components.toArray(new Component[0]);
+        IntStream.range(0, height).parallel().forEach(y -> {
+            for (int x = 0; x < width; ++x) {
+                double value = product ? 1 : 0;
+                for (Component component : all) {
+                    double scaled = component.scaled(x, y, width);
+                    if (product) value *= scaled;
+                    else value += component.M_weight * scaled;
+                }
+                result[y * width + x] = (float)value;
+            }
+        });
+        return result;
+    }
+    /** {@inheritDoc} */
+    @Override public float[][] getResult() {return M_result;}
+    /** {@inheritDoc}
+     * <p>
+     * For CompositeQuality, it is zero if any component is zero, because that
+     * component has to follow the phase image, and the most that any component
+     * can use otherwise.
+     */
+    @Override
+    public int getTs()
+    {
+        int result = 0;
+        for (Quality quality : qualities()) {
+            if (quality instanceof NoneQuality) continue;
+            if (quality.getTs() == 0) return 0;
+            result = Math.max(result, quality.getTs());
+        }
+        return result;
+    }
+    /** {@inheritDoc}
+     * <p>
+     * For CompositeQuality, it is zero if any component is zero, because that
+     * component has to follow the phase image, and the most that any component
+     * can use otherwise.
+     */
+    @Override
+    public int getZs()
+    {
+        int result = 0;
+        for (Quality quality : qualities()) {
+            if (quality instanceof NoneQuality) continue;
+            if (quality.getZs() == 0) return 0;
+            result = Math.max(result, quality.getZs());
+        }
+        return result;
+    }
+    /** {@inheritDoc}
+     * <p>
+     * The new CompositeQuality has duplicates of the components that are
+     * currently chosen, or is null if any of them can't be duplicated.
+     */
+    @Override
+    public Quality duplicate()
+    {
+        Quality[] qualities = qualities();
+        Quality[] duplicates = new Quality[qualities.length];
+        for (int i = 0; i < qualities.length; ++i) {
+            duplicates[i] = qualities[i].duplicate();
+            if (duplicates[i] == null) return null;
+        }
+        CompositeQuality result = new CompositeQuality();
+        result.setComponents(operator(), duplicates, weights());
+        result.M_phase = M_phase;
+        return result;
+    }
+
+    // The slice of a component with count slices to use for slice n of the
+    // composite.  The composite follows the phase image if any component does,
+    // so a component with fewer slices than that uses its first slice.
+    private static int slice(int n, int count)
+    {
+        return count == 0 || n <= count ? n : 1;
+    }
+    // Bypass the parameter, for testing and for duplicates
+    void setComponents(Operator operator, Quality[] qualities,
+                       double[] weights)
+    {
+        M_operator = operator;
+        M_qualities = qualities;
+        M_weights = weights;
+    }
+    private Quality[] qualities()
+    {
+        return M_qualities == null ? M_param.getValue() : M_qualities;
+    }
+    private double[] weights()
+    {
+        return M_weights == null ? M_param.getWeights() : M_weights;
+    }
+    private Operator operator()
+    {
+        return M_operator == null ? M_param.getOperator() : M_operator;
+    }
+
+    // One component for one phase image, which is either a stencil or a map
+    private final class Component {
+        Component(Quality quality, double weight, float[] phaseImage,
+                  int width, int height, int t, int z)
+        {
+            quality.setPhaseValue(M_phase);
+            M_weight = weight;
+            if (quality instanceof StencilQuality) {
+                M_stencil = ((StencilQuality)quality)
+                    .stencil(phaseImage, width, height, t, z);
+                M_map = null;
+            }
+            else {
+                M_stencil = null;
+                M_map = quality.calculate(phaseImage, width, height, t, z);
+            }
+        }
+        // Find the lowest and highest values.  Stencils go through the image
+        // once for this and once more when they are combined, so that their
+        // maps never have to be kept.  NaN values are skipped.
+        void findRange(int width, int height)
+        {
+            float[] mins = new float[height];
+            float[] maxes = new float[height];
+            IntStream.range(0, height).parallel().forEach(y -> {
+                float min = Float.POSITIVE_INFINITY;
+                float max = Float.NEGATIVE_INFINITY;
+                for (int x = 0; x < width; ++x) {
+                    float value = value(x, y, width);
+                    if (value < min) min = value;
+                    if (value > max) max = value;
+                }
+                mins[y] = min;
+                maxes[y] = max;
+            });
+            float min = Float.POSITIVE_INFINITY;
+            float max = Float.NEGATIVE_INFINITY;
+            for (int y = 0; y < height; ++y) {
+                min = Math.min(min, mins[y]);
+                max = Math.max(max, maxes[y]);
+            }
+            // A component that is the same everywhere scales to one
+            M_min = max > min ? min : max - 1;
+            M_scale = max > min ? 1.0 / ((double)max - min) : 1;
+        }
+        float value(int x, int y, int width)
+        {
+            return M_stencil == null ? M_map[y * width + x]
+                                     : M_stencil.at(x, y);
+        }
+        double scaled(int x, int y, int width)
+        {
+            return (value(x, y, width) - M_min) * M_scale;
+        }
+        final double M_weight;
+        private final StencilQuality.Stencil M_stencil;
+        private final float[] M_map;
+        private double M_min;
+        private double M_scale;
+    }
+
+    private CompositeParameter M_param;
+    private Operator           M_operator;
+    private Quality[]          M_qualities;
+    private double[]           M_weights;
+    private float              M_phase;
+    private float[][]          M_result;
+}
@@ -0,0 +1,149 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+// Dct is a plan for a type-II discrete cosine transform of one size, and its
+// inverse, computed with one complex FFT of the same size (Makhoul's method).
+// Like Fft, plans are cached by size and should be gotten with Dct.get.  Each
+// thread gets its own scratch space, so one plan can be used by many threads at
+// once.
+//
+// The forward transform is X[k] = sum x[n] cos(pi k (2n + 1) / 2N), with no
+// scaling, and the inverse undoes it exactly.
+final class Dct {
+    public static Dct get(int size)
+    {
+        return S_plans.computeIfAbsent(size, Dct::new);
+    }
+    // Transform size() values of data, starting at offset and stepping by
+    // stride, in place
+    public void forward(double[] data, int offset, int stride)
+    {
+        int n = M_size;
+        double[] work = M_scratch.get();
+        // Even elements go forward, odd elements go backward
+        for (int i = 0; 2 * i < n; ++i) {
+            work[2 * i] = data[offset + 2 * i * stride];
+            work[2 * i + 1] = 0;
+        }
+        for (int i = 0; 2 * i + 1 < n; ++i) {
+            work[2 * (n - 1 - i)] = data[offset + (2 * i + 1) * stride];
+            work[2 * (n - 1 - i) + 1] = 0;
+        }
+        M_fft.forward(work, M_bluestein.get());
+        for (int k = 0; k < n; ++k) {
+            data[offset + k * stride] = work[2 * k] * M_cos[k]
+                                      + work[2 * k + 1] * M_sin[k];
+        }
+    }
+    // Undo forward
+    public void inverse(double[] data, int offset, int stride)
+    {
+        int n = M_size;
+        double[] work = M_scratch.get();
+        // Rebuild the conjugate of the FFT of the shuffled data, so that a
+        // forward FFT can be used as the inverse
+        for (int k = 0; k < n; ++k) {
+            double re = data[offset + k * stride];
+            double im = k == 0 ? 0 : -data[offset + (n - k) * stride];
+            work[2 * k] = re * M_cos[k] - im * M_sin[k];
+            work[2 * k + 1] = -(re * M_sin[k] + im * M_cos[k]);
+        }
+        M_fft.forward(work, M_bluestein.get());
+        for (int i = 0; 2 * i < n; ++i) {
+            data[offset + 2 * i * stride] = work[2 * i] / n;
+        }
+        for (int i = 0; 2 * i + 1 < n; ++i) {
+            data[offset + (2 * i + 1) * stride] = work[2 * (n - 1 - i)] / n;
+        }
+    }
+
+    // Transform a row-major width by height image in place, first along every
+    // row and then along every column, both in parallel
+    public static void forward2d(double[] data, int width, int height)
+    {
+        Dct rows = get(width);
+        Dct columns = get(height);
+        IntStream.range(0, height).parallel()
+            .forEach(y -> rows.forward(data, y * width, 1));
+        IntStream.range(0, width).parallel()
+            .forEach(x -> columns.forward(data, x, width));
+    }
+    // Undo forward2d
+    public static void inverse2d(double[] data, int width, int height)
+    {
+        Dct rows = get(width);
+        Dct columns = get(height);
+        IntStream.range(0, width).parallel()
+            .forEach(x -> columns.inverse(data, x, width));
+        IntStream.range(0, height).parallel()
+            .forEach(y -> rows.inverse(data, y * width, 1));
+    }
+    // Solve the discrete Poisson equation with Neumann boundary conditions in
+    // place.  data starts as the right hand side and ends as the solution with
+    // a mean of zero.  The laplacian used is the usual five point one, where
+    // neighbors that are off the image are replaced with the pixel itself.
+    public static void solvePoisson(double[] data, int width, int height)
+    {
+        forward2d(data, width, height);
+        double[] xTerm = new double[width];
+        for (int x = 0; x < width; ++x) {
+            xTerm[x] = 2 * Math.cos(Math.PI * x / width) - 2;
+        }
+        IntStream.range(0, height).parallel().forEach(y -> {
+            double yTerm = 2 * Math.cos(Math.PI * y / height) - 2;
+            for (int x = 0; x < width; ++x) {
+                double eigenvalue = xTerm[x] + yTerm;
+                int i = y * width + x;
+                data[i] = eigenvalue == 0 ? 0 : data[i] / eigenvalue;
+            }
+        });
+        inverse2d(data, width, height);
+    }
+
+    private Dct(int size)
+    {
+        M_size = size;
+        M_fft = Fft.get(size);
+        M_cos = new double[size];
+        M_sin = new double[size];
+        for (int k = 0; k < size; ++k) {
+            double angle = Math.PI * k / (2.0 * size);
+            M_cos[k] = Math.cos(angle);
+            M_sin[k] = Math.sin(angle);
+        }
+        M_scratch = ThreadLocal.withInitial(() -> new double[2 * size]);
+        M_bluestein = ThreadLocal.withInitial(
+            () -> new double[M_fft.scratchSize()]);
+    }
+
+    private final int                 M_size;
+    private final Fft                 M_fft;
+    private final double[]            M_cos;
+    private final double[]            M_sin;
+    private final ThreadLocal<double[]> M_scratch;
+    private final ThreadLocal<double[]> M_bluestein;
+
+    private static final ConcurrentHashMap<Integer, Dct> S_plans
+        = new ConcurrentHashMap<>();
+}
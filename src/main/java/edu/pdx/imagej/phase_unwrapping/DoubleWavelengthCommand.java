@@ -47,6 +47,7 @@ public class DoubleWavelengthCommand implements Command, Initializable {
     @Parameter private DoubleParameter     P_wavelength2;
     @Parameter private PhaseValueParameter P_phaseValue;
     @Parameter private BoolParameter       P_showSteps;
+    @Parameter private IntParameter        P_parallelSlices;
 
     /** Initializes the dynamic parameters. */
     @Override
@@ -59,6 +60,9 @@ public class DoubleWavelengthCommand implements Command, Initializable {
         P_phaseValue  = new PhaseValueParameter("Pixel_phase_value",
                                                  P_phaseImage1);
         P_showSteps   = new BoolParameter("Show_intermediate_steps", false);
+        P_parallelSlices = new IntParameter(1,
+            "Parallel_slices (0 for all processors)");
+        P_parallelSlices.setBounds(0, Integer.MAX_VALUE);
 
         P_wavelength1.setBounds(Double.MIN_VALUE, Double.MAX_VALUE);
         P_wavelength2.setBounds(Double.MIN_VALUE, Double.MAX_VALUE);
@@ -75,7 +79,10 @@ public class DoubleWavelengthCommand implements Command, Initializable {
             P_phaseImage2.getValue(),
             P_wavelength2.getValue(),
             P_phaseValue.getValue(),
-            P_showSteps.getValue());
+            P_showSteps.getValue(),
+            null,
+            StreamedStack.Format.Raw,
+            P_parallelSlices.getValue());
         for (ImagePlus stack : result) stack.show();
     }
 }
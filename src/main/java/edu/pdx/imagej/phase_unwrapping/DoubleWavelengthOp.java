@@ -19,6 +19,8 @@
 
 package edu.pdx.imagej.phase_unwrapping;
 
+import java.util.stream.IntStream;
+
 import org.scijava.ItemIO;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
@@ -44,6 +46,9 @@ import net.imagej.ops.Op;
  * <code>result[0]</code> is the coarse map and <code>result[1]</code> is the
  * fine map.  If show steps is <code>true</code>, there are seven images in the
  * result, corresponding to the (a)-(g) images described in the literature.
+ * Without the steps, the coarse and fine maps are found in one parallel pass
+ * without making any of the other images, so it is much faster and uses much
+ * less memory.
  */
 @Plugin(type = Op.class, name = "Double Wavelength Phase Unwrapping")
 public class DoubleWavelengthOp extends AbstractOp {
@@ -60,22 +65,73 @@ public class DoubleWavelengthOp extends AbstractOp {
         float combinedWavelength =
                     (P_image1.wavelength * P_image2.wavelength) /
             Math.abs(P_image1.wavelength - P_image2.wavelength);
-        int width = P_image1.phaseImage.length;
-        int height = P_image1.phaseImage[0].length;
         float phaseValue = P_image1.phaseValue;
+        if (!P_showSteps) {
+            P_result = coarseAndFine(combinedWavelength);
+            return;
+        }
         if (P_image1.phaseValue != P_image2.phaseValue) scaleImage2();
 
-        float[][][] result = new float[7][width][height];
+        // Every step is done in one pass over the images
+        ArrayExpression image1 = ArrayExpression.of(P_image1.phaseImage);
+        ArrayExpression image2 = ArrayExpression.of(P_image2.phaseImage);
+        ArrayExpression difference = subtractImages(image1, image2);
+        ArrayExpression coarse = createCoarseFromDifference(difference,
+                                  phaseValue, combinedWavelength,
+                                  P_image1.wavelength);
+        ArrayExpression rounded = roundTo(coarse, phaseValue);
+        ArrayExpression added = addImages(rounded, image1);
+        ArrayExpression fine = bringCloseTo(added, coarse, phaseValue);
+        float[][][] steps = ArrayExpression.evaluate(true, null, difference,
+                                                     coarse, rounded, added,
+                                                     fine);
+        float[][][] result = new float[7][][];
         result[0] = P_image1.phaseImage;
         result[1] = P_image2.phaseImage;
-        result[2] = subtractImages(P_image1.phaseImage, P_image2.phaseImage);
-        result[3] = createCoarseFromDifference(result[2], phaseValue,
-                                      combinedWavelength, P_image1.wavelength);
-        result[4] = roundTo(result[3], phaseValue);
-        result[5] = addImages(result[4], P_image1.phaseImage);
-        result[6] = bringCloseTo(result[5], result[3], phaseValue);
-        if (P_showSteps) P_result = result;
-        else P_result = new float[][][] {result[3], result[6]};
+        System.arraycopy(steps, 0, result, 2, steps.length);
+        P_result = result;
+    }
+    // When the steps aren't shown, only the coarse and fine maps are made, one
+    // column at a time in parallel, and image 2 is scaled as it is read
+    private float[][][] coarseAndFine(float combinedWavelength)
+    {
+        float[][] image1 = P_image1.phaseImage;
+        float[][] image2 = P_image2.phaseImage;
+        int width = image1.length;
+        int height = image1[0].length;
+        float[][] coarse = new float[width][height];
+        float[][] fine = new float[width][height];
+        float phaseValue = P_image1.phaseValue;
+        float phaseValue2 = P_image2.phaseValue;
+        float coarseScale = combinedWavelength / P_image1.wavelength;
+        IntStream.range(0, width).parallel().forEach(x ->
+            coarseAndFine(image1[x], image2[x], coarse[x], fine[x], 0, height,
+                          phaseValue, phaseValue2, coarseScale));
+        return new float[][][] {coarse, fine};
+    }
+    // Every step from image 1 and 2 to the coarse and fine maps for the pixels
+    // from start up to but not including end, without keeping any of the steps
+    // in between.  This gives exactly the same results as doing every step on
+    // its own.  This is package-private so that DoubleWavelengthStackOp can use
+    // it on the pixels of its slices.
+    static void coarseAndFine(float[] image1, float[] image2, float[] coarse,
+                              float[] fine, int start, int end,
+                              float phaseValue, float phaseValue2,
+                              float coarseScale)
+    {
+        boolean scale = phaseValue != phaseValue2;
+        float half = phaseValue / 2;
+        for (int i = start; i < end; ++i) {
+            float a = image1[i];
+            float b = scale ? image2[i] * phaseValue / phaseValue2 : image2[i];
+            float difference = a - b;
+            if (difference < 0) difference += phaseValue;
+            float c = difference * coarseScale;
+            float f = (int)(c / phaseValue) * phaseValue + a;
+            if (Math.abs(f - c) > half) f -= phaseValue * Math.signum(f - c);
+            coarse[i] = c;
+            fine[i] = f;
+        }
     }
     private void scaleImage2()
     {
@@ -97,31 +153,33 @@ public class DoubleWavelengthOp extends AbstractOp {
         }
         P_image2 = newPhaseImage;
     }
-    static private float[][] subtractImages(float[][] image1, float[][] image2)
+    static private ArrayExpression subtractImages(ArrayExpression image1,
+                                                  ArrayExpression image2)
     {
-        return ArrayOps.binary(image1, image2, ArrayOps.Subtract);
+        return image1.combine(image2, ArrayOps.Subtract);
     }
-    static private float[][] createCoarseFromDifference(
-        float[][] difference, float phaseValue,
+    static private ArrayExpression createCoarseFromDifference(
+        ArrayExpression difference, float phaseValue,
         float combinedWavelength, float wavelength1)
     {
-        return ArrayOps.unary(
-            ArrayOps.unary(difference, a -> a < 0 ? a + phaseValue : a),
-            ArrayOps.MultiplyBy(combinedWavelength / wavelength1));
+        return difference.map(a -> a < 0 ? a + phaseValue : a)
+                         .map(ArrayOps.MultiplyBy(combinedWavelength
+                                                  / wavelength1));
     }
-    static private float[][] roundTo(float[][] image, float round)
+    static private ArrayExpression roundTo(ArrayExpression image, float round)
     {
-        return ArrayOps.unary(image, a -> (int)(a / round) * round);
+        return image.map(a -> (int)(a / round) * round);
     }
-    static private float[][] addImages(float[][] image1, float[][] image2)
+    static private ArrayExpression addImages(ArrayExpression image1,
+                                             ArrayExpression image2)
     {
-        return ArrayOps.binary(image1, image2, ArrayOps.Add);
+        return image1.combine(image2, ArrayOps.Add);
     }
-    static private float[][] bringCloseTo(float[][] from,
-                                            float[][] to,
-                                            float threshold)
+    static private ArrayExpression bringCloseTo(ArrayExpression from,
+                                                ArrayExpression to,
+                                                float threshold)
     {
-        return ArrayOps.binary(from, to,
+        return from.combine(to,
             (a, b) -> Math.abs(a - b) > (threshold / 2)
                 ? a - threshold * Math.signum(a - b)
                 : a);
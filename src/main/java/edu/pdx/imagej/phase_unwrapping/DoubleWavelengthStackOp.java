@@ -19,10 +19,13 @@
 
 package edu.pdx.imagej.phase_unwrapping;
 
-import ij.IJ;
+import java.io.File;
+import java.util.stream.IntStream;
+
 import ij.ImagePlus;
 import ij.ImageStack;
 import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
 
 import org.scijava.ItemIO;
 import org.scijava.plugin.Parameter;
@@ -48,7 +51,35 @@ import net.imagej.ops.OpService;
  *     <li>Phase value 2: The pixel phase value of the second wavelength images.
  *     <li>Show steps: Whether or not to show the steps taken.  See
  *                     {@link DoubleWavelengthOp}.
+ *     <li>Output directory (optional): A <code>File</code> with the directory
+ *                                      that the results are streamed to, with
+ *                                      one file or directory for each result.
+ *                                      If it is null, the results are kept in
+ *                                      memory.
+ *     <li>Output format (optional): The {@link StreamedStack.Format} that the
+ *                                   results are written in when there is an
+ *                                   output directory.  It defaults to
+ *                                   {@link StreamedStack.Format#Raw}.
+ *     <li>Parallel slices (optional): The number of pairs of slices to unwrap
+ *                                     at the same time.  If it is zero or
+ *                                     less, it is the number of processors.
+ *                                     It defaults to one.
  * </ol>
+ * <p>
+ * The phase images may be virtual stacks, such as a {@link MappedStack} of a
+ * file larger than memory.  Each pair of slices is read only when it is about
+ * to be unwrapped.  With an output directory, the results are
+ * {@link StreamedStack}s, and every slice is written to disk as soon as it is
+ * done, so the results aren't kept in memory either.
+ * <p>
+ * When more than one pair of slices is unwrapped at a time, they are handed
+ * out to a work-stealing pool with the given number of threads, and every
+ * slice is put in its place in the results as soon as it is done.  Without
+ * the steps, every thread reuses the buffers that it reads slices into, and
+ * also the buffers its results are made in when they are streamed to disk.
+ * The pixels of 32-bit slices are used directly without being copied.  When
+ * one pair is unwrapped at a time, each pair is split across all of the
+ * processors instead.  The results are the same either way.
  */
 @Plugin(type = Op.class, name = "Double Wavelength Phase Unwrapping")
 public class DoubleWavelengthStackOp extends AbstractOp {
@@ -61,6 +92,10 @@ public class DoubleWavelengthStackOp extends AbstractOp {
     @Parameter private float     P_wavelength2;
     @Parameter private float     P_phaseValue2;
     @Parameter private boolean   P_showSteps;
+    @Parameter(required = false) private File P_outputDirectory;
+    @Parameter(required = false)
+    private StreamedStack.Format P_outputFormat = StreamedStack.Format.Raw;
+    @Parameter(required = false) private int P_parallelSlices = 1;
     // Outputs
     @Parameter(type = ItemIO.OUTPUT) private ImagePlus[] P_result;
 
@@ -69,80 +104,108 @@ public class DoubleWavelengthStackOp extends AbstractOp {
     {
         int width = P_phaseImage1.getWidth();
         int height = P_phaseImage1.getHeight();
-        ImageStack[] stacks = P_showSteps ? new ImageStack[7] :
-                                             new ImageStack[2];
-        for (int i = 0; i < (P_showSteps ? 7 : 2); ++i) {
-            stacks[i] = new ImageStack(width, height);
-        }
-
         int tSize = Math.min(P_phaseImage1.getNFrames(),
                               P_phaseImage2.getNFrames());
         int zSize = Math.min(P_phaseImage1.getNSlices(),
                               P_phaseImage2.getNSlices());
         int finalSize = tSize * zSize;
-        int i = 0;
-        for (int t = 1; t <= tSize; ++t) {
-            for (int z = 1; z <= zSize; ++z) {
-                if (finalSize > 1) {
-                    IJ.showProgress(i, finalSize);
-                    ++i;
-                }
-                computeSlice(stacks, t, z);
-            }
+        String[] labels = P_showSteps ? S_stepLabels : S_labels;
+        ImageStack[] stacks = new ImageStack[labels.length];
+        for (int i = 0; i < labels.length; ++i) {
+            stacks[i] = StreamedStack.make(P_outputDirectory, P_outputFormat,
+                labels[i], width, height, finalSize, 32);
         }
-        showResult(stacks, zSize, tSize);
-    }
-    private void computeSlice(ImageStack[] stacks, int t, int z)
-    {
-        int currentSlice1 = P_phaseImage1.getStackIndex(1, z, t);
-        int currentSlice2 = P_phaseImage2.getStackIndex(1, z, t);
-        float[][] img1 = P_phaseImage1.getStack()
-                                       .getProcessor(currentSlice1)
-                                       .getFloatArray();
-        float[][] img2 = P_phaseImage2.getStack()
-                                       .getProcessor(currentSlice2)
-                                       .getFloatArray();
-        PhaseImage image1 = new PhaseImage();
-        image1.phaseImage = img1;
-        image1.wavelength = P_wavelength1;
-        image1.phaseValue = P_phaseValue1;
-        PhaseImage image2 = new PhaseImage();
-        image2.phaseImage = img2;
-        image2.wavelength = P_wavelength2;
-        image2.phaseValue = P_phaseValue2;
-        float[][][] result = (float[][][])P_ops.run(
-            "Double Wavelength Phase Unwrapping",
-        image1, image2, P_showSteps);
-        for (int j = 0; j < result.length; ++j) {
-            stacks[j].addSlice(new FloatProcessor(result[j]));
+
+        SliceDriver.run(zSize, finalSize, P_parallelSlices,
+                        split -> new SliceWorker(stacks, split));
+        P_result = new ImagePlus[labels.length];
+        for (int j = 0; j < labels.length; ++j) {
+            P_result[j] = StreamedStack.hyperstack(labels[j], stacks[j],
+                                                   zSize, tSize);
         }
     }
-    private void showResult(ImageStack[] stacks, int zSize, int tSize)
-    {
-        if (P_showSteps) {
-            P_result = new ImagePlus[] {
-                getStack(stacks[0], "Phase Image 1 (a)", zSize, tSize),
-                getStack(stacks[1], "Phase Image 2 (b)", zSize, tSize),
-                getStack(stacks[2], "Phase Difference (c)", zSize, tSize),
-                getStack(stacks[3], "Coarse Map (d)", zSize, tSize),
-                getStack(stacks[4], "Round to Phase 1 (e)", zSize, tSize),
-                getStack(stacks[5], "Round + Phase 1 (f)", zSize, tSize),
-                getStack(stacks[6], "Fine Map (g)", zSize, tSize)
-            };
+
+    // Unwraps pairs of slices, keeping its results between pairs
+    private class SliceWorker extends SliceDriver.Worker {
+        SliceWorker(ImageStack[] stacks, boolean split)
+        {
+            super(stacks, split, 2);
+        }
+        @Override
+        void compute(int t, int z, int index)
+        {
+            ImageProcessor slice1 = P_phaseImage1.getStack().getProcessor(
+                P_phaseImage1.getStackIndex(1, z, t));
+            ImageProcessor slice2 = P_phaseImage2.getStack().getProcessor(
+                P_phaseImage2.getStackIndex(1, z, t));
+            if (P_showSteps) computeSteps(slice1, slice2, index);
+            else computeMaps(slice1, slice2, index);
+        }
+        // Every step needs its own image, so these go through
+        // DoubleWavelengthOp
+        private void computeSteps(ImageProcessor slice1, ImageProcessor slice2,
+                                  int index)
+        {
+            PhaseImage image1 = new PhaseImage();
+            image1.phaseImage = slice1.getFloatArray();
+            image1.wavelength = P_wavelength1;
+            image1.phaseValue = P_phaseValue1;
+            PhaseImage image2 = new PhaseImage();
+            image2.phaseImage = slice2.getFloatArray();
+            image2.wavelength = P_wavelength2;
+            image2.phaseValue = P_phaseValue2;
+            float[][][] result = (float[][][])P_ops.run(
+                "Double Wavelength Phase Unwrapping", image1, image2, true);
+            for (int j = 0; j < result.length; ++j) {
+                M_stacks[j].setProcessor(new FloatProcessor(result[j]), index);
+            }
         }
-        else {
-            P_result = new ImagePlus[] {
-                getStack(stacks[0], "Coarse Map", zSize, tSize),
-                getStack(stacks[1], "Fine Map", zSize, tSize)
-            };
+        // Only the coarse and fine maps, found straight from the pixels
+        private void computeMaps(ImageProcessor slice1, ImageProcessor slice2,
+                                 int index)
+        {
+            int width = slice1.getWidth();
+            int height = slice1.getHeight();
+            int size = width * height;
+            float[] image1 = pixels(slice1, 0);
+            float[] image2 = pixels(slice2, 1);
+            M_coarse = result(M_coarse, size);
+            M_fine = result(M_fine, size);
+            float[] coarse = M_coarse;
+            float[] fine = M_fine;
+            float coarseScale = combinedWavelength() / P_wavelength1;
+            if (M_split) {
+                IntStream.range(0, height).parallel().forEach(y ->
+                    DoubleWavelengthOp.coarseAndFine(image1, image2, coarse,
+                        fine, y * width, (y + 1) * width, P_phaseValue1,
+                        P_phaseValue2, coarseScale));
+            }
+            else {
+                DoubleWavelengthOp.coarseAndFine(image1, image2, coarse, fine,
+                    0, size, P_phaseValue1, P_phaseValue2, coarseScale);
+            }
+            M_stacks[0].setProcessor(
+                new FloatProcessor(width, height, coarse), index);
+            M_stacks[1].setProcessor(
+                new FloatProcessor(width, height, fine), index);
         }
+        private float[] M_coarse;
+        private float[] M_fine;
     }
-    private ImagePlus getStack(ImageStack stack, String label,
-                                int zSize, int tSize)
+    private float combinedWavelength()
     {
-        ImagePlus imp = IJ.createHyperStack(
-            label, stack.getWidth(), stack.getHeight(), 1, zSize, tSize, 32);
-        imp.setStack(stack);
-        return imp;
+        return (P_wavelength1 * P_wavelength2)
+            / Math.abs(P_wavelength1 - P_wavelength2);
     }
+
+    private static final String[] S_stepLabels = {
+        "Phase Image 1 (a)",
+        "Phase Image 2 (b)",
+        "Phase Difference (c)",
+        "Coarse Map (d)",
+        "Round to Phase 1 (e)",
+        "Round + Phase 1 (f)",
+        "Fine Map (g)"
+    };
+    private static final String[] S_labels = {"Coarse Map", "Fine Map"};
 }
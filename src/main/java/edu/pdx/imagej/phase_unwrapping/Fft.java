@@ -0,0 +1,177 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+// Fft is a plan for a complex fast Fourier transform of one size.  Powers of
+// two use an iterative radix-2 transform, and every other size uses Bluestein's
+// algorithm on top of a larger power of two.  Creating a plan computes all of
+// the twiddle factors, so plans are cached by size and should be gotten with
+// Fft.get.  Plans never change after they are made, so they can be shared
+// between threads; any scratch space is passed in by the caller.
+//
+// Complex arrays are interleaved: element k is (a[2k], a[2k + 1]).
+final class Fft {
+    public static Fft get(int size)
+    {
+        // Making a plan can make another plan, so computeIfAbsent can't be
+        // used here
+        Fft plan = S_plans.get(size);
+        if (plan == null) {
+            plan = new Fft(size);
+            Fft other = S_plans.putIfAbsent(size, plan);
+            if (other != null) plan = other;
+        }
+        return plan;
+    }
+    public int size() {return M_size;}
+    // The length of the scratch array needed by forward
+    public int scratchSize()
+    {
+        return M_bluestein == null ? 0 : 2 * M_bluestein.M_size;
+    }
+    // Compute the forward transform of data in place.  data must have at least
+    // 2 * size() elements, and scratch must have at least scratchSize().
+    public void forward(double[] data, double[] scratch)
+    {
+        if (M_bluestein == null) radix2(data, false);
+        else bluestein(data, scratch);
+    }
+
+    private Fft(int size)
+    {
+        M_size = size;
+        if (Integer.bitCount(size) == 1) {
+            // Twiddle factors for radix 2
+            M_twiddle = new double[size];
+            for (int k = 0; k < size / 2; ++k) {
+                double angle = -2 * Math.PI * k / size;
+                M_twiddle[2 * k] = Math.cos(angle);
+                M_twiddle[2 * k + 1] = Math.sin(angle);
+            }
+            M_bluestein = null;
+            M_chirp = null;
+            M_filter = null;
+        }
+        else {
+            int bigSize = Integer.highestOneBit(2 * size - 1) << 1;
+            M_bluestein = get(bigSize);
+            M_twiddle = null;
+            // The chirp is exp(-i pi n^2 / size).  n^2 is taken modulo
+            // 2 * size to keep the angle small and accurate.
+            M_chirp = new double[2 * size];
+            for (int n = 0; n < size; ++n) {
+                long square = (long)n * n % (2L * size);
+                double angle = -Math.PI * square / size;
+                M_chirp[2 * n] = Math.cos(angle);
+                M_chirp[2 * n + 1] = Math.sin(angle);
+            }
+            // The filter is the transform of the conjugate chirp, wrapped
+            // around so that it is symmetric
+            M_filter = new double[2 * bigSize];
+            for (int n = 0; n < size; ++n) {
+                M_filter[2 * n] = M_chirp[2 * n];
+                M_filter[2 * n + 1] = -M_chirp[2 * n + 1];
+                if (n > 0) {
+                    M_filter[2 * (bigSize - n)] = M_chirp[2 * n];
+                    M_filter[2 * (bigSize - n) + 1] = -M_chirp[2 * n + 1];
+                }
+            }
+            M_bluestein.radix2(M_filter, false);
+        }
+    }
+    private void radix2(double[] data, boolean inverse)
+    {
+        int n = M_size;
+        // Bit reversal permutation
+        for (int i = 1, j = 0; i < n; ++i) {
+            int bit = n >> 1;
+            for (; (j & bit) != 0; bit >>= 1) j ^= bit;
+            j ^= bit;
+            if (i < j) {
+                double temp = data[2 * i];
+                data[2 * i] = data[2 * j];
+                data[2 * j] = temp;
+                temp = data[2 * i + 1];
+                data[2 * i + 1] = data[2 * j + 1];
+                data[2 * j + 1] = temp;
+            }
+        }
+        double sign = inverse ? -1 : 1;
+        for (int length = 2; length <= n; length <<= 1) {
+            int half = length >> 1;
+            int step = n / length;
+            for (int start = 0; start < n; start += length) {
+                for (int k = 0; k < half; ++k) {
+                    double wr = M_twiddle[2 * k * step];
+                    double wi = sign * M_twiddle[2 * k * step + 1];
+                    int a = 2 * (start + k);
+                    int b = 2 * (start + k + half);
+                    double br = data[b] * wr - data[b + 1] * wi;
+                    double bi = data[b] * wi + data[b + 1] * wr;
+                    data[b] = data[a] - br;
+                    data[b + 1] = data[a + 1] - bi;
+                    data[a] += br;
+                    data[a + 1] += bi;
+                }
+            }
+        }
+    }
+    private void bluestein(double[] data, double[] scratch)
+    {
+        int n = M_size;
+        int m = M_bluestein.M_size;
+        for (int k = 0; k < n; ++k) {
+            double cr = M_chirp[2 * k];
+            double ci = M_chirp[2 * k + 1];
+            scratch[2 * k] = data[2 * k] * cr - data[2 * k + 1] * ci;
+            scratch[2 * k + 1] = data[2 * k] * ci + data[2 * k + 1] * cr;
+        }
+        for (int k = 2 * n; k < 2 * m; ++k) scratch[k] = 0;
+        M_bluestein.radix2(scratch, false);
+        for (int k = 0; k < m; ++k) {
+            double ar = scratch[2 * k];
+            double ai = scratch[2 * k + 1];
+            double fr = M_filter[2 * k];
+            double fi = M_filter[2 * k + 1];
+            scratch[2 * k] = ar * fr - ai * fi;
+            scratch[2 * k + 1] = ar * fi + ai * fr;
+        }
+        M_bluestein.radix2(scratch, true);
+        for (int k = 0; k < n; ++k) {
+            double ar = scratch[2 * k] / m;
+            double ai = scratch[2 * k + 1] / m;
+            double cr = M_chirp[2 * k];
+            double ci = M_chirp[2 * k + 1];
+            data[2 * k] = ar * cr - ai * ci;
+            data[2 * k + 1] = ar * ci + ai * cr;
+        }
+    }
+
+    private final int      M_size;
+    private final double[] M_twiddle;
+    private final Fft      M_bluestein;
+    private final double[] M_chirp;
+    private final double[] M_filter;
+
+    private static final ConcurrentHashMap<Integer, Fft> S_plans
+        = new ConcurrentHashMap<>();
+}
@@ -0,0 +1,78 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import org.scijava.ItemIO;
+import org.scijava.app.StatusService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import net.imagej.ops.AbstractOp;
+import net.imagej.ops.Op;
+
+/** FlatReliabilityUnwrappingOp is the same as {@link ReliabilityUnwrappingOp},
+ * but it works directly on row-major pixels, such as the pixels of a
+ * <code>FloatProcessor</code>, instead of a <code>float[][]</code>.  The pixel
+ * (x, y) is at index <code>y * width + x</code> in every array.
+ * <p>
+ * To run this op yourself, it has the name "Reliability Guided Phase
+ * Unwrapping" and has these parameters:
+ * <ol>
+ *     <li>Phase image: a <code>float[]</code> with the pixels of the phase
+ *                      image.  It is not modified.
+ *     <li>Width: The width of the phase image.
+ *     <li>Height: The height of the phase image.
+ *     <li>Quality: A <code>float[]</code> with the quality of every pixel,
+ *                  such as the result of
+ *                  {@link Quality#calculate(float[], int, int, int, int)}.
+ *     <li>Show progress: Whether or not you want to see the progress of the
+ *                        algorithm.
+ *     <li>Phase value: The pixel phase value for the phase image.
+ *     <li>Mask (optional): A <code>boolean[]</code> that is true for every
+ *                          pixel that should be unwrapped.  If it is null,
+ *                          every pixel is unwrapped.
+ *     <li>Fill value (optional): The value given to every pixel that is not
+ *                                in the mask.  It defaults to NaN.
+ * </ol>
+ * The result is a <code>float[]</code> with the pixels of the unwrapped phase
+ * image.
+ */
+@Plugin(type = Op.class, name = "Reliability Guided Phase Unwrapping")
+public class FlatReliabilityUnwrappingOp extends AbstractOp {
+    @Parameter private StatusService P_status;
+    // Inputs
+    @Parameter private float[] P_phaseImage;
+    @Parameter private int     P_width;
+    @Parameter private int     P_height;
+    @Parameter private float[] P_quality;
+    @Parameter private boolean P_showProgress;
+    @Parameter private float   P_phaseValue;
+    @Parameter(required = false) private boolean[] P_mask;
+    @Parameter(required = false) private float P_fillValue = Float.NaN;
+    // Outputs
+    @Parameter(type = ItemIO.OUTPUT) float[] P_result;
+
+    @Override
+    public void run()
+    {
+        P_result = ReliabilityUnwrappingOp.unwrap(P_status, P_phaseImage,
+            P_width, P_height, P_quality, P_showProgress, P_phaseValue, P_mask,
+            P_fillValue);
+    }
+}
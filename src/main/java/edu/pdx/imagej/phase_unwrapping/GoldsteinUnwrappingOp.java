@@ -0,0 +1,415 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import org.scijava.ItemIO;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import net.imagej.ops.AbstractOp;
+import net.imagej.ops.Op;
+
+/** GoldsteinUnwrappingOp is an Op that calculates single wavelength phase
+ * unwrapping using Goldstein's branch cut algorithm.
+ * <p>
+ * To run this op yourself, it has the name "Goldstein Phase Unwrapping" and has
+ * these parameters:
+ * <ol>
+ *     <li>Phase image: a <code>float[][]</code> representing the current phase
+ *                      image.
+ *     <li>Phase value: The pixel phase value for the phase image.
+ * </ol>
+ * The result is a <code>float[][]</code> representing the unwrapped phase
+ * image.
+ * <p>
+ * The algorithm has three steps:
+ * <ol>
+ *     <li>Find the residues.  A residue is a 2x2 square of pixels where going
+ *         around the square and adding up the wrapped differences doesn't give
+ *         zero.  Every row is done in parallel.
+ *     <li>Connect the residues with branch cuts.  Starting at a residue, boxes
+ *         of increasing size are searched for other residues, which are
+ *         connected with cuts, until the total charge of everything connected
+ *         is zero or the box hits the border of the image.  To avoid looking
+ *         at every pixel in every box, the residues are put in a coarse grid
+ *         and only the grid cells touching the box are searched.
+ *     <li>Unwrap everything with a scanline flood fill that never crosses a
+ *         cut.  The pixels on the cuts are unwrapped last, from their
+ *         neighbors.
+ * </ol>
+ * Unlike the quality-guided algorithms, no priority queue is needed, so on
+ * images with few residues this is much faster.  On images with many residues
+ * the cuts can close off parts of the image, which then have to be unwrapped
+ * across a cut.
+ */
+@Plugin(type = Op.class, name = "Goldstein Phase Unwrapping")
+public class GoldsteinUnwrappingOp extends AbstractOp {
+    // Inputs
+    @Parameter private float[][] P_phaseImage;
+    @Parameter private float     P_phaseValue;
+    // Outputs
+    @Parameter(type = ItemIO.OUTPUT) float[][] P_result;
+
+    // The size of the cells in the grid used to look up residues
+    private static final int CELL = 16;
+    // Flags for M_flags
+    private static final byte CUT    = 1;
+    private static final byte DONE   = 2;
+    private static final byte QUEUED = 4;  // A cut pixel waiting to be done
+    private static final byte USED   = 8;  // A residue that has been balanced
+    private static final byte ACTIVE = 16; // A residue in the current tree
+
+    @Override
+    public void run()
+    {
+        M_width = P_phaseImage.length;
+        M_height = P_phaseImage[0].length;
+        M_phase = ArrayOps.flatten(P_phaseImage);
+        M_flags = new byte[M_width * M_height];
+        M_result = new float[M_width * M_height];
+
+        findResidues();
+        placeCuts();
+        unwrap();
+
+        P_result = ArrayOps.unflatten(M_result, M_width, M_height);
+        M_phase = null;
+        M_flags = null;
+        M_result = null;
+        M_charge = null;
+    }
+
+    // Residues ////////////////////////////////////////////////////////////////
+    // The residue of the square whose top left pixel is (x, y) is stored at
+    // M_charge[y * width + x] as -1, 0, or 1.
+    private void findResidues()
+    {
+        M_charge = new byte[M_width * M_height];
+        IntStream.range(0, M_height - 1).parallel().forEach(y -> {
+            for (int x = 0; x < M_width - 1; ++x) {
+                int p = y * M_width + x;
+                float sum = wrap(M_phase[p + 1] - M_phase[p])
+                          + wrap(M_phase[p + 1 + M_width] - M_phase[p + 1])
+                          + wrap(M_phase[p + M_width]
+                                 - M_phase[p + 1 + M_width])
+                          + wrap(M_phase[p] - M_phase[p + M_width]);
+                M_charge[p] = (byte)Math.round(sum / P_phaseValue);
+            }
+        });
+        int count = 0;
+        for (byte charge : M_charge) if (charge != 0) ++count;
+        M_residues = new int[count];
+        count = 0;
+        for (int p = 0; p < M_charge.length; ++p) {
+            if (M_charge[p] != 0) M_residues[count++] = p;
+        }
+        buildGrid();
+    }
+    private float wrap(float difference)
+    {
+        return difference - Math.round(difference / P_phaseValue)
+                            * P_phaseValue;
+    }
+    // Put the residues into a grid of CELL x CELL cells.  The residues in cell
+    // c are M_cellItems[M_cellStart[c]] to M_cellItems[M_cellStart[c + 1] - 1].
+    private void buildGrid()
+    {
+        M_cellsX = (M_width + CELL - 1) / CELL;
+        M_cellsY = (M_height + CELL - 1) / CELL;
+        M_cellStart = new int[M_cellsX * M_cellsY + 1];
+        for (int p : M_residues) ++M_cellStart[cellOf(p) + 1];
+        for (int c = 0; c < M_cellsX * M_cellsY; ++c) {
+            M_cellStart[c + 1] += M_cellStart[c];
+        }
+        M_cellItems = new int[M_residues.length];
+        int[] next = Arrays.copyOf(M_cellStart, M_cellStart.length - 1);
+        for (int p : M_residues) M_cellItems[next[cellOf(p)]++] = p;
+    }
+    private int cellOf(int p)
+    {
+        return (p / M_width / CELL) * M_cellsX + (p % M_width) / CELL;
+    }
+
+    // Branch cuts /////////////////////////////////////////////////////////////
+    private void placeCuts()
+    {
+        int[] tree = new int[16];
+        for (int residue : M_residues) {
+            if ((M_flags[residue] & USED) != 0) continue;
+            M_flags[residue] |= USED | ACTIVE;
+            int charge = M_charge[residue];
+            tree[0] = residue;
+            int treeSize = 1;
+            // Far away, the box grows faster so that lone residues don't take
+            // too long to reach the border
+            for (int radius = 1; charge != 0;
+                    radius += Math.max(1, radius / 4 - CELL / 4)) {
+                // The tree may grow while we look through it
+                for (int i = 0; i < treeSize && charge != 0; ++i) {
+                    int active = tree[i];
+                    int ax = active % M_width;
+                    int ay = active / M_width;
+                    if (ax - radius <= 0 || ay - radius <= 0
+                            || ax + radius >= M_width - 1
+                            || ay + radius >= M_height - 1) {
+                        cutToBorder(active);
+                        charge = 0;
+                        break;
+                    }
+                    int cx0 = (ax - radius) / CELL;
+                    int cx1 = (ax + radius) / CELL;
+                    int cy0 = (ay - radius) / CELL;
+                    int cy1 = (ay + radius) / CELL;
+                    for (int cy = cy0; cy <= cy1 && charge != 0; ++cy) {
+                        for (int cx = cx0; cx <= cx1 && charge != 0; ++cx) {
+                            int cell = cy * M_cellsX + cx;
+                            for (int j = M_cellStart[cell];
+                                    j < M_cellStart[cell + 1]; ++j) {
+                                int other = M_cellItems[j];
+                                if ((M_flags[other] & ACTIVE) != 0) continue;
+                                int ox = other % M_width;
+                                int oy = other / M_width;
+                                if (Math.abs(ox - ax) > radius
+                                    || Math.abs(oy - ay) > radius) continue;
+                                if ((M_flags[other] & USED) == 0) {
+                                    charge += M_charge[other];
+                                    M_flags[other] |= USED;
+                                }
+                                M_flags[other] |= ACTIVE;
+                                if (treeSize == tree.length) {
+                                    tree = Arrays.copyOf(tree, treeSize * 2);
+                                }
+                                tree[treeSize++] = other;
+                                drawCut(ax, ay, ox, oy);
+                                if (charge == 0) break;
+                            }
+                        }
+                    }
+                }
+            }
+            for (int i = 0; i < treeSize; ++i) M_flags[tree[i]] &= ~ACTIVE;
+        }
+    }
+    // Connect p to the closest border of the image
+    private void cutToBorder(int p)
+    {
+        int x = p % M_width;
+        int y = p / M_width;
+        int left = x;
+        int right = M_width - 1 - x;
+        int top = y;
+        int bottom = M_height - 1 - y;
+        int min = Math.min(Math.min(left, right), Math.min(top, bottom));
+        if (min == left) drawCut(x, y, 0, y);
+        else if (min == right) drawCut(x, y, M_width - 1, y);
+        else if (min == top) drawCut(x, y, x, 0);
+        else drawCut(x, y, x, M_height - 1);
+    }
+    // Mark every pixel on the line from (x0, y0) to (x1, y1) as a cut, using
+    // Bresenham's algorithm
+    private void drawCut(int x0, int y0, int x1, int y1)
+    {
+        int dx = Math.abs(x1 - x0);
+        int dy = -Math.abs(y1 - y0);
+        int sx = x0 < x1 ? 1 : -1;
+        int sy = y0 < y1 ? 1 : -1;
+        int error = dx + dy;
+        while (true) {
+            M_flags[y0 * M_width + x0] |= CUT;
+            if (x0 == x1 && y0 == y1) break;
+            int e2 = 2 * error;
+            if (e2 >= dy) {
+                error += dy;
+                x0 += sx;
+            }
+            if (e2 <= dx) {
+                error += dx;
+                y0 += sy;
+            }
+        }
+    }
+
+    // Unwrapping //////////////////////////////////////////////////////////////
+    private void unwrap()
+    {
+        M_cutQueue = new int[64];
+        M_cutHead = 0;
+        M_cutTail = 0;
+        M_stack = new int[64];
+        // Start at the center, or the first pixel that isn't a cut
+        int seed = (M_height / 2) * M_width + M_width / 2;
+        if ((M_flags[seed] & CUT) != 0) {
+            seed = -1;
+            for (int p = 0; p < M_flags.length; ++p) {
+                if ((M_flags[p] & CUT) == 0) {
+                    seed = p;
+                    break;
+                }
+            }
+        }
+        if (seed == -1) { // Everything is a cut.  This shouldn't happen.
+            seed = 0;
+            M_flags[seed] &= ~CUT;
+        }
+        fill(seed, -1);
+        // Now unwrap the cuts, and any areas that the cuts closed off
+        while (M_cutHead != M_cutTail) {
+            int cut = M_cutQueue[M_cutHead++];
+            if ((M_flags[cut] & DONE) == 0) {
+                unwrapFromNeighbor(cut);
+            }
+            int x = cut % M_width;
+            if (x > 0) visitFromCut(cut - 1, cut);
+            if (cut >= M_width) visitFromCut(cut - M_width, cut);
+            if (x < M_width - 1) visitFromCut(cut + 1, cut);
+            if (cut < M_width * (M_height - 1)) {
+                visitFromCut(cut + M_width, cut);
+            }
+        }
+        M_cutQueue = null;
+        M_stack = null;
+    }
+    private void visitFromCut(int p, int cut)
+    {
+        if ((M_flags[p] & DONE) != 0) return;
+        if ((M_flags[p] & CUT) == 0) fill(p, cut);
+        else queueCut(p);
+    }
+    // Unwrap a cut pixel from one of its unwrapped neighbors, preferring ones
+    // that aren't cuts
+    private void unwrapFromNeighbor(int p)
+    {
+        int x = p % M_width;
+        int[] neighbors = {
+            x > 0 ? p - 1 : -1,
+            p >= M_width ? p - M_width : -1,
+            x < M_width - 1 ? p + 1 : -1,
+            p < M_width * (M_height - 1) ? p + M_width : -1
+        };
+        int from = -1;
+        for (int n : neighbors) {
+            if (n == -1 || (M_flags[n] & DONE) == 0) continue;
+            if (from == -1 || (M_flags[n] & CUT) == 0) from = n;
+        }
+        setValue(p, from);
+    }
+    // Scanline flood fill starting at seed, which is unwrapped from from (or
+    // just keeps its value if from is -1), that doesn't go through any cuts
+    private void fill(int seed, int from)
+    {
+        int stackSize = 0;
+        M_stack[stackSize++] = seed;
+        M_stack[stackSize++] = from;
+        while (stackSize > 0) {
+            int f = M_stack[--stackSize];
+            int p = M_stack[--stackSize];
+            if (!canFill(p)) continue;
+            setValue(p, f);
+            int y = p / M_width;
+            int rowStart = y * M_width;
+            // Extend to the left and right
+            int left = p;
+            while (left > rowStart && canFill(left - 1)) {
+                setValue(left - 1, left);
+                --left;
+            }
+            int right = p;
+            while (right < rowStart + M_width - 1 && canFill(right + 1)) {
+                setValue(right + 1, right);
+                ++right;
+            }
+            // Add a seed for every run of fillable pixels above and below
+            for (int dy = -1; dy <= 1; dy += 2) {
+                if (y + dy < 0 || y + dy >= M_height) continue;
+                int offset = dy * M_width;
+                boolean inRun = false;
+                for (int q = left; q <= right; ++q) {
+                    if (canFill(q + offset)) {
+                        if (!inRun) {
+                            if (stackSize + 2 > M_stack.length) {
+                                M_stack = Arrays.copyOf(M_stack,
+                                                        M_stack.length * 2);
+                            }
+                            M_stack[stackSize++] = q + offset;
+                            M_stack[stackSize++] = q;
+                            inRun = true;
+                        }
+                    }
+                    else inRun = false;
+                }
+            }
+            // Cut pixels next to this run will need to be unwrapped later
+            for (int q = left; q <= right; ++q) {
+                if (y > 0) queueCut(q - M_width);
+                if (y < M_height - 1) queueCut(q + M_width);
+            }
+            if (left > rowStart) queueCut(left - 1);
+            if (right < rowStart + M_width - 1) queueCut(right + 1);
+        }
+    }
+    private boolean canFill(int p)
+    {
+        return (M_flags[p] & (DONE | CUT)) == 0;
+    }
+    private void queueCut(int p)
+    {
+        if ((M_flags[p] & (CUT | QUEUED | DONE)) != CUT) return;
+        M_flags[p] |= QUEUED;
+        if (M_cutTail == M_cutQueue.length) {
+            M_cutQueue = Arrays.copyOf(M_cutQueue, M_cutQueue.length * 2);
+        }
+        M_cutQueue[M_cutTail++] = p;
+    }
+    // Unwrap the pixel p using the already unwrapped pixel from
+    private void setValue(int p, int from)
+    {
+        float currentVal = M_phase[p];
+        if (from != -1) {
+            float fromVal = M_result[from];
+            if (currentVal != fromVal) {
+                fromVal -= currentVal;
+                fromVal /= P_phaseValue;
+                fromVal = Math.round(fromVal);
+                fromVal *= P_phaseValue;
+                currentVal += fromVal;
+            }
+        }
+        M_result[p] = currentVal;
+        M_flags[p] |= DONE;
+    }
+
+    private int M_width;
+    private int M_height;
+    private float[] M_phase;
+    private float[] M_result;
+    private byte[]  M_flags;
+    private byte[]  M_charge;
+    private int[]   M_residues;
+    private int     M_cellsX;
+    private int     M_cellsY;
+    private int[]   M_cellStart;
+    private int[]   M_cellItems;
+    private int[]   M_stack;
+    private int[]   M_cutQueue;
+    private int     M_cutHead;
+    private int     M_cutTail;
+}
@@ -0,0 +1,180 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import java.util.stream.IntStream;
+
+// The 3x3 stencil shared by GradientQuality and PhaseGradientQuality.  Every
+// pixel gets the negative sum of the absolute differences between it and the
+// eight pixels around it, and the pixels in the slices before and after it for
+// volumes.  If the phase value is positive, differences are wrapped the same
+// way that PhaseGradientQuality always has.
+//
+// Rather than visiting the eight neighbors of every pixel, every pair of
+// neighbors is visited once and the difference is subtracted from both, so
+// most differences are only calculated once.  The rows are split into bands
+// that are done in parallel on the fork-join pool.  Each band only writes to
+// its own rows, so the pairs that cross from one band to another are
+// calculated by both bands, as are the pairs between slices.  Pixels on the
+// borders are handled by the bounds of each loop instead of by checking every
+// neighbor, so the loops never branch on where a pixel is.  The only branch
+// left is whether differences are wrapped at all, which is the same for every
+// pixel.
+final class GradientKernel {
+    static float[] calculate(float[] data, int width, int height, int depth,
+                             float phaseValue)
+    {
+        GradientKernel kernel
+            = new GradientKernel(data, width, height, depth, phaseValue);
+        int rows = height * depth;
+        int bandRows = Math.max(1, S_bandPixels / Math.max(width, 1));
+        int bands = (rows + bandRows - 1) / bandRows;
+        if (bands <= 1) kernel.band(0, rows);
+        else {
+            IntStream.range(0, bands).parallel().forEach(b ->
+                kernel.band(b * bandRows, Math.min(rows, (b + 1) * bandRows)));
+        }
+        return kernel.M_result;
+    }
+    // The stencil of one pixel of a single slice, for CompositeQuality, which
+    // combines qualities one pixel at a time without making the whole map
+    static float at(float[] data, int width, int height, float phaseValue,
+                    int x, int y)
+    {
+        float here = data[y * width + x];
+        float result = 0;
+        int bottom = Math.min(height - 1, y + 1);
+        int right = Math.min(width - 1, x + 1);
+        for (int j = Math.max(0, y - 1); j <= bottom; ++j) {
+            for (int i = Math.max(0, x - 1); i <= right; ++i) {
+                result -= difference(here, data[j * width + i], phaseValue);
+            }
+        }
+        return result;
+    }
+
+    private GradientKernel(float[] data, int width, int height, int depth,
+                           float phaseValue)
+    {
+        M_data = data;
+        M_result = new float[data.length];
+        M_width = width;
+        M_height = height;
+        M_depth = depth;
+        M_phase = phaseValue;
+    }
+    // Do the rows from first up to but not including end, where row r is the
+    // row r % height of slice r / height
+    private void band(int first, int end)
+    {
+        int slice = M_width * M_height;
+        for (int r = first; r < end; ++r) {
+            int row = r * M_width;
+            int y = r % M_height;
+            int z = r / M_height;
+            across(row);
+            if (y + 1 < M_height) {
+                if (r + 1 < end) between(row, row + M_width);
+                else oneSided(row, row + M_width);
+            }
+            if (y > 0 && r == first) oneSided(row, row - M_width);
+            if (z > 0) behind(row, row - slice);
+            if (z + 1 < M_depth) behind(row, row + slice);
+        }
+    }
+    // The pairs next to each other in one row
+    private void across(int row)
+    {
+        for (int p = row; p < row + M_width - 1; ++p) {
+            float d = difference(M_data[p], M_data[p + 1]);
+            M_result[p] -= d;
+            M_result[p + 1] -= d;
+        }
+    }
+    // The pairs between a row and the row below it, going into both rows
+    private void between(int upper, int lower)
+    {
+        for (int x = 0; x < M_width; ++x) {
+            float d = difference(M_data[upper + x], M_data[lower + x]);
+            M_result[upper + x] -= d;
+            M_result[lower + x] -= d;
+        }
+        for (int x = 0; x < M_width - 1; ++x) {
+            float d = difference(M_data[upper + x], M_data[lower + x + 1]);
+            M_result[upper + x] -= d;
+            M_result[lower + x + 1] -= d;
+        }
+        for (int x = 1; x < M_width; ++x) {
+            float d = difference(M_data[upper + x], M_data[lower + x - 1]);
+            M_result[upper + x] -= d;
+            M_result[lower + x - 1] -= d;
+        }
+    }
+    // The pairs between a row and the row above or below it that belongs to
+    // another band, going only into this row
+    private void oneSided(int row, int other)
+    {
+        for (int x = 0; x < M_width; ++x) {
+            M_result[row + x] -= difference(M_data[row + x], M_data[other + x]);
+        }
+        for (int x = 0; x < M_width - 1; ++x) {
+            M_result[row + x]
+                -= difference(M_data[row + x], M_data[other + x + 1]);
+        }
+        for (int x = 1; x < M_width; ++x) {
+            M_result[row + x]
+                -= difference(M_data[row + x], M_data[other + x - 1]);
+        }
+    }
+    // The pairs between a row and the same row in another slice, going only
+    // into this row
+    private void behind(int row, int other)
+    {
+        for (int x = 0; x < M_width; ++x) {
+            M_result[row + x] -= difference(M_data[row + x], M_data[other + x]);
+        }
+    }
+    // The same as PhaseGradientQuality's old difference, which wraps the
+    // difference by the phase value once if it is more than half of it.  That
+    // is always the smaller of these two, which can be found without
+    // branching.  With a phase value of zero it is just the absolute
+    // difference.
+    private float difference(float phase1, float phase2)
+    {
+        return difference(phase1, phase2, M_phase);
+    }
+    private static float difference(float phase1, float phase2,
+                                    float phaseValue)
+    {
+        float difference = Math.abs(phase1 - phase2);
+        if (phaseValue == 0) return difference;
+        return Math.min(difference, Math.abs(phaseValue - difference));
+    }
+
+    // About 128 kB of each array per band
+    private static final int S_bandPixels = 1 << 15;
+
+    private final float[] M_data;
+    private final float[] M_result;
+    private final int M_width;
+    private final int M_height;
+    private final int M_depth;
+    private final float M_phase;
+}
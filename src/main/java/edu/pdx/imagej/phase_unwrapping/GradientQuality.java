@@ -20,6 +20,7 @@
 package edu.pdx.imagej.phase_unwrapping;
 
 import ij.ImagePlus;
+import ij.process.ImageProcessor;
 import org.scijava.Priority;
 import org.scijava.plugin.Plugin;
 
@@ -32,7 +33,8 @@ import edu.pdx.imagej.dynamic_parameters.ImageParameter;
 @Plugin(type = Quality.class,
         name = "Gradient",
         priority = Priority.VERY_HIGH * 0.9999) // Right before Phase Gradient
-public class GradientQuality extends AbstractQuality {
+public class GradientQuality extends AbstractQuality
+    implements StencilQuality {
     /** {@inheritDoc}
      * <p>
      * For GradientQuality, it is just an ImageParameter.
@@ -57,35 +59,67 @@ public class GradientQuality extends AbstractQuality {
                                 .getFloatArray();
         return calculateWith(data);
     }
+    /** {@inheritDoc}
+     * <p>
+     * If the gradient image is 32-bit, its pixels are used directly.
+     */
+    @Override
+    public float[] calculate(float[] phaseImage, int width, int height, int t,
+                             int z)
+    {
+        ImagePlus image = M_image.getValue();
+        int currentSlice = image.getStackIndex(1, z, t);
+        ImageProcessor slice = image.getStack().getProcessor(currentSlice);
+        return calculateWith(ArrayOps.pixels(slice), slice.getWidth(),
+                             slice.getHeight());
+    }
+    /** {@inheritDoc} */
+    @Override
+    public Stencil stencil(float[] phaseImage, int width, int height, int t,
+                           int z)
+    {
+        ImagePlus image = M_image.getValue();
+        int currentSlice = image.getStackIndex(1, z, t);
+        ImageProcessor slice = image.getStack().getProcessor(currentSlice);
+        float[] data = ArrayOps.pixels(slice);
+        int sliceWidth = slice.getWidth();
+        int sliceHeight = slice.getHeight();
+        return (x, y) -> GradientKernel.at(data, sliceWidth, sliceHeight, 0,
+                                           x, y);
+    }
     // For testing purposes, we want to be able to bypass the ImageParameter.
     // This is package-private so that the tests can see this too.
     float[][] calculateWith(float[][] data)
     {
-        M_result = new float[data.length][data[0].length];
-        for (int x = 0; x < M_result.length; ++x) {
-            for (int y = 0; y < M_result[0].length; ++y) {
-                for (int xPlus = -1; xPlus <= 1; ++xPlus) {
-                    for (int yPlus = -1; yPlus <= 1; ++yPlus) {
-                        if (xPlus == 0 && yPlus == 0) continue;
-                        int newX = x + xPlus;
-                        int newY = y + yPlus;
-                        if (newX == -1 || newY == -1) continue;
-                        if (newX == M_result.length ||
-                            newY == M_result[0].length) continue;
-                        float diff = data[x][y] - data[newX][newY];
-                        M_result[x][y] -= Math.abs(diff);
-                    }
-                }
-            }
-        }
+        int width = data.length;
+        int height = data[0].length;
+        float[] result
+            = calculateWith(ArrayOps.flatten(data), width, height);
+        M_result = ArrayOps.unflatten(result, width, height);
         return M_result;
     }
+    // The same as above, but with row-major pixels
+    static float[] calculateWith(float[] data, int width, int height)
+    {
+        return GradientKernel.calculate(data, width, height, 1, 0);
+    }
     /** {@inheritDoc} */
     @Override public float[][] getResult() {return M_result;}
     /** {@inheritDoc} */
     @Override public int getTs() {return M_image.getValue().getNFrames();}
     /** {@inheritDoc} */
     @Override public int getZs() {return M_image.getValue().getNSlices();}
+    /** {@inheritDoc}
+     * <p>
+     * The new GradientQuality uses the same image.
+     */
+    @Override
+    public Quality duplicate()
+    {
+        GradientQuality result = new GradientQuality();
+        result.M_image = M_image;
+        return result;
+    }
 
     private ImageParameter M_image;
     private float[][] M_result;
@@ -0,0 +1,154 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import java.util.stream.IntStream;
+
+import org.scijava.ItemIO;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import net.imagej.ops.AbstractOp;
+import net.imagej.ops.Op;
+
+/** HybridDoubleWavelengthOp is an Op that performs double wavelength phase
+ * unwrapping like {@link DoubleWavelengthOp}, and then fixes the fine map with
+ * quality-guided unwrapping where it can't be trusted.
+ * <p>
+ * The fine map is the coarse map, rounded to the phase value, plus the first
+ * phase image, moved by one phase value if that brings it closer to the
+ * coarse map.  When the coarse map is noisy, that rounding can pick the wrong
+ * order, which is why the fine map has errors of whole phase values.  Those
+ * errors are most likely when the fine map ends up far from the coarse map, so
+ * every pixel where they differ by more than the threshold is flagged.  A pixel
+ * with the wrong order is also more than half of a phase value away from its
+ * neighbors with the right order, so every pixel with a jump like that to one
+ * of its four neighbors is flagged too.  The flagged pixels are then unwrapped
+ * from the first phase image with the same algorithm as
+ * {@link QualityUnwrappingOp}, starting from the trusted pixels around them
+ * instead of from the center, so the trusted pixels keep their values and the
+ * time taken by the quality-guided part mostly depends on the number of flagged
+ * pixels.
+ * <p>
+ * To run this op yourself, it has the name "Hybrid Double Wavelength Phase
+ * Unwrapping" and has these parameters:
+ * <ol>
+ *     <li>P_image1: a {@link PhaseImage} representing the first image.
+ *     <li>P_image2: a {@link PhaseImage} representing the second image.
+ *     <li>Threshold (optional): The largest difference between the fine and
+ *                               coarse maps that is trusted, as a fraction of
+ *                               the phase value.  It defaults to 0.25.
+ *     <li>Quality (optional): A {@link Quality} <em>that has already been
+ *                             calculated</em>, used to order the flagged
+ *                             pixels.  If it is null, pixels where the fine
+ *                             and coarse maps are closer are unwrapped first.
+ *     <li>Frontier (optional): A {@link QualityUnwrappingOp.Frontier} saying
+ *                              how the flagged pixels are ordered.  It
+ *                              defaults to
+ *                              {@link QualityUnwrappingOp.Frontier#Exact}.
+ * </ol>
+ * The result is a <code>float[][][]</code>, where <code>result[0]</code> is the
+ * coarse map and <code>result[1]</code> is the corrected fine map, the same as
+ * the result of DoubleWavelengthOp without the steps.
+ */
+@Plugin(type = Op.class, name = "Hybrid Double Wavelength Phase Unwrapping")
+public class HybridDoubleWavelengthOp extends AbstractOp {
+    // Inputs
+    @Parameter private PhaseImage P_image1;
+    @Parameter private PhaseImage P_image2;
+    @Parameter(required = false) private float P_threshold = 0.25f;
+    @Parameter(required = false) private Quality P_quality;
+    @Parameter(required = false)
+    private QualityUnwrappingOp.Frontier P_frontier
+        = QualityUnwrappingOp.Frontier.Exact;
+    // Outputs
+    @Parameter(type = ItemIO.OUTPUT) private float[][][] P_result;
+
+    @Override
+    public void run()
+    {
+        float[][] phaseImage = P_image1.phaseImage;
+        int width = phaseImage.length;
+        int height = phaseImage[0].length;
+        float[] image1 = ArrayOps.flatten(phaseImage);
+        float[] image2 = ArrayOps.flatten(P_image2.phaseImage);
+        float[] coarse = new float[width * height];
+        float[] fine = new float[width * height];
+        boolean[] trusted = new boolean[width * height];
+        float phaseValue = P_image1.phaseValue;
+        float phaseValue2 = P_image2.phaseValue;
+        float combinedWavelength =
+                    (P_image1.wavelength * P_image2.wavelength) /
+            Math.abs(P_image1.wavelength - P_image2.wavelength);
+        float coarseScale = combinedWavelength / P_image1.wavelength;
+        float threshold = P_threshold * phaseValue;
+        IntStream.range(0, height).parallel().forEach(y ->
+            DoubleWavelengthOp.coarseAndFine(image1, image2, coarse, fine,
+                y * width, (y + 1) * width, phaseValue, phaseValue2,
+                coarseScale));
+        // The whole fine map has to be done before any jumps can be found
+        int flagged = IntStream.range(0, height).parallel().map(y ->
+            flag(coarse, fine, trusted, width, height, y, threshold,
+                 phaseValue / 2)).sum();
+
+        if (flagged != 0) {
+            float[] quality = P_quality == null
+                ? agreement(coarse, fine)
+                : ArrayOps.flatten(P_quality.getResult());
+            new QualityUnwrapper(width, height, phaseValue, P_frontier)
+                .correct(image1, quality, fine, trusted);
+        }
+        P_result = new float[][][] {ArrayOps.unflatten(coarse, width, height),
+                                    ArrayOps.unflatten(fine, width, height)};
+    }
+    // Trust the pixels of row y where the fine map is within threshold of the
+    // coarse map and no further than jump from the fine map of any neighbor,
+    // returning how many weren't trusted
+    private static int flag(float[] coarse, float[] fine, boolean[] trusted,
+                            int width, int height, int y, float threshold,
+                            float jump)
+    {
+        int flagged = 0;
+        int row = y * width;
+        for (int x = 0; x < width; ++x) {
+            int p = row + x;
+            float f = fine[p];
+            boolean trust = Math.abs(f - coarse[p]) <= threshold;
+            if (trust && x > 0) trust = Math.abs(f - fine[p - 1]) <= jump;
+            if (trust && x < width - 1) {
+                trust = Math.abs(f - fine[p + 1]) <= jump;
+            }
+            if (trust && y > 0) trust = Math.abs(f - fine[p - width]) <= jump;
+            if (trust && y < height - 1) {
+                trust = Math.abs(f - fine[p + width]) <= jump;
+            }
+            trusted[p] = trust;
+            if (!trust) ++flagged;
+        }
+        return flagged;
+    }
+    // The default quality, which is higher where the fine and coarse maps agree
+    private static float[] agreement(float[] coarse, float[] fine)
+    {
+        float[] result = new float[coarse.length];
+        IntStream.range(0, result.length).parallel().forEach(i ->
+            result[i] = -Math.abs(fine[i] - coarse[i]));
+        return result;
+    }
+}
@@ -0,0 +1,124 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import java.util.stream.IntStream;
+
+import org.scijava.ItemIO;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import net.imagej.ops.AbstractOp;
+import net.imagej.ops.Op;
+
+/** LeastSquaresUnwrappingOp is an Op that calculates single wavelength phase
+ * unwrapping by finding the unweighted least squares solution, using the
+ * discrete cosine transform method of Ghiglia and Romero.
+ * <p>
+ * To run this op yourself, it has the name "Least Squares Phase Unwrapping" and
+ * has these parameters:
+ * <ol>
+ *     <li>Phase image: a <code>float[][]</code> representing the current phase
+ *                      image.
+ *     <li>Phase value: The pixel phase value for the phase image.
+ *     <li>Congruent (optional): Whether or not to make the result congruent to
+ *                               the phase image.  It defaults to false.
+ * </ol>
+ * The result is a <code>float[][]</code> representing the unwrapped phase
+ * image.
+ * <p>
+ * The result is the image whose differences between neighboring pixels are
+ * closest, in the least squares sense, to the wrapped differences of the phase
+ * image.  This is a Poisson equation, which is solved directly by taking the
+ * discrete cosine transform of the laplacian of the wrapped differences,
+ * dividing by the eigenvalues of the laplacian, and transforming back.  The
+ * transforms are done on every row and then every column in parallel, and the
+ * transform plans for each size are cached, so unwrapping many images of the
+ * same size only pays for setting them up once.
+ * <p>
+ * There is no unwrapping path, so residues can't make errors spread, but the
+ * least squares solution tends to flatten out steep areas.  If the result is
+ * made congruent, every pixel is moved to the nearest value that differs from
+ * the phase image by a multiple of the phase value, the same as the other
+ * algorithms.  Either way, everything is shifted so that the center pixel keeps
+ * its original value, like it does in {@link QualityUnwrappingOp}.
+ */
+@Plugin(type = Op.class, name = "Least Squares Phase Unwrapping")
+public class LeastSquaresUnwrappingOp extends AbstractOp {
+    // Inputs
+    @Parameter private float[][] P_phaseImage;
+    @Parameter private float     P_phaseValue;
+    @Parameter(required = false) private boolean P_congruent = false;
+    // Outputs
+    @Parameter(type = ItemIO.OUTPUT) float[][] P_result;
+
+    @Override
+    public void run()
+    {
+        int width = P_phaseImage.length;
+        int height = P_phaseImage[0].length;
+        float[] phase = ArrayOps.flatten(P_phaseImage);
+
+        double[] solution = laplacian(phase, width, height, P_phaseValue);
+        Dct.solvePoisson(solution, width, height);
+
+        int center = (height / 2) * width + width / 2;
+        double shift = phase[center] - solution[center];
+        float[] result = new float[width * height];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = (float)(solution[i] + shift);
+            if (P_congruent) result[i] = congruent(result[i], phase[i]);
+        }
+        P_result = ArrayOps.unflatten(result, width, height);
+    }
+    // Calculate the laplacian of the wrapped differences of phase, using only
+    // the neighbors that are on the image.  Every row is done in parallel.
+    static double[] laplacian(float[] phase, int width, int height,
+                              float phaseValue)
+    {
+        double[] result = new double[width * height];
+        IntStream.range(0, height).parallel().forEach(y -> {
+            for (int x = 0; x < width; ++x) {
+                int p = y * width + x;
+                double sum = 0;
+                if (x > 0) sum += wrap(phase[p - 1] - phase[p], phaseValue);
+                if (x < width - 1) {
+                    sum += wrap(phase[p + 1] - phase[p], phaseValue);
+                }
+                if (y > 0) {
+                    sum += wrap(phase[p - width] - phase[p], phaseValue);
+                }
+                if (y < height - 1) {
+                    sum += wrap(phase[p + width] - phase[p], phaseValue);
+                }
+                result[p] = sum;
+            }
+        });
+        return result;
+    }
+    static private double wrap(double difference, float phaseValue)
+    {
+        return difference - Math.round(difference / phaseValue) * phaseValue;
+    }
+    private float congruent(float value, float phase)
+    {
+        float k = Math.round((value - phase) / P_phaseValue);
+        return phase + k * P_phaseValue;
+    }
+}
@@ -0,0 +1,427 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import ij.ImagePlus;
+import ij.VirtualStack;
+import ij.io.FileInfo;
+import ij.io.TiffDecoder;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+/** MappedStack is a virtual stack that reads the slices of an uncompressed raw
+ * or TIFF file straight from a memory-mapped file, so that stacks much larger
+ * than the memory available to Java can be given to
+ * {@link QualityUnwrappingStackOp} or {@link DoubleWavelengthStackOp}.  Every
+ * slice is read when it is asked for, so only the slices currently being
+ * unwrapped are ever on the heap.
+ * <p>
+ * The file is mapped a few slices at a time.  Whenever a slice is read from a
+ * group of slices, the next group is mapped and loaded in the background, so
+ * that reading through the stack in order doesn't have to wait on the disk.
+ * The number of slices in a group is the read-ahead given to the constructor,
+ * and only a few groups are kept at once.  A group that is let go of isn't
+ * unmapped until Java garbage collects it, though, so after reading through a
+ * long stack more of the file can still be mapped for a while.  Mapped pages
+ * aren't on the Java heap and the operating system can drop them whenever it
+ * needs the memory, so this doesn't limit how long a stack can be.
+ * <p>
+ * 8-bit, 16-bit, and 32-bit float grayscale files are supported, in either
+ * byte order.  The pixels of every slice must be contiguous in the file, which
+ * is always true for raw files and for TIFF files saved by ImageJ.
+ */
+public class MappedStack extends VirtualStack {
+    /** Make a stack from the description of a raw file, such as the ones made
+     * by ImageJ's raw importer.  The file is <code>info.directory</code> joined
+     * with <code>info.fileName</code>.
+     *
+     * @param info The description of the file.
+     * @param readAhead The number of slices to map at once.
+     * @throws IOException If the file can't be read or is too short.
+     * @throws IllegalArgumentException If the file is compressed or its type
+     *                                  isn't supported.
+     */
+    public MappedStack(FileInfo info, int readAhead) throws IOException
+    {
+        this(new FileInfo[] {info}, readAhead);
+    }
+    /** Make a stack from the descriptions of several images in one file, such
+     * as the ones returned by ImageJ's <code>TiffDecoder</code>.  Every
+     * description must have the same file, size, type, and byte order.
+     *
+     * @param info The descriptions of the images in the file.
+     * @param readAhead The number of slices to map at once.
+     * @throws IOException If the file can't be read or is too short.
+     * @throws IllegalArgumentException If the file is compressed, its type
+     *                                  isn't supported, or the descriptions
+     *                                  don't match.
+     */
+    public MappedStack(FileInfo[] info, int readAhead) throws IOException
+    {
+        super(info[0].width, info[0].height, null, info[0].directory);
+        FileInfo first = info[0];
+        switch (first.fileType) {
+            case FileInfo.GRAY8:
+                M_bitDepth = 8;
+                break;
+            case FileInfo.GRAY16_SIGNED:
+            case FileInfo.GRAY16_UNSIGNED:
+                M_bitDepth = 16;
+                break;
+            case FileInfo.GRAY32_FLOAT:
+                M_bitDepth = 32;
+                break;
+            default:
+                throw new IllegalArgumentException("Only 8-bit, 16-bit, and "
+                    + "32-bit float images can be mapped.");
+        }
+        M_signed = first.fileType == FileInfo.GRAY16_SIGNED;
+        M_order = first.intelByteOrder ? ByteOrder.LITTLE_ENDIAN
+                                       : ByteOrder.BIG_ENDIAN;
+        M_path = Paths.get(first.directory == null ? "" : first.directory,
+                           first.fileName);
+        M_readAhead = Math.max(readAhead, 1);
+        long sliceBytes = (long)first.width * first.height * (M_bitDepth / 8);
+        if (sliceBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Slices larger than 2 GB can't "
+                + "be mapped.");
+        }
+        M_sliceBytes = (int)sliceBytes;
+
+        int size = 0;
+        for (FileInfo fi : info) {
+            if (fi.width != first.width || fi.height != first.height
+                    || fi.fileType != first.fileType
+                    || fi.intelByteOrder != first.intelByteOrder
+                    || !M_path.equals(Paths.get(fi.directory == null
+                                                ? "" : fi.directory,
+                                                fi.fileName))) {
+                throw new IllegalArgumentException("Every image in a mapped "
+                    + "stack must come from the same file and have the same "
+                    + "size and type.");
+            }
+            if (fi.compression > FileInfo.COMPRESSION_NONE
+                    || !contiguous(fi)) {
+                throw new IllegalArgumentException("Only uncompressed images "
+                    + "with contiguous pixels can be mapped.");
+            }
+            size += Math.max(fi.nImages, 1);
+        }
+        M_offsets = new long[size];
+        M_labels = new String[size];
+        int slice = 0;
+        for (FileInfo fi : info) {
+            for (int i = 0; i < Math.max(fi.nImages, 1); ++i, ++slice) {
+                M_offsets[slice] = fi.getOffset()
+                    + i * (sliceBytes + fi.gapBetweenImages);
+                if (fi.sliceLabels != null && i < fi.sliceLabels.length) {
+                    M_labels[slice] = fi.sliceLabels[i];
+                }
+            }
+        }
+        try (FileChannel channel = FileChannel.open(M_path,
+                                                    StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            for (long offset : M_offsets) {
+                if (offset < 0 || offset + sliceBytes > fileSize) {
+                    throw new IOException("The file " + M_path + " is too "
+                        + "short for all of its images.");
+                }
+            }
+        }
+        setBitDepth(M_bitDepth);
+    }
+    /** Open an uncompressed TIFF file as a mapped stack.  If the file was saved
+     * by ImageJ as a hyperstack, the result has the same z slices and frames.
+     *
+     * @param path The path to the TIFF file.
+     * @param readAhead The number of slices to map at once.
+     * @return An <code>ImagePlus</code> containing a MappedStack of the file.
+     * @throws IOException If the file can't be read or isn't a TIFF file.
+     * @throws IllegalArgumentException If the file can't be mapped, for the
+     *                                  same reasons as the constructor.
+     */
+    public static ImagePlus openTiff(String path, int readAhead)
+        throws IOException
+    {
+        File file = new File(path).getAbsoluteFile();
+        TiffDecoder decoder = new TiffDecoder(
+            file.getParent() + File.separator, file.getName());
+        FileInfo[] info = decoder.getTiffInfo();
+        if (info == null || info.length == 0) {
+            throw new IOException(path + " is not a TIFF file.");
+        }
+        MappedStack stack = new MappedStack(info, readAhead);
+        ImagePlus result = new ImagePlus(file.getName(), stack);
+        if (info[0].description != null) {
+            Properties properties = new Properties();
+            properties.load(new StringReader(info[0].description));
+            int c = intProperty(properties, "channels");
+            int z = intProperty(properties, "slices");
+            int t = intProperty(properties, "frames");
+            if (c * z * t == stack.getSize()) {
+                result.setDimensions(c, z, t);
+                if (c * z > 1 && z * t > 1) result.setOpenAsHyperStack(true);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int getSize()
+    {
+        return M_offsets.length;
+    }
+    @Override
+    public int getBitDepth()
+    {
+        return M_bitDepth;
+    }
+    @Override
+    public String getSliceLabel(int n)
+    {
+        return M_labels[n - 1];
+    }
+    @Override
+    public String getFileName(int n)
+    {
+        return M_path.getFileName().toString();
+    }
+    /** Read a slice from the file.  The result is a new processor that may be
+     * modified freely; changes are not written back to the file.
+     *
+     * @param n The one-based index of the slice.
+     * @return The slice.
+     * @throws UncheckedIOException If the file can't be mapped.
+     */
+    @Override
+    public ImageProcessor getProcessor(int n)
+    {
+        if (n < 1 || n > getSize()) {
+            throw new IllegalArgumentException("Argument out of range: " + n);
+        }
+        int index = n - 1;
+        Window window = window(index);
+        ByteBuffer buffer = window.buffer().duplicate().order(M_order);
+        buffer.position((int)(M_offsets[index] - window.start));
+        int width = getWidth();
+        int height = getHeight();
+        switch (M_bitDepth) {
+            case 8: {
+                byte[] pixels = new byte[width * height];
+                buffer.get(pixels);
+                return new ByteProcessor(width, height, pixels);
+            }
+            case 16: {
+                short[] pixels = new short[width * height];
+                buffer.asShortBuffer().get(pixels);
+                if (M_signed) {
+                    for (int i = 0; i < pixels.length; ++i) {
+                        pixels[i] = (short)(pixels[i] + 32768);
+                    }
+                }
+                return new ShortProcessor(width, height, pixels, null);
+            }
+            default: {
+                float[] pixels = new float[width * height];
+                buffer.asFloatBuffer().get(pixels);
+                return new FloatProcessor(width, height, pixels);
+            }
+        }
+    }
+    /** Mapped stacks can't be modified.
+     *
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public void deleteSlice(int n)
+    {
+        throw new UnsupportedOperationException(
+            "Slices can't be deleted from a mapped stack.");
+    }
+
+    // Find the mapped group of slices containing a slice, mapping it if it
+    // isn't mapped, and make sure that the group after it is being mapped.
+    private synchronized Window window(int index)
+    {
+        Window result = find(index);
+        if (result == null) {
+            result = new Window(index, false);
+            M_windows.put(result.first, result);
+        }
+        else M_windows.get(result.first); // Mark it as recently used
+        int next = result.last + 1;
+        if (next < M_offsets.length && find(next) == null) {
+            M_windows.put(next, new Window(next, true));
+        }
+        return result;
+    }
+    private Window find(int index)
+    {
+        for (Window window : M_windows.values()) {
+            if (window.first <= index && index <= window.last) return window;
+        }
+        return null;
+    }
+    private static boolean contiguous(FileInfo fi)
+    {
+        if (fi.stripOffsets == null || fi.stripLengths == null) return true;
+        long end = fi.stripOffsets[0];
+        for (int i = 0; i < fi.stripOffsets.length; ++i) {
+            if (fi.stripOffsets[i] != end) return false;
+            end += fi.stripLengths[i];
+        }
+        return true;
+    }
+    private static int intProperty(Properties properties, String key)
+    {
+        try {
+            return Integer.parseInt(properties.getProperty(key, "1").trim());
+        }
+        catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+
+    // A group of consecutive slices that are mapped together.  The range of the
+    // file is worked out right away, but it might still be being mapped in the
+    // background.
+    private final class Window {
+        Window(int first, boolean background)
+        {
+            this.first = first;
+            start = M_offsets[first];
+            long end = start + M_sliceBytes;
+            int last = first;
+            while (last + 1 < M_offsets.length
+                    && last + 1 - first < M_readAhead) {
+                long offset = M_offsets[last + 1];
+                if (offset < end
+                        || offset + M_sliceBytes - start > Integer.MAX_VALUE) {
+                    break;
+                }
+                end = offset + M_sliceBytes;
+                ++last;
+            }
+            this.last = last;
+            int length = (int)(end - start);
+            if (background) {
+                M_buffer = CompletableFuture.supplyAsync(() -> {
+                    MappedByteBuffer buffer = map(length);
+                    buffer.load();
+                    return buffer;
+                }, S_loader);
+            }
+            else M_buffer = CompletableFuture.completedFuture(map(length));
+        }
+        MappedByteBuffer buffer()
+        {
+            try {
+                return M_buffer.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new UncheckedIOException(new InterruptedIOException(
+                    "Interrupted while mapping " + M_path + "."));
+            }
+            catch (ExecutionException e) {
+                if (e.getCause() instanceof UncheckedIOException) {
+                    throw (UncheckedIOException)e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        private MappedByteBuffer map(int length)
+        {
+            try (FileChannel channel = FileChannel.open(
+                    M_path, StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, start,
+                                   length);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        final int first;
+        final int last;
+        final long start;
+        private final CompletableFuture<MappedByteBuffer> M_buffer;
+    }
+
+    private final Path      M_path;
+    private final long[]    M_offsets;
+    private final String[]  M_labels;
+    private final int       M_sliceBytes;
+    private final int       M_bitDepth;
+    private final boolean   M_signed;
+    private final ByteOrder M_order;
+    private final int       M_readAhead;
+    // The most recently used groups, with a few extra so that several threads
+    // reading different parts of the stack don't keep remapping each other's.
+    // Groups removed from here stay mapped until they are garbage collected.
+    private final Map<Integer, Window> M_windows
+        = new LinkedHashMap<Integer, Window>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Window> e)
+            {
+                return size() > S_windows;
+            }
+        };
+    private static final int S_windows
+        = Runtime.getRuntime().availableProcessors() + 2;
+    // One daemon thread shared by every stack that maps and loads the next
+    // group of slices, which goes away when there is nothing to load.
+    private static final ExecutorService S_loader = makeLoader();
+    private static ExecutorService makeLoader()
+    {
+        ThreadPoolExecutor result = new ThreadPoolExecutor(
+            1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                Thread thread = new Thread(r, "MappedStack loader");
+                thread.setDaemon(true);
+                return thread;
+            });
+        result.allowCoreThreadTimeOut(true);
+        return result;
+    }
+}
@@ -0,0 +1,170 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import java.awt.Rectangle;
+
+import ij.gui.Roi;
+import ij.process.AutoThresholder;
+import ij.process.ImageProcessor;
+
+/** A Mask determines which pixels of a phase image should be unwrapped.
+ * Pixels that are not in the mask are never looked at by the quality-guided
+ * algorithms, and are set to a fill value in the result.
+ * <p>
+ * A mask is a <code>boolean[][]</code> that is indexed the same way as the
+ * phase image, where <code>true</code> means that the pixel should be
+ * unwrapped.  The ops take these arrays directly, while
+ * {@link QualityUnwrappingStackOp} takes a Mask so that a new array can be made
+ * for every slice.  The static functions here create the common kinds of masks.
+ */
+public interface Mask {
+    /** Calculate the mask for one slice.
+     *
+     * @param width The width of the phase image.
+     * @param height The height of the phase image.
+     * @param quality The quality values for this slice, or null if the
+     *                algorithm being used doesn't use a quality.
+     * @return The mask, as described in the class documentation, or null if
+     *         every pixel should be unwrapped.
+     */
+    boolean[][] calculate(int width, int height, float[][] quality);
+
+    /** Create a mask of the pixels inside of an ImageJ selection.
+     *
+     * @param roi The selection.  If it is null, every pixel is unwrapped.
+     * @return The Mask.
+     */
+    static Mask fromRoi(Roi roi)
+    {
+        return (width, height, quality) -> {
+            if (roi == null) return null;
+            boolean[][] result = new boolean[width][height];
+            Rectangle bounds = roi.getBounds();
+            ImageProcessor roiMask = roi.getMask();
+            int x0 = Math.max(0, bounds.x);
+            int y0 = Math.max(0, bounds.y);
+            int x1 = Math.min(width, bounds.x + bounds.width);
+            int y1 = Math.min(height, bounds.y + bounds.height);
+            for (int x = x0; x < x1; ++x) {
+                for (int y = y0; y < y1; ++y) {
+                    result[x][y] = roiMask == null
+                        || roiMask.get(x - bounds.x, y - bounds.y) != 0;
+                }
+            }
+            return result;
+        };
+    }
+    /** Create a mask from an image, where every nonzero pixel is unwrapped.
+     *
+     * @param image The mask image.  It must be the same size as the phase
+     *              image.
+     * @return The Mask.
+     */
+    static Mask fromImage(ImageProcessor image)
+    {
+        return (width, height, quality) -> {
+            if (image.getWidth() != width || image.getHeight() != height) {
+                throw new IllegalArgumentException("The mask image must be the "
+                    + "same size as the phase image.");
+            }
+            boolean[][] result = new boolean[width][height];
+            for (int x = 0; x < width; ++x) {
+                for (int y = 0; y < height; ++y) {
+                    result[x][y] = image.getf(x, y) != 0;
+                }
+            }
+            return result;
+        };
+    }
+    /** Create a mask of every pixel whose quality is at least some threshold.
+     * If the algorithm doesn't use a quality, every pixel is unwrapped.
+     *
+     * @param threshold The lowest quality that will be unwrapped.
+     * @return The Mask.
+     */
+    static Mask qualityThreshold(float threshold)
+    {
+        return (width, height, quality) -> {
+            if (quality == null) return null;
+            return threshold(quality, threshold);
+        };
+    }
+    /** Create a mask of every pixel whose quality is at least a threshold that
+     * is found automatically for every slice using Otsu's method.  If the
+     * algorithm doesn't use a quality, every pixel is unwrapped.
+     *
+     * @return The Mask.
+     */
+    static Mask automaticQualityThreshold()
+    {
+        return (width, height, quality) -> {
+            if (quality == null) return null;
+            return threshold(quality, otsuThreshold(quality));
+        };
+    }
+
+    /** Find a threshold of some values using Otsu's method on a 256 bin
+     * histogram.  NaN and infinite values are ignored.
+     *
+     * @param values The values to threshold.
+     * @return The lowest value that is above the threshold.
+     */
+    static float otsuThreshold(float[][] values)
+    {
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        for (float[] column : values) {
+            for (float value : column) {
+                if (Float.isNaN(value) || Float.isInfinite(value)) continue;
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+        }
+        if (!(max > min)) return Float.NEGATIVE_INFINITY;
+        int[] histogram = new int[256];
+        float scale = 255.999f / (max - min);
+        for (float[] column : values) {
+            for (float value : column) {
+                if (Float.isNaN(value) || Float.isInfinite(value)) continue;
+                ++histogram[(int)((value - min) * scale)];
+            }
+        }
+        int bin = new AutoThresholder()
+            .getThreshold(AutoThresholder.Method.Otsu, histogram);
+        return min + (bin + 1) / scale;
+    }
+    /** Create a mask of every value that is at least some threshold.
+     *
+     * @param values The values to threshold.
+     * @param threshold The lowest value that is in the mask.
+     * @return A mask, as described in the class documentation.
+     */
+    static boolean[][] threshold(float[][] values, float threshold)
+    {
+        boolean[][] result = new boolean[values.length][values[0].length];
+        for (int x = 0; x < values.length; ++x) {
+            for (int y = 0; y < values[0].length; ++y) {
+                result[x][y] = values[x][y] >= threshold;
+            }
+        }
+        return result;
+    }
+}
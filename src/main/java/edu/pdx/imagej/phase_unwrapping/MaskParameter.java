@@ -0,0 +1,104 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import ij.ImagePlus;
+
+import org.scijava.plugin.Plugin;
+
+import edu.pdx.imagej.dynamic_parameters.DParameter;
+import edu.pdx.imagej.dynamic_parameters.HoldingParameter;
+import edu.pdx.imagej.dynamic_parameters.ChoiceParameter;
+import edu.pdx.imagej.dynamic_parameters.ImageParameter;
+
+/** MaskParameter is a DParameter that gets a {@link Mask}.  The mask can be the
+ * selection on the phase image, a mask image, or an automatic threshold of the
+ * quality.  The mask image is only shown when it is being used.
+ */
+@Plugin(type = DParameter.class)
+public class MaskParameter extends HoldingParameter<Mask> {
+    /** Construct a MaskParameter.
+     *
+     * @param phaseImage The phase image that is being unwrapped, whose
+     *                   selection is used for the selection mask.
+     */
+    public MaskParameter(ImageParameter phaseImage)
+    {
+        super("MaskBase");
+        M_phaseImage = phaseImage;
+        String[] choices = {NONE, SELECTION, IMAGE, THRESHOLD};
+        M_choice = addParameter(new ChoiceParameter("Mask", choices, NONE));
+        M_image = addParameter(new ImageParameter("Mask_image"));
+        setVisibilities();
+    }
+    /** See DParameter's documentation. */
+    @Override
+    public void readFromDialog()
+    {
+        super.readFromDialog();
+        setVisibilities();
+    }
+    /** See DParameter's documentation.
+     *
+     * @param c The class that is reading, usually the command that is being
+     *          run.
+     * @param name The name used for this parameter.
+     */
+    @Override
+    public void readFromPrefs(Class<?> c, String name)
+    {
+        super.readFromPrefs(c, name);
+        setVisibilities();
+    }
+    /** Get the mask this parameter is holding.
+     *
+     * @return The Mask that this parameter is currently holding, or null if
+     *         there is no mask.
+     */
+    @Override
+    public Mask getValue()
+    {
+        switch (M_choice.getValue()) {
+            case SELECTION:
+                ImagePlus phaseImage = M_phaseImage.getValue();
+                return Mask.fromRoi(phaseImage.getRoi());
+            case IMAGE:
+                return Mask.fromImage(M_image.getValue().getProcessor());
+            case THRESHOLD:
+                return Mask.automaticQualityThreshold();
+            default:
+                return null;
+        }
+    }
+
+    private void setVisibilities()
+    {
+        M_image.setNewVisibility(IMAGE.equals(M_choice.getValue()));
+    }
+
+    private static final String NONE = "None";
+    private static final String SELECTION = "Selection on phase image";
+    private static final String IMAGE = "Mask image";
+    private static final String THRESHOLD = "Automatic quality threshold";
+
+    private ImageParameter  M_phaseImage;
+    private ChoiceParameter M_choice;
+    private ImageParameter  M_image;
+}
@@ -0,0 +1,57 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import org.scijava.Priority;
+import org.scijava.plugin.Plugin;
+
+/** MaxPhaseGradientQuality is a {@link Quality} that uses the largest wrapped
+ * phase difference in the window around every pixel.  For every pixel, it is
+ * the negative of the largest absolute wrapped difference along x or along y
+ * anywhere in the window, so one bad pixel lowers the quality of everything
+ * near it.
+ * <p>
+ * A maximum can't be found with summed-area tables, so running maximums along
+ * the rows and then the columns are used instead, which also take no longer
+ * for larger windows.
+ */
+@Plugin(type = Quality.class,
+        name = "Maximum Phase Gradient",
+        priority = Priority.VERY_HIGH * 0.996)
+public class MaxPhaseGradientQuality extends WindowedQuality {
+    /** {@inheritDoc} */
+    @Override
+    public float[] calculate(float[] phaseImage, int width, int height, int t,
+                             int z)
+    {
+        float[][] d = WindowOps.derivatives(phaseImage, width, height,
+                                            phaseValue());
+        float[] gradient = d[0];
+        for (int p = 0; p < gradient.length; ++p) {
+            gradient[p] = Math.max(Math.abs(gradient[p]), Math.abs(d[1][p]));
+        }
+        float[] result = WindowOps.max(gradient, width, height, radius());
+        for (int p = 0; p < result.length; ++p) result[p] = -result[p];
+        return result;
+    }
+
+    @Override
+    WindowedQuality newInstance() {return new MaxPhaseGradientQuality();}
+}
@@ -0,0 +1,102 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import java.util.stream.IntStream;
+
+import org.scijava.ItemIO;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import net.imagej.ops.AbstractOp;
+import net.imagej.ops.Op;
+
+/** MultipleWavelengthOp is an Op that performs phase unwrapping with any
+ * number of wavelengths, using a cascade of synthetic wavelengths.  It is like
+ * {@link DoubleWavelengthOp}, but more wavelengths let the range of the
+ * longest synthetic wavelength be reached in smaller steps, so the noise of
+ * each step doesn't cause as many errors.
+ * <p>
+ * Every wavelength, and the synthetic wavelength of every pair of wavelengths
+ * that are next to each other in size, gives the optical path length at every
+ * pixel modulo that wavelength.  These are sorted from the longest to the
+ * shortest.  The longest gives the coarse map, and every one after it picks
+ * the path length closest to the one before it that agrees with its phase.
+ * The last one is the fine map, which has the range of the longest synthetic
+ * wavelength and the noise of the shortest wavelength.  Every pixel is done on
+ * its own, so there are no paths for errors to spread along, and every step is
+ * done for every pixel in one parallel pass.
+ * <p>
+ * To run this op yourself, it has the name
+ * "Multiple Wavelength Phase Unwrapping" and has these parameters:
+ * <ol>
+ *     <li>Images: An array of {@link PhaseImage}s, one for each wavelength,
+ *                 which must all be the same size.  Every wavelength must be
+ *                 in the same units.
+ *     <li>Show steps: Whether or not to return every step of the cascade.
+ * </ol>
+ * The result is a <code>float[][][]</code>.  If show steps is
+ * <code>false</code>, <code>result[0]</code> is the coarse map and
+ * <code>result[1]</code> is the fine map.  If show steps is <code>true</code>,
+ * there is one image for every step of the cascade, from the longest
+ * wavelength to the shortest.  Every image is phase in the units of the first
+ * image, like the results of {@link DoubleWavelengthOp}.
+ */
+@Plugin(type = Op.class, name = "Multiple Wavelength Phase Unwrapping")
+public class MultipleWavelengthOp extends AbstractOp {
+    // Inputs
+    @Parameter private PhaseImage[] P_images;
+    @Parameter private boolean      P_showSteps;
+    // Outputs
+    @Parameter(type = ItemIO.OUTPUT) private float[][][] P_result;
+
+    @Override
+    public void run()
+    {
+        float[] wavelengths = new float[P_images.length];
+        float[] phaseValues = new float[P_images.length];
+        for (int i = 0; i < P_images.length; ++i) {
+            wavelengths[i] = P_images[i].wavelength;
+            phaseValues[i] = P_images[i].phaseValue;
+        }
+        WavelengthCascade cascade
+            = new WavelengthCascade(wavelengths, phaseValues);
+        int width = P_images[0].phaseImage.length;
+        int height = P_images[0].phaseImage[0].length;
+        for (PhaseImage image : P_images) {
+            if (image.phaseImage.length != width
+                    || image.phaseImage[0].length != height) {
+                throw new IllegalArgumentException(
+                    "Every phase image must be the same size.");
+            }
+        }
+        int outputs = P_showSteps ? cascade.stages() : 2;
+        P_result = new float[outputs][width][height];
+        // Every column is a row-major image of its own
+        IntStream.range(0, width).parallel().forEach(x -> {
+            float[][] columns = new float[P_images.length][];
+            for (int i = 0; i < P_images.length; ++i) {
+                columns[i] = P_images[i].phaseImage[x];
+            }
+            float[][] results = new float[outputs][];
+            for (int i = 0; i < outputs; ++i) results[i] = P_result[i][x];
+            cascade.unwrap(columns, results, P_showSteps, 0, height);
+        });
+    }
+}
@@ -0,0 +1,175 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import java.io.File;
+import java.util.stream.IntStream;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.FloatProcessor;
+
+import org.scijava.ItemIO;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import net.imagej.ops.AbstractOp;
+import net.imagej.ops.Op;
+
+/** MultipleWavelengthStackOp is an Op that calculates multiple wavelength
+ * phase unwrapping on several ImagePluses, being able to unwrap the whole
+ * stacks.  It unwraps each slice the same way as
+ * {@link MultipleWavelengthOp}.
+ * <p>
+ * To run this op yourself, it has the name
+ * "Multiple Wavelength Phase Unwrapping" and has these parameters:
+ * <ol>
+ *     <li>Phase images: An array of <code>ImagePlus</code>es, one for each
+ *                       wavelength.  If they have different numbers of slices
+ *                       or frames, only the ones that all of them have are
+ *                       unwrapped.
+ *     <li>Wavelengths: The wavelength of each image, in the same units.
+ *     <li>Phase values: The pixel phase value of each image.
+ *     <li>Show steps: Whether or not to show every step of the cascade.  See
+ *                     {@link MultipleWavelengthOp}.
+ *     <li>Output directory (optional): A <code>File</code> with the directory
+ *                                      that the results are streamed to, with
+ *                                      one file or directory for each result.
+ *                                      If it is null, the results are kept in
+ *                                      memory.
+ *     <li>Output format (optional): The {@link StreamedStack.Format} that the
+ *                                   results are written in when there is an
+ *                                   output directory.  It defaults to
+ *                                   {@link StreamedStack.Format#Raw}.
+ *     <li>Parallel slices (optional): The number of slices to unwrap at the
+ *                                     same time.  If it is zero or less, it is
+ *                                     the number of processors.  It defaults
+ *                                     to one.
+ * </ol>
+ * The result is an array of <code>ImagePlus</code>es, with the coarse and fine
+ * maps, or every step of the cascade if the steps are shown.
+ * <p>
+ * When more than one slice is unwrapped at a time, they are handed out to a
+ * work-stealing pool with the given number of threads.  Every thread reuses
+ * the buffers that it reads slices into, and also the buffers its results are
+ * made in when they are streamed to disk.  The pixels of 32-bit slices are
+ * used directly without being copied.  When one slice is unwrapped at a time,
+ * each slice is split across all of the processors instead.  The results are
+ * the same either way.
+ */
+@Plugin(type = Op.class, name = "Multiple Wavelength Phase Unwrapping")
+public class MultipleWavelengthStackOp extends AbstractOp {
+    // Inputs
+    @Parameter private ImagePlus[] P_phaseImages;
+    @Parameter private float[]     P_wavelengths;
+    @Parameter private float[]     P_phaseValues;
+    @Parameter private boolean     P_showSteps;
+    @Parameter(required = false) private File P_outputDirectory;
+    @Parameter(required = false)
+    private StreamedStack.Format P_outputFormat = StreamedStack.Format.Raw;
+    @Parameter(required = false) private int P_parallelSlices = 1;
+    // Outputs
+    @Parameter(type = ItemIO.OUTPUT) private ImagePlus[] P_result;
+
+    @Override
+    public void run()
+    {
+        if (P_phaseImages.length != P_wavelengths.length) {
+            throw new IllegalArgumentException(
+                "There must be a wavelength for every phase image.");
+        }
+        M_cascade = new WavelengthCascade(P_wavelengths, P_phaseValues);
+        int width = P_phaseImages[0].getWidth();
+        int height = P_phaseImages[0].getHeight();
+        int tSize = Integer.MAX_VALUE;
+        int zSize = Integer.MAX_VALUE;
+        for (ImagePlus image : P_phaseImages) {
+            if (image.getWidth() != width || image.getHeight() != height) {
+                throw new IllegalArgumentException(
+                    "Every phase image must be the same size.");
+            }
+            tSize = Math.min(tSize, image.getNFrames());
+            zSize = Math.min(zSize, image.getNSlices());
+        }
+        int finalSize = tSize * zSize;
+        String[] labels = labels();
+        ImageStack[] stacks = new ImageStack[labels.length];
+        for (int i = 0; i < labels.length; ++i) {
+            stacks[i] = StreamedStack.make(P_outputDirectory, P_outputFormat,
+                labels[i], width, height, finalSize, 32);
+        }
+
+        SliceDriver.run(zSize, finalSize, P_parallelSlices,
+                        split -> new SliceWorker(stacks, split));
+        P_result = new ImagePlus[labels.length];
+        for (int j = 0; j < labels.length; ++j) {
+            P_result[j] = StreamedStack.hyperstack(labels[j], stacks[j],
+                                                   zSize, tSize);
+        }
+    }
+    private String[] labels()
+    {
+        if (!P_showSteps) return new String[] {"Coarse Map", "Fine Map"};
+        String[] result = new String[M_cascade.stages()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = "Step " + (i + 1) + " (wavelength "
+                + (float)M_cascade.wavelength(i) + ")";
+        }
+        return result;
+    }
+
+    // Unwraps slices, keeping its results between slices
+    private class SliceWorker extends SliceDriver.Worker {
+        SliceWorker(ImageStack[] stacks, boolean split)
+        {
+            super(stacks, split, P_phaseImages.length);
+            M_outputs = new float[stacks.length][];
+        }
+        @Override
+        void compute(int t, int z, int index)
+        {
+            int width = P_phaseImages[0].getWidth();
+            int height = P_phaseImages[0].getHeight();
+            int size = width * height;
+            float[][] images = new float[P_phaseImages.length][];
+            for (int i = 0; i < images.length; ++i) {
+                ImagePlus image = P_phaseImages[i];
+                images[i] = pixels(image.getStack().getProcessor(
+                    image.getStackIndex(1, z, t)), i);
+            }
+            for (int i = 0; i < M_outputs.length; ++i) {
+                M_outputs[i] = result(M_outputs[i], size);
+            }
+            float[][] outputs = M_outputs;
+            if (M_split) {
+                IntStream.range(0, height).parallel().forEach(y ->
+                    M_cascade.unwrap(images, outputs, P_showSteps,
+                                     y * width, (y + 1) * width));
+            }
+            else M_cascade.unwrap(images, outputs, P_showSteps, 0, size);
+            for (int i = 0; i < outputs.length; ++i) {
+                M_stacks[i].setProcessor(
+                    new FloatProcessor(width, height, outputs[i]), index);
+            }
+        }
+        private final float[][] M_outputs;
+    }
+
+    private WavelengthCascade M_cascade;
+}
@@ -24,7 +24,7 @@ import org.scijava.plugin.Plugin;
 
 /** NoneQuality is a {@link Quality} that does nothing. */
 @Plugin(type = Quality.class, name = "None", priority = Priority.FIRST)
-public class NoneQuality extends AbstractQuality {
+public class NoneQuality extends AbstractQuality implements StencilQuality {
     /** {@inheritDoc}
      * <p>
      * For NoneQuality, this just returns an array of zeros.
@@ -40,9 +40,28 @@ public class NoneQuality extends AbstractQuality {
      * For NoneQuality, this just returns an array of zeros.
      */
     @Override
+    public float[] calculate(float[] phaseImage, int width, int height, int t,
+                             int z)
+    {
+        return new float[width * height];
+    }
+    /** {@inheritDoc} */
+    @Override
+    public Stencil stencil(float[] phaseImage, int width, int height, int t,
+                           int z)
+    {
+        return (x, y) -> 0;
+    }
+    /** {@inheritDoc}
+     * <p>
+     * For NoneQuality, this just returns an array of zeros.
+     */
+    @Override
     public float[][] getResult()
     {
         return M_result;
     }
+    /** {@inheritDoc} */
+    @Override public Quality duplicate() {return new NoneQuality();}
     private float[][] M_result;
 }
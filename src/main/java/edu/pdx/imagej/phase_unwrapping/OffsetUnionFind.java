@@ -0,0 +1,95 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+// OffsetUnionFind is a union-find (disjoint set) structure where every element
+// also has an integer offset relative to the root of its group.  When it is
+// used for unwrapping, the elements are pixels or tiles and the offsets are the
+// number of phase values that must be added to each one so that the whole group
+// is consistent.
+//
+// It uses union by size and path compression, so every operation is nearly
+// O(1).
+final class OffsetUnionFind {
+    public OffsetUnionFind(int size)
+    {
+        M_parent = new int[size];
+        M_offset = new int[size];
+        M_size = new int[size];
+        for (int i = 0; i < size; ++i) {
+            M_parent[i] = i;
+            M_size[i] = 1;
+        }
+    }
+    // Get the root of the group that x is in
+    public int find(int x)
+    {
+        // First pass: find the root and the total offset of x
+        int root = x;
+        int total = 0;
+        while (M_parent[root] != root) {
+            total += M_offset[root];
+            root = M_parent[root];
+        }
+        // Second pass: point everything on the path directly at the root
+        while (M_parent[x] != root && x != root) {
+            int next = M_parent[x];
+            int nextTotal = total - M_offset[x];
+            M_parent[x] = root;
+            M_offset[x] = total;
+            x = next;
+            total = nextTotal;
+        }
+        return root;
+    }
+    // Get the offset of x relative to the root of its group
+    public int offset(int x)
+    {
+        find(x);
+        return M_parent[x] == x ? 0 : M_offset[x];
+    }
+    // Merge the groups of a and b so that offset(b) == offset(a) + k.  Returns
+    // false without doing anything if they are already in the same group.
+    public boolean union(int a, int b, int k)
+    {
+        int rootA = find(a);
+        int rootB = find(b);
+        if (rootA == rootB) return false;
+        // The offset of rootB relative to rootA
+        int diff = offset(a) + k - offset(b);
+        if (M_size[rootA] >= M_size[rootB]) {
+            M_parent[rootB] = rootA;
+            M_offset[rootB] = diff;
+            M_size[rootA] += M_size[rootB];
+        }
+        else {
+            M_parent[rootA] = rootB;
+            M_offset[rootA] = -diff;
+            M_size[rootB] += M_size[rootA];
+        }
+        return true;
+    }
+    // Get the number of elements in the group that x is in
+    public int groupSize(int x) {return M_size[find(x)];}
+
+    private final int[] M_parent;
+    private final int[] M_offset;
+    private final int[] M_size;
+}
@@ -0,0 +1,69 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import org.scijava.Priority;
+import org.scijava.plugin.Plugin;
+
+/** PhaseDerivativeVarianceQuality is a {@link Quality} that uses the variance
+ * of the wrapped phase derivatives in the window around every pixel.  For
+ * every pixel, it is the negative of the sum of the standard deviations of the
+ * wrapped differences along x and along y in the window, divided by the
+ * number of pixels in the window.  It assigns a higher value to spots where
+ * the phase changes smoothly, even if it changes quickly, so it is less
+ * sensitive to steep but clean fringes than {@link PhaseGradientQuality}.
+ * <p>
+ * The window sums are found with summed-area tables, so larger windows take
+ * no longer than smaller ones.
+ */
+@Plugin(type = Quality.class,
+        name = "Phase Derivative Variance",
+        priority = Priority.VERY_HIGH * 0.998) // Right after Phase Gradient
+public class PhaseDerivativeVarianceQuality extends WindowedQuality {
+    /** {@inheritDoc} */
+    @Override
+    public float[] calculate(float[] phaseImage, int width, int height, int t,
+                             int z)
+    {
+        float[][] d = WindowOps.derivatives(phaseImage, width, height,
+                                            phaseValue());
+        float[] dx = d[0];
+        float[] dy = d[1];
+        return WindowOps.sums(width, height, radius(), 4,
+            (p, values) -> {
+                values[0] = dx[p];
+                values[1] = (double)dx[p] * dx[p];
+                values[2] = dy[p];
+                values[3] = (double)dy[p] * dy[p];
+            },
+            (sums, count) -> (float)-(
+                deviation(sums[0], sums[1], count)
+                + deviation(sums[2], sums[3], count)) / count);
+    }
+
+    // The square root of the sum of the squared distances from the mean, which
+    // can come out slightly negative from rounding
+    private static double deviation(double sum, double squares, int count)
+    {
+        return Math.sqrt(Math.max(0, squares - sum * sum / count));
+    }
+    @Override
+    WindowedQuality newInstance() {return new PhaseDerivativeVarianceQuality();}
+}
@@ -34,7 +34,8 @@ import org.scijava.plugin.Plugin;
 @Plugin(type = Quality.class,
         name = "Phase Gradient",
         priority = Priority.VERY_HIGH * 0.999) // Right after normal gradient
-public class PhaseGradientQuality extends AbstractQuality {
+public class PhaseGradientQuality extends AbstractQuality
+    implements VolumeQuality, StencilQuality {
     /** {@inheritDoc}
      * <p>
      * PhaseGradientQuality does use the phase value, and this function saves
@@ -46,30 +47,48 @@ public class PhaseGradientQuality extends AbstractQuality {
     @Override
     public float[][] calculate(float[][] phaseImage, int t, int z)
     {
-        M_data = new float[phaseImage.length][phaseImage[0].length];
-        for (int x = 0; x < M_data.length; ++x) {
-            for (int y = 0; y < M_data[0].length; ++y) {
-                for (int xPlus = -1; xPlus <= 1; ++xPlus) {
-                    for (int yPlus = -1; yPlus <= 1; ++yPlus) {
-                        if (xPlus == 0 && yPlus == 0) continue;
-                        int newX = x + xPlus;
-                        int newY = y + yPlus;
-                        if (newX == -1 || newY == -1) continue;
-                        if (newX == M_data.length ||
-                            newY == M_data[0].length) continue;
-                        float difference = phaseImage[x][y]
-                                           - phaseImage[newX][newY];
-                        if (difference < -M_phase / 2) difference += M_phase;
-                        if (difference > M_phase / 2) difference -= M_phase;
-                        M_data[x][y] -= Math.abs(difference);
-                    }
-                }
-            }
-        }
+        int width = phaseImage.length;
+        int height = phaseImage[0].length;
+        M_data = ArrayOps.unflatten(calculateVolume(
+            ArrayOps.flatten(phaseImage), width, height, 1), width, height);
         return M_data;
     }
     /** {@inheritDoc} */
+    @Override
+    public float[] calculate(float[] phaseImage, int width, int height, int t,
+                             int z)
+    {
+        return calculateVolume(phaseImage, width, height, 1);
+    }
+    /** {@inheritDoc}
+     * <p>
+     * For volumes, the pixels in the slices before and after every pixel are
+     * counted as well as the eight around it in its own slice.
+     */
+    @Override
+    public float[] calculateVolume(float[] phase, int width, int height,
+                                   int depth)
+    {
+        return GradientKernel.calculate(phase, width, height, depth, M_phase);
+    }
+    /** {@inheritDoc} */
+    @Override
+    public Stencil stencil(float[] phaseImage, int width, int height, int t,
+                           int z)
+    {
+        return (x, y) -> GradientKernel.at(phaseImage, width, height, M_phase,
+                                           x, y);
+    }
+    /** {@inheritDoc} */
     @Override public float[][] getResult() {return M_data;}
+    /** {@inheritDoc} */
+    @Override
+    public Quality duplicate()
+    {
+        PhaseGradientQuality result = new PhaseGradientQuality();
+        result.M_phase = M_phase;
+        return result;
+    }
     private float[][] M_data;
     private float M_phase;
 }
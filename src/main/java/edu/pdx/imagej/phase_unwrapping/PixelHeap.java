@@ -0,0 +1,104 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import java.util.Arrays;
+
+// PixelHeap is a binary max-heap of integer items (usually pixel indices) keyed
+// by a float.  Items with equal keys come out in the order they were put in,
+// which is the same order that a TreeSet of QPoints used to give.
+//
+// The key and the insertion order are packed into one long so that every
+// comparison is a single primitive comparison: the high 32 bits are the float
+// bits rearranged to sort like a signed int, and the low 32 bits are the
+// complement of the insertion count, so that earlier items compare higher.
+final class PixelHeap {
+    public PixelHeap() {this(1024);}
+    public PixelHeap(int initialCapacity)
+    {
+        M_keys = new long[Math.max(initialCapacity, 2)];
+        M_items = new int[M_keys.length];
+    }
+    public void push(int item, float key)
+    {
+        if (M_size == M_keys.length) {
+            M_keys = Arrays.copyOf(M_keys, M_size * 2);
+            M_items = Arrays.copyOf(M_items, M_size * 2);
+        }
+        long packed = ((long)sortable(key) << 32)
+                      | (~M_count++ & 0xFFFFFFFFL);
+        // Sift up
+        int i = M_size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (M_keys[parent] >= packed) break;
+            M_keys[i] = M_keys[parent];
+            M_items[i] = M_items[parent];
+            i = parent;
+        }
+        M_keys[i] = packed;
+        M_items[i] = item;
+    }
+    // Remove and return the item with the highest key
+    public int pop()
+    {
+        assert M_size > 0;
+        int result = M_items[0];
+        --M_size;
+        long packed = M_keys[M_size];
+        int item = M_items[M_size];
+        // Sift down
+        int i = 0;
+        int half = M_size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < M_size && M_keys[child + 1] > M_keys[child]) {
+                ++child;
+            }
+            if (packed >= M_keys[child]) break;
+            M_keys[i] = M_keys[child];
+            M_items[i] = M_items[child];
+            i = child;
+        }
+        M_keys[i] = packed;
+        M_items[i] = item;
+        return result;
+    }
+    public boolean isEmpty() {return M_size == 0;}
+    public int size() {return M_size;}
+
+    // Map a float onto an int so that comparing the ints compares the floats.
+    // Adding zero turns -0 into 0 so that they are still treated as equal.
+    // NaN is lower than everything else, even negative infinity, the same as
+    // the buckets of QualityUnwrapper.  It isn't the lowest int, so that it
+    // still can't be mistaken for the Long.MIN_VALUE that
+    // ReliabilityUnwrappingOp uses for edges that are left out.
+    static int sortable(float value)
+    {
+        if (value != value) return Integer.MIN_VALUE + 1;
+        int bits = Float.floatToIntBits(value + 0.0f);
+        return bits ^ ((bits >> 31) & 0x7FFFFFFF);
+    }
+
+    private long[] M_keys;
+    private int[]  M_items;
+    private int M_size;
+    private int M_count;
+}
@@ -0,0 +1,68 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+// PixelQueue is a first-in, first-out queue of integer items (usually pixel
+// indices), kept in a ring buffer that doubles in size when it fills up.  This
+// is the frontier QualityUnwrapper uses when every pixel has the same quality,
+// where it unwraps in exactly the same order as the other frontiers, because
+// they return items with the same key in the order they were put in.
+final class PixelQueue {
+    public PixelQueue() {this(1024);}
+    public PixelQueue(int initialCapacity)
+    {
+        // The capacity is always a power of two so that wrapping around is
+        // just a mask
+        M_items = new int[Integer.highestOneBit(Math.max(initialCapacity - 1,
+                                                         1)) << 1];
+    }
+    public void push(int item)
+    {
+        if (M_size == M_items.length) grow();
+        M_items[(M_head + M_size) & (M_items.length - 1)] = item;
+        ++M_size;
+    }
+    // Remove and return the oldest item
+    public int pop()
+    {
+        assert M_size > 0;
+        int result = M_items[M_head];
+        M_head = (M_head + 1) & (M_items.length - 1);
+        --M_size;
+        return result;
+    }
+    public boolean isEmpty() {return M_size == 0;}
+    public int size() {return M_size;}
+
+    // Double the capacity, moving the items so that the oldest one is first
+    private void grow()
+    {
+        int[] items = new int[M_items.length * 2];
+        int first = Math.min(M_size, M_items.length - M_head);
+        System.arraycopy(M_items, M_head, items, 0, first);
+        System.arraycopy(M_items, 0, items, first, M_size - first);
+        M_items = items;
+        M_head = 0;
+    }
+
+    private int[] M_items;
+    private int M_head;
+    private int M_size;
+}
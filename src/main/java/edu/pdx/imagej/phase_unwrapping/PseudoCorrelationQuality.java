@@ -0,0 +1,56 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import org.scijava.Priority;
+import org.scijava.plugin.Plugin;
+
+/** PseudoCorrelationQuality is a {@link Quality} that uses how consistent the
+ * phase is in the window around every pixel.  Every pixel's phase is turned
+ * into a unit vector, and the quality is the length of the mean of the vectors
+ * in the window, which is one when the phase is the same everywhere in the
+ * window and close to zero when it is noise.  If the phase value is zero, the
+ * phase is assumed to be in radians.
+ * <p>
+ * The window sums are found with summed-area tables, so larger windows take
+ * no longer than smaller ones.
+ */
+@Plugin(type = Quality.class,
+        name = "Pseudo-correlation",
+        priority = Priority.VERY_HIGH * 0.997)
+public class PseudoCorrelationQuality extends WindowedQuality {
+    /** {@inheritDoc} */
+    @Override
+    public float[] calculate(float[] phaseImage, int width, int height, int t,
+                             int z)
+    {
+        double scale = phaseValue() == 0 ? 1 : 2 * Math.PI / phaseValue();
+        return WindowOps.sums(width, height, radius(), 2,
+            (p, values) -> {
+                double angle = phaseImage[p] * scale;
+                values[0] = Math.cos(angle);
+                values[1] = Math.sin(angle);
+            },
+            (sums, count) -> (float)(Math.hypot(sums[0], sums[1]) / count));
+    }
+
+    @Override
+    WindowedQuality newInstance() {return new PseudoCorrelationQuality();}
+}
@@ -79,6 +79,30 @@ public interface Quality extends ImageJPlugin, Prioritized {
      *         values corresponding to pixels that should be unwrapped earliest.
      */
     float[][]    calculate(float[][] phaseImage, int t, int z);
+    /** Calculate the quality values of row-major pixels, such as the pixels
+     * of a <code>FloatProcessor</code>, where the pixel (x, y) is at index
+     * <code>y * width + x</code>.  This is the same as {@link calculate}, but
+     * without converting to and from a <code>float[][]</code>.  The phase
+     * image must not be modified.
+     * <p>
+     * This defaults to converting the pixels and calling {@link calculate}.
+     * Qualities that override this don't need to change the result of
+     * {@link getResult}.
+     *
+     * @param phaseImage The current phase image being unwrapped, as described
+     *                   above.
+     * @param width The width of the phase image.
+     * @param height The height of the phase image.
+     * @param t The time slice that should be used to calculate the quality.
+     * @param z The z slice that should be used to calculate the quality.
+     * @return The quality values, in the same order as the phase image.
+     */
+    default float[] calculate(float[] phaseImage, int width, int height, int t,
+                              int z)
+    {
+        return ArrayOps.flatten(calculate(
+            ArrayOps.unflatten(phaseImage, width, height), t, z));
+    }
     /** Get the last result from calculate.
      *
      * @return The result from the last time {@link calculate} was called.
@@ -98,4 +122,20 @@ public interface Quality extends ImageJPlugin, Prioritized {
      * @return The number of z slices this quality can use.
      */
     default int getZs() {return 0;}
+    /** Make a new quality with the same parameters as this one.
+     * <p>
+     * Qualities keep their result, so one instance can't calculate two images
+     * at once.  {@link QualityUnwrappingStackOp} uses this to give every thread
+     * its own quality when unwrapping several slices at once, and to calculate
+     * the quality of the next slice while the current one is being unwrapped.
+     * The new quality doesn't need to have any results, and
+     * {@link setPhaseValue} will be called on it before it is used.  The phase
+     * images given to a duplicated quality may be reused for later slices, so
+     * its result must not be the phase image itself.  This defaults to
+     * returning null, which means that the quality can't be duplicated and the
+     * slices will be unwrapped one at a time without any of this.
+     *
+     * @return A new quality with the same parameters, or null.
+     */
+    default Quality duplicate() {return null;}
 }
@@ -42,40 +42,25 @@ public class QualityParameter extends HoldingParameter<Quality> {
 
     /** Default constructor.  Doesn't really do anything. */
     public QualityParameter() {super("QualityBase");}
+    // A parameter that chooses from qualities that have already been found,
+    // such as one of the components of a CompositeQuality.  It is set up right
+    // away, because it might not be initialized by the command.
+    QualityParameter(String label, HashMap<String, Quality> qualities)
+    {
+        super("QualityBase");
+        M_label = label;
+        M_qualities = qualities;
+        setUp();
+    }
     /** Initialize this parameter.  This shouldn't be called by user code.  It
      * gets all of the qualities and determines what needs to be shown.
      */
     @Override
     public void initialize()
     {
+        if (M_choice != null) return;
         M_qualities = P_qualityService.getQualities();
-        ArrayList<Entry<String, Quality>> qualitiesArray =
-            new ArrayList<>(M_qualities.entrySet());
-        Collections.sort(qualitiesArray,
-            new Comparator<Entry<String, Quality>>() {
-                @Override
-                public int compare(Entry<String, Quality> lhs,
-                                   Entry<String, Quality> rhs)
-                {
-                    return lhs.getValue().compareTo(rhs.getValue());
-                }
-            }
-        );
-        ArrayList<String> choicesList = new ArrayList<>();
-        for (Entry<String, Quality> entry : qualitiesArray) {
-            choicesList.add(entry.getKey());
-        }
-        String[] choices = new String[choicesList.size()];
-        choices = choicesList.toArray(choices);
-        M_choice = addParameter(new ChoiceParameter(
-                                 "Quality", choices, choices[0]));
-        for (HashMap.Entry<String, Quality> entry : M_qualities.entrySet()) {
-            if (entry.getValue().param() != null) {
-                M_parameters.put(entry.getKey(), entry.getValue().param());
-                addParameter(entry.getValue().param());
-            }
-        }
-        setVisibilities();
+        setUp();
     }
     /** See DParameter's documentation. */
     @Override
@@ -106,6 +91,36 @@ public class QualityParameter extends HoldingParameter<Quality> {
         return M_qualities.get(M_choice.getValue());
     }
 
+    private void setUp()
+    {
+        ArrayList<Entry<String, Quality>> qualitiesArray =
+            new ArrayList<>(M_qualities.entrySet());
+        Collections.sort(qualitiesArray,
+            new Comparator<Entry<String, Quality>>() {
+                @Override
+                public int compare(Entry<String, Quality> lhs,
+                                   Entry<String, Quality> rhs)
+                {
+                    return lhs.getValue().compareTo(rhs.getValue());
+                }
+            }
+        );
+        ArrayList<String> choicesList = new ArrayList<>();
+        for (Entry<String, Quality> entry : qualitiesArray) {
+            choicesList.add(entry.getKey());
+        }
+        String[] choices = new String[choicesList.size()];
+        choices = choicesList.toArray(choices);
+        M_choice = addParameter(new ChoiceParameter(
+                                 M_label, choices, choices[0]));
+        for (HashMap.Entry<String, Quality> entry : M_qualities.entrySet()) {
+            if (entry.getValue().param() != null) {
+                M_parameters.put(entry.getKey(), entry.getValue().param());
+                addParameter(entry.getValue().param());
+            }
+        }
+        setVisibilities();
+    }
     private void setVisibilities()
     {
         for (DParameter param : M_parameters.values()) {
@@ -115,6 +130,7 @@ public class QualityParameter extends HoldingParameter<Quality> {
         if (current != null) current.setNewVisibility(true);
     }
 
+    private String                      M_label = "Quality";
     private ChoiceParameter             M_choice;
     private HashMap<String, DParameter> M_parameters = new HashMap<>();
     private HashMap<String, Quality>    M_qualities;
@@ -0,0 +1,413 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import java.util.Arrays;
+
+// QualityUnwrapper is the engine behind QualityUnwrappingOp.  It works only on
+// linear pixel indices into row-major float arrays (index = y * width + x), so
+// that no objects are created per pixel.  It can also unwrap a volume of depth
+// slices, where index = (z * height + y) * width + x and every pixel also has
+// the pixels in the slices before and after it as neighbors.
+//
+// The state of every pixel is kept in one byte.  The lowest three bits are the
+// direction to the already-unwrapped neighbor with the highest quality (what
+// used to be pFrom), and the next two bits say whether the pixel is waiting in
+// the frontier or has been unwrapped already.  Only the pixels waiting in the
+// frontier take any more memory, so volumes only need the state on top of the
+// phase, quality and result arrays.  The result may be the same array as the
+// phase, because the phase of a pixel is never looked at after it has been
+// unwrapped.
+//
+// If every pixel in the mask has the same quality, or there is no quality at
+// all, the frontier is a plain first-in, first-out PixelQueue instead, making
+// this a breadth-first flood fill.  The other frontiers give pixels with the
+// same quality in the order they were reached anyway, so the result is exactly
+// the same, but there is nothing to compare.
+//
+// Pixels outside of the mask are marked as done before anything starts, so they
+// never enter the frontier.  Any unwrapped regions that the mask cuts off from
+// the seed are unwrapped separately afterwards, each starting from its first
+// pixel in row-major order.
+final class QualityUnwrapper {
+    // Called every PROGRESS_INTERVAL pixels so that the caller can show the
+    // progress of the algorithm
+    interface Progress {
+        void update(int done, int total);
+    }
+    static final int PROGRESS_INTERVAL = 50000;
+
+    // Direction codes.  The neighbor in direction d is at index + offset(d).
+    // BEFORE and AFTER are the previous and next slices of a volume.
+    static final int LEFT   = 0;
+    static final int UP     = 1;
+    static final int RIGHT  = 2;
+    static final int DOWN   = 3;
+    static final int BEFORE = 4;
+    static final int AFTER  = 5;
+    static final byte DIRECTION = 7;
+    static final byte QUEUED    = 8;
+    static final byte DONE      = 16;
+
+    public QualityUnwrapper(int width, int height, float phaseValue,
+                            QualityUnwrappingOp.Frontier frontier)
+    {
+        this(width, height, 1, phaseValue, frontier);
+    }
+    public QualityUnwrapper(int width, int height, int depth, float phaseValue,
+                            QualityUnwrappingOp.Frontier frontier)
+    {
+        long size = (long)width * height * depth;
+        if (size > MAX_SIZE) {
+            throw new IllegalArgumentException("Volumes can have at most "
+                + MAX_SIZE + " pixels, but this one has " + size + ".");
+        }
+        M_width = width;
+        M_height = height;
+        M_depth = depth;
+        M_slice = width * height;
+        M_size = (int)size;
+        M_phaseValue = phaseValue;
+        M_frontier = frontier == null ? QualityUnwrappingOp.Frontier.Exact
+                                      : frontier;
+        M_offsets = new int[] {-1, -width, 1, width, -M_slice, M_slice};
+    }
+    public void setProgress(Progress progress) {M_progressListener = progress;}
+    // Only unwrap the pixels where mask is true, setting the rest to fillValue.
+    // mask is row-major like the other arrays.  If it is null, every pixel is
+    // unwrapped.
+    public void setMask(boolean[] mask, float fillValue)
+    {
+        M_mask = mask;
+        M_fillValue = fillValue;
+    }
+
+    // Unwrap phase into result, starting at the center of the middle slice.
+    // Both phase and quality must be row-major arrays of size
+    // width * height * depth.  quality may be null if every pixel has the same
+    // quality.
+    public void unwrap(float[] phase, float[] quality, float[] result)
+    {
+        int seed = (M_depth / 2) * M_slice + (M_height / 2) * M_width
+                   + M_width / 2;
+        unwrap(phase, quality, result, seed);
+    }
+    public void unwrap(float[] phase, float[] quality, float[] result,
+                       int seed)
+    {
+        begin(phase, quality, result);
+        if (M_state[seed] == 0) start(seed);
+        finish();
+    }
+    // Unwrap phase into result like above, but also record the order that the
+    // pixels were unwrapped in, so that it can be replayed on other images with
+    // the same quality and mask
+    public UnwrapOrder record(float[] phase, float[] quality, float[] result)
+    {
+        M_visits = new int[M_size];
+        M_directions = new byte[M_size];
+        M_visited = 0;
+        unwrap(phase, quality, result);
+        int[] visits = M_visited == M_size
+            ? M_visits : Arrays.copyOf(M_visits, M_visited);
+        byte[] directions = M_visited == M_size
+            ? M_directions : Arrays.copyOf(M_directions, M_visited);
+        M_visits = null;
+        M_directions = null;
+        return new UnwrapOrder(visits, directions, M_offsets, M_phaseValue,
+                               M_mask, M_fillValue);
+    }
+    // Unwrap only the pixels where trusted is false, starting from the trusted
+    // pixels around them.  result must already have the unwrapped values of
+    // the trusted pixels, which are left alone.  An untrusted region that
+    // doesn't touch any trusted pixels starts from the value that result
+    // already has for its first pixel in row-major order.
+    public void correct(float[] phase, float[] quality, float[] result,
+                        boolean[] trusted)
+    {
+        begin(phase, quality, result);
+        for (int p = 0; p < M_size; ++p) {
+            if (trusted[p] && M_state[p] == 0) {
+                M_state[p] = DONE;
+                ++M_done;
+            }
+        }
+        for (int p = 0; p < M_size; ++p) {
+            if (M_state[p] == 0) addTrusted(p, trusted);
+        }
+        mainLoop();
+        M_keepSeeds = true;
+        finish();
+        M_keepSeeds = false;
+    }
+
+    private void begin(float[] phase, float[] quality, float[] result)
+    {
+        M_phase = phase;
+        M_quality = quality;
+        M_result = result;
+        M_state = new byte[M_size];
+        M_total = M_size;
+        if (M_mask != null) {
+            for (int p = 0; p < M_mask.length; ++p) {
+                if (!M_mask[p]) {
+                    M_state[p] = DONE;
+                    M_result[p] = M_fillValue;
+                    --M_total;
+                }
+            }
+        }
+        M_heap = null;
+        M_buckets = null;
+        M_queue = null;
+        if (isConstant()) M_queue = new PixelQueue();
+        else if (M_frontier == QualityUnwrappingOp.Frontier.Bucketed) {
+            createBuckets();
+        }
+        else M_heap = new PixelHeap();
+        M_done = 0;
+    }
+    // Unwrap every region that hasn't been reached yet, and then let go of
+    // everything
+    private void finish()
+    {
+        for (int p = 0; M_done < M_total; ++p) {
+            if (M_state[p] == 0) start(p);
+        }
+
+        // Let the garbage collector have everything but the result
+        M_phase = null;
+        M_quality = null;
+        M_result = null;
+        M_state = null;
+        M_heap = null;
+        M_buckets = null;
+        M_queue = null;
+    }
+
+    // Unwrap everything that can be reached from seed, which keeps its value
+    private void start(int seed)
+    {
+        if (!M_keepSeeds) M_result[seed] = M_phase[seed];
+        M_state[seed] = DONE;
+        ++M_done;
+        if (M_visits != null) visit(seed, UnwrapOrder.SEED);
+        addNeighbors(seed);
+        mainLoop();
+    }
+    private void mainLoop()
+    {
+        final int total = M_total;
+        final float phaseValue = M_phaseValue;
+        while (!isEmpty()) {
+            if (M_progressListener != null
+                    && M_done % PROGRESS_INTERVAL == 0) {
+                M_progressListener.update(M_done, total);
+            }
+            int current = pop();
+            int from = current + M_offsets[M_state[current] & DIRECTION];
+            float currentVal = M_phase[current];
+            float fromVal = M_result[from];
+            if (currentVal != fromVal) {
+                fromVal -= currentVal;
+                fromVal /= phaseValue;
+                fromVal = Math.round(fromVal);
+                fromVal *= phaseValue;
+                currentVal += fromVal;
+            }
+            M_result[current] = currentVal;
+            if (M_visits != null) {
+                visit(current, (byte)(M_state[current] & DIRECTION));
+            }
+            M_state[current] = DONE;
+            ++M_done;
+            addNeighbors(current);
+        }
+    }
+    private void visit(int p, byte direction)
+    {
+        M_visits[M_visited] = p;
+        M_directions[M_visited] = direction;
+        ++M_visited;
+    }
+    // Add all of the pixels orthogonally adjacent to p to the frontier.  The
+    // order here determines the order of pixels with the same quality, so it
+    // must stay left, up, right, down, then before and after.
+    private void addNeighbors(int p)
+    {
+        int inSlice = M_depth == 1 ? p : p % M_slice;
+        int x = inSlice % M_width;
+        if (x > 0) maybeAdd(p - 1, RIGHT, p);
+        if (inSlice >= M_width) maybeAdd(p - M_width, DOWN, p);
+        if (x < M_width - 1) maybeAdd(p + 1, LEFT, p);
+        if (inSlice < M_slice - M_width) maybeAdd(p + M_width, UP, p);
+        if (p >= M_slice) maybeAdd(p - M_slice, AFTER, p);
+        if (p < M_size - M_slice) maybeAdd(p + M_slice, BEFORE, p);
+    }
+    // Add the pixel p to the frontier from all of the trusted pixels next to
+    // it, which are the ones that are done without being outside of the mask
+    private void addTrusted(int p, boolean[] trusted)
+    {
+        int inSlice = M_depth == 1 ? p : p % M_slice;
+        int x = inSlice % M_width;
+        if (x > 0 && isTrusted(p - 1, trusted)) maybeAdd(p, LEFT, p - 1);
+        if (inSlice >= M_width && isTrusted(p - M_width, trusted)) {
+            maybeAdd(p, UP, p - M_width);
+        }
+        if (x < M_width - 1 && isTrusted(p + 1, trusted)) {
+            maybeAdd(p, RIGHT, p + 1);
+        }
+        if (inSlice < M_slice - M_width && isTrusted(p + M_width, trusted)) {
+            maybeAdd(p, DOWN, p + M_width);
+        }
+        if (p >= M_slice && isTrusted(p - M_slice, trusted)) {
+            maybeAdd(p, BEFORE, p - M_slice);
+        }
+        if (p < M_size - M_slice && isTrusted(p + M_slice, trusted)) {
+            maybeAdd(p, AFTER, p + M_slice);
+        }
+    }
+    private boolean isTrusted(int p, boolean[] trusted)
+    {
+        return trusted[p] && (M_mask == null || M_mask[p]);
+    }
+    // Add the pixel p, reached from the pixel from in direction dirToFrom,
+    // unless it has already been added.
+    private void maybeAdd(int p, int dirToFrom, int from)
+    {
+        byte state = M_state[p];
+        if ((state & DONE) != 0) return;
+        if ((state & QUEUED) == 0) {
+            M_state[p] = (byte)(QUEUED | dirToFrom);
+            push(p);
+        }
+        // If it has been added already, figure out which from pixel has the
+        // best quality.  Any quality is better than NaN.
+        else if (M_queue == null) {
+            int oldFrom = p + M_offsets[state & DIRECTION];
+            float quality = M_quality[from];
+            float oldQuality = M_quality[oldFrom];
+            if (quality > oldQuality
+                    || (oldQuality != oldQuality && quality == quality)) {
+                M_state[p] = (byte)(QUEUED | dirToFrom);
+            }
+        }
+    }
+
+    private void push(int p)
+    {
+        if (M_queue != null) M_queue.push(p);
+        else if (M_heap != null) M_heap.push(p, M_quality[p]);
+        else {
+            float quality = M_quality[p];
+            // NaN qualities are sent to the back, below every other quality,
+            // the same as in PixelHeap
+            int level = 0;
+            if (quality == quality) {
+                level = 1 + Math.max(0,
+                    (int)((quality - M_minQuality) * M_levelScale));
+            }
+            M_buckets.push(p, level);
+        }
+    }
+    private int pop()
+    {
+        if (M_queue != null) return M_queue.pop();
+        return M_heap != null ? M_heap.pop() : M_buckets.pop();
+    }
+    private boolean isEmpty()
+    {
+        if (M_queue != null) return M_queue.isEmpty();
+        return M_heap != null ? M_heap.isEmpty() : M_buckets.isEmpty();
+    }
+    // Whether every pixel in the mask has exactly the same quality.  This
+    // stops at the first pixel that is different, so it takes almost no time
+    // for real qualities.
+    private boolean isConstant()
+    {
+        if (M_quality == null) return true;
+        boolean any = false;
+        int first = 0;
+        for (int p = 0; p < M_quality.length; ++p) {
+            if (M_mask != null && !M_mask[p]) continue;
+            // Zero and negative zero are the same to the other frontiers
+            int bits = Float.floatToIntBits(M_quality[p] + 0.0f);
+            if (!any) {
+                any = true;
+                first = bits;
+            }
+            else if (bits != first) return false;
+        }
+        return true;
+    }
+    // Find the range of the quality so that it can be quantized into the levels
+    // of the bucket queue
+    private void createBuckets()
+    {
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        for (int p = 0; p < M_quality.length; ++p) {
+            if (M_mask != null && !M_mask[p]) continue;
+            float value = M_quality[p];
+            if (value < min) min = value;
+            if (value > max) max = value;
+        }
+        int levels = BucketQueue.DEFAULT_LEVELS;
+        M_minQuality = min;
+        // The lowest level is saved for NaN, and every other quality is put in
+        // one of the rest.  The scale is shrunk very slightly so that rounding
+        // can never push the maximum quality past the last level.
+        if (max > min) M_levelScale = (levels - 1) / (max - min) * 0.99999f;
+        else M_levelScale = 0;
+        M_buckets = new BucketQueue(M_size, levels);
+    }
+
+    // The largest array Java can reliably allocate
+    private static final int MAX_SIZE = Integer.MAX_VALUE - 8;
+
+    private final int   M_width;
+    private final int   M_height;
+    private final int   M_depth;
+    private final int   M_slice;
+    private final int   M_size;
+    private final float M_phaseValue;
+    private final int[] M_offsets;
+    private final QualityUnwrappingOp.Frontier M_frontier;
+    private Progress M_progressListener;
+    private boolean[] M_mask;
+    private float     M_fillValue;
+
+    private float[] M_phase;
+    private float[] M_quality;
+    private float[] M_result;
+    private byte[]  M_state;
+    private int     M_done;
+    private int     M_total;
+    private boolean M_keepSeeds;
+    // The order that the pixels were unwrapped in when it is being recorded
+    private int[]   M_visits;
+    private byte[]  M_directions;
+    private int     M_visited;
+    private PixelHeap   M_heap;
+    private BucketQueue M_buckets;
+    private PixelQueue  M_queue;
+    private float M_minQuality;
+    private float M_levelScale;
+}
@@ -44,10 +44,16 @@ public class QualityUnwrappingCommand implements Command, Initializable {
     @Parameter private OpService P_ops;
 
     @Parameter private ImageParameter      P_phaseImage;
+    @Parameter private ChoiceParameter     P_algorithm;
     @Parameter private QualityParameter    P_quality;
+    @Parameter private MaskParameter       P_mask;
     @Parameter private BoolParameter       P_singleFrame;
+    @Parameter private ChoiceParameter     P_volume;
     @Parameter private PhaseValueParameter P_phaseValue;
     @Parameter private ChoiceParameter     P_outputType;
+    @Parameter private ChoiceParameter     P_frontier;
+    @Parameter private IntParameter        P_tileSize;
+    @Parameter private IntParameter        P_parallelSlices;
     @Parameter private BoolParameter       P_showProgress;
 
     /** Initializes the dynamic parameters. */
@@ -55,12 +61,26 @@ public class QualityUnwrappingCommand implements Command, Initializable {
     public void initialize()
     {
         P_phaseImage = new ImageParameter("Phase_image");
+        String[] algorithms = {"Quality guided", "Reliability guided",
+                               "Weighted least squares"};
+        P_algorithm = new ChoiceParameter("Algorithm", algorithms);
         P_quality = new QualityParameter();
+        P_mask = new MaskParameter(P_phaseImage);
         P_singleFrame = new BoolParameter("Single_frame", false);
+        String[] volumes = {"None", "Z slices together",
+                            "Frames together"};
+        P_volume = new ChoiceParameter("Unwrap_as_volume", volumes);
         P_phaseValue = new PhaseValueParameter("Pixel_phase_value",
                                                 P_phaseImage);
         String[] choices = {"8-bit", "32-bit", "32-bit (radians)"};
         P_outputType = new ChoiceParameter("Output_type", choices);
+        String[] frontiers = {"Exact", "Bucketed (faster)"};
+        P_frontier = new ChoiceParameter("Priority_queue", frontiers);
+        P_tileSize = new IntParameter(0, "Parallel_tile_size (0 for none)");
+        P_tileSize.setBounds(0, Integer.MAX_VALUE);
+        P_parallelSlices = new IntParameter(1,
+            "Parallel_slices (0 for all processors)");
+        P_parallelSlices.setBounds(0, Integer.MAX_VALUE);
         P_showProgress = new BoolParameter("Show Progress", true);
     }
 
@@ -78,6 +98,46 @@ public class QualityUnwrappingCommand implements Command, Initializable {
                 type = QualityUnwrappingStackOp.OutputType.Type32BitRadians;
                 break;
         }
+        QualityUnwrappingStackOp.Algorithm algorithm = null;
+        switch (P_algorithm.getValue()) {
+            case "Quality guided":
+                algorithm = QualityUnwrappingStackOp.Algorithm.QualityGuided;
+                break;
+            case "Reliability guided":
+                algorithm
+                    = QualityUnwrappingStackOp.Algorithm.ReliabilityGuided;
+                break;
+            case "Weighted least squares":
+                algorithm
+                    = QualityUnwrappingStackOp.Algorithm.WeightedLeastSquares;
+                break;
+        }
+        QualityUnwrappingStackOp.Volume volume = null;
+        switch (P_volume.getValue()) {
+            case "None":
+                volume = QualityUnwrappingStackOp.Volume.None;
+                break;
+            case "Z slices together":
+                volume = QualityUnwrappingStackOp.Volume.Z;
+                break;
+            case "Frames together":
+                volume = QualityUnwrappingStackOp.Volume.Time;
+                break;
+        }
+        // The op would throw for this, which the user would only see as a
+        // stack trace
+        if (volume != QualityUnwrappingStackOp.Volume.None
+                && algorithm
+                    != QualityUnwrappingStackOp.Algorithm.QualityGuided) {
+            IJ.error("Quality Guided Phase Unwrapping", "Only the quality "
+                + "guided algorithm can unwrap volumes.  Either choose it, or "
+                + "set \"Unwrap as volume\" to \"None\".");
+            return;
+        }
+        QualityUnwrappingOp.Frontier frontier
+            = P_frontier.getValue().equals("Exact")
+            ? QualityUnwrappingOp.Frontier.Exact
+            : QualityUnwrappingOp.Frontier.Bucketed;
         ImagePlus result = (ImagePlus)P_ops.run(
             "Quality Guided Phase Unwrapping",
             P_phaseImage.getValue(),
@@ -85,7 +145,15 @@ public class QualityUnwrappingCommand implements Command, Initializable {
             P_showProgress.getValue(),
             (float)P_phaseValue.getValue().doubleValue(),
             P_singleFrame.getValue(),
-            type
+            type,
+            frontier,
+            P_tileSize.getValue(),
+            algorithm,
+            false,
+            P_mask.getValue(),
+            Float.NaN,
+            P_parallelSlices.getValue(),
+            volume
         );
         result.show();
     }
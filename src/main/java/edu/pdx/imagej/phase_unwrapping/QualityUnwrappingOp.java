@@ -29,10 +29,6 @@ import net.imagej.ops.Op;
 import ij.ImagePlus;
 import ij.process.FloatProcessor;
 
-import java.awt.Point;
-import java.util.TreeSet;
-import java.util.HashSet;
-
 /** QualityUnwrappingOp is an Op that calculates single wavelength phase
  * unwrapping using a quality-guided unwrapping algorithm.
  * <p>
@@ -45,6 +41,14 @@ import java.util.HashSet;
  *     <li>Show progress: Whether or not you want to watch the progress of the
  *                        algorithm.
  *     <li>Phase value: The pixel phase value for the phase image.
+ *     <li>Frontier (optional): A {@link Frontier} saying how the pixels waiting
+ *                              to be unwrapped are ordered.  It defaults to
+ *                              {@link Frontier#Exact}.
+ *     <li>Mask (optional): A <code>boolean[][]</code> that is true for every
+ *                          pixel that should be unwrapped.  See {@link Mask}.
+ *                          If it is null, every pixel is unwrapped.
+ *     <li>Fill value (optional): The value given to every pixel that is not
+ *                                in the mask.  It defaults to NaN.
  * </ol>
  * The result is a <code>float[][]</code> representing the unwrapped phase
  * image.
@@ -54,183 +58,102 @@ import java.util.HashSet;
  * quality value, and unwraps that one.  It then finds the pixel adjacent to all
  * currently unwrapped pixels with the highest quality value, and unwraps that
  * one.  This process continues until all pixels are unwrapped.
+ * <p>
+ * Pixels that are not in the mask never enter the frontier, so the time taken
+ * only depends on the number of pixels in the mask.  If the center pixel is not
+ * in the mask, or if the mask splits the image into separate regions, every
+ * region that can't be reached from the center is unwrapped on its own,
+ * starting from the first of its pixels in row-major order.
+ * <p>
+ * Finding the pixel with the highest quality is where most of the time is
+ * spent, so there are two ways to do it.  See {@link Frontier} for details.
+ * If every pixel has the same quality, such as with {@link NoneQuality}, there
+ * is nothing to compare, so neither is used.  The pixels are unwrapped with a
+ * breadth-first flood fill from the center instead, using a plain first-in,
+ * first-out queue.  This is the same order that both frontiers would give,
+ * because pixels with the same quality are unwrapped in the order they were
+ * reached, but it is much faster.
+ * <p>
+ * Internally, every pixel is only a linear index into flat arrays, with one
+ * byte of state per pixel, so that no objects are created per pixel.  Even for
+ * very large images, the memory used is only a few bytes per pixel on top of
+ * the input and output arrays.
  */
 @Plugin(type = Op.class, name = "Quality Guided Phase Unwrapping")
 public class QualityUnwrappingOp extends AbstractOp {
+    /** Frontier determines the data structure used to hold the pixels that are
+     * adjacent to the unwrapped area, which are the ones that can be unwrapped
+     * next.  With either one, pixels with a NaN quality are unwrapped after
+     * every other pixel they are waiting with, and never unwrap their
+     * neighbors if there is any other choice.
+     */
+    public enum Frontier {
+        /** Always unwrap the pixel with the highest quality.  Pixels with
+         * exactly the same quality are unwrapped in the order they were
+         * reached.  This is the reference behavior, but every step is
+         * O(log n) in the number of pixels waiting to be unwrapped.
+         */
+        Exact,
+        /** Quantize the quality into 65535 levels, with one more below them
+         * for NaN qualities, and keep a separate first-in, first-out list for
+         * every level.  Pixels whose quality differs by less than one level
+         * may be unwrapped out of order, but every step is close to O(1),
+         * making this much faster on large images.
+         */
+        Bucketed
+    };
+
     @Parameter private StatusService P_status;
     // Inputs
     @Parameter private float[][] P_phaseImage;
     @Parameter private Quality   P_quality;
     @Parameter private boolean   P_showProgress;
     @Parameter private float     P_phaseValue;
+    @Parameter(required = false) private Frontier P_frontier = Frontier.Exact;
+    @Parameter(required = false) private boolean[][] P_mask;
+    @Parameter(required = false) private float P_fillValue = Float.NaN;
     // Outputs
     @Parameter(type = ItemIO.OUTPUT) float[][] P_result;
 
-    // QPoint is a simple data structure that represents each point of the
-    // quality.  It implements Comparable so that they can be easily sorted to
-    // find the pixel with the maximum quality.
-    private static class QPoint implements Comparable<QPoint> {
-        public Point p = new Point(); // The actual point value of this QPoint
-        public float value; // The quality value for this pixel
-        public Point pFrom; // The already-unwrapped pixel orthogonally
-                             // adjacent to this one that has the highest
-                             // quality.  It will be null until a pixel next to
-                             // it has been unwrapped.
-        // Compares the quality value, mainly.
-        @Override
-        public int compareTo(QPoint other) {
-            if (value < other.value) return -1;
-            else if (value > other.value) return 1;
-            // This is needed to make it consistent with equals, which is
-            // required for TreeSet to work correctly
-            else if (p.equals(other.p)) return 0;
-            else return -1;
-        }
-        @Override
-        public boolean equals(Object other)
-        {
-            if (this == other) return true;
-            if (other == null) return false;
-            if (getClass() != other.getClass()) return false;
-            QPoint q = (QPoint)other;
-            return p == q.p && value == q.value;
-        }
-    }
-
-    private int M_width;
-    private int M_height;
-    // Points on the border of what has been unwrapped, that will be unwrapped
-    // next
-    private TreeSet<QPoint> M_outsidePoints = new TreeSet<QPoint>();
-    // Points that have already been unwrapped
-    private HashSet<Point> M_donePoints = new HashSet<Point>();
-    private QPoint[][] M_quality;
-
     @Override
     public void run()
     {
-        M_width = P_phaseImage.length;
-        M_height = P_phaseImage[0].length;
-        P_result = new float[M_width][M_height];
-        processQuality();
-
-        Point currentPoint = new Point(M_width / 2, M_height / 2);
-        setValue(P_phaseImage[currentPoint.x][currentPoint.y],
-                  currentPoint);
-
-        ImagePlus steps = null;
-        if (P_showProgress) steps = new ImagePlus("Partial Result");
-
-        mainLoop(steps, currentPoint);
+        int width = P_phaseImage.length;
+        int height = P_phaseImage[0].length;
+        // Every pixel of NoneQuality is the same, so its zeros aren't needed
+        float[] quality = P_quality instanceof NoneQuality
+            ? null : ArrayOps.flatten(P_quality.getResult());
+        float[] result = unwrap(P_status, ArrayOps.flatten(P_phaseImage),
+            width, height, quality, P_showProgress, P_phaseValue, P_frontier,
+            ArrayOps.flatten(P_mask), P_fillValue);
+        P_result = ArrayOps.unflatten(result, width, height);
+    }
+    // Unwrap row-major pixels.  This is shared with FlatQualityUnwrappingOp.
+    // quality may be null if every pixel has the same quality.
+    static float[] unwrap(StatusService status, float[] phase, int width,
+                          int height, float[] quality, boolean showProgress,
+                          float phaseValue, Frontier frontier, boolean[] mask,
+                          float fillValue)
+    {
+        float[] result = new float[width * height];
+        QualityUnwrapper unwrapper
+            = new QualityUnwrapper(width, height, phaseValue, frontier);
+        ImagePlus steps = showProgress ? new ImagePlus("Partial Result")
+                                       : null;
+        unwrapper.setMask(mask, fillValue);
+        unwrapper.setProgress((done, total) -> {
+            status.showProgress(done, total);
+            if (steps != null) {
+                steps.setProcessor(new FloatProcessor(width, height, result));
+                steps.show();
+            }
+        });
+        unwrapper.unwrap(phase, quality, result);
 
         if (steps != null) {
             steps.changes = false;
             steps.close();
         }
-    }
-    private void setValue(float value, Point point)
-    {
-        P_result[point.x][point.y] = value;
-        M_donePoints.add(point);
-        addOutsidePoints(point);
-    }
-    // The main loop does these things, in this order:
-    //  - Show progress if needed
-    //  - Get point of highest quality
-    //  - Unwrap that pixel
-    //  - Set the pixel value and update state
-    private void mainLoop(ImagePlus steps, Point currentPoint)
-    {
-        while (M_donePoints.size() < M_width * M_height) {
-            // Show progress if needed
-            if (M_donePoints.size() % 50000 == 0) {
-                P_status.showProgress(M_donePoints.size(), M_width*M_height);
-                if (P_showProgress) {
-                    steps.setProcessor(new FloatProcessor(P_result));
-                    steps.show();
-                }
-            }
-            // Get point of highest quality
-            QPoint newPoint = M_outsidePoints.pollLast();
-            assert newPoint != null;
-            // Unwrap that pixel
-            currentPoint = newPoint.p;
-            Point fromPoint = newPoint.pFrom;
-            assert fromPoint != null;
-            float currentVal = P_phaseImage[currentPoint.x][currentPoint.y];
-            float fromVal = P_result[fromPoint.x][fromPoint.y];
-            if (currentVal != fromVal) {
-                fromVal -= currentVal;
-                fromVal /= P_phaseValue;
-                fromVal = Math.round(fromVal);
-                fromVal *= P_phaseValue;
-                currentVal += fromVal;
-            }
-            // Set the pixel value and update state
-            setValue(currentVal, currentPoint);
-        }
-    }
-    // Set the values of M_quality based on P_quality
-    private void processQuality()
-    {
-        M_quality = new QPoint[P_phaseImage.length][P_phaseImage[0].length];
-        float[][] quality = P_quality.getResult();
-        for (int x = 0; x < M_quality.length; ++x) {
-            for (int y = 0; y < M_quality[0].length; ++y) {
-                M_quality[x][y] = new QPoint();
-                M_quality[x][y].p.x = x;
-                M_quality[x][y].p.y = y;
-                M_quality[x][y].value = quality[x][y];
-            }
-        }
-    }
-    // Add all of the points orthogonally adjacent to p to M_outsidePoints
-    // This function just determines which points need to be added, and then
-    // passes them to maybeAddPoint
-    private void addOutsidePoints(Point p)
-    {
-        Point newPoint = new Point();
-        if (p.x > 0) {
-            newPoint.x = p.x - 1;
-            newPoint.y = p.y;
-            maybeAddPoint(newPoint, p);
-        }
-        if (p.y > 0) {
-            newPoint.x = p.x;
-            newPoint.y = p.y - 1;
-            maybeAddPoint(newPoint, p);
-        }
-        if (p.x < M_width - 1) {
-            newPoint.x = p.x + 1;
-            newPoint.y = p.y;
-            maybeAddPoint(newPoint, p);
-        }
-        if (p.y < M_height - 1) {
-            newPoint.x = p.x;
-            newPoint.y = p.y + 1;
-            maybeAddPoint(newPoint, p);
-        }
-    }
-    // Add this point, unless it has already been added.
-    private void maybeAddPoint(Point p, Point pFrom)
-    {
-        // If it hasn't already been unwrapped
-        if (!M_donePoints.contains(p)) {
-            QPoint qp = M_quality[p.x][p.y];
-            // If it hasn't been added already
-            if (qp.pFrom == null) {
-                qp.pFrom = pFrom;
-                M_outsidePoints.add(qp);
-            }
-            // If it has been added already, figure out which from point has the
-            // best quality.
-            else {
-                QPoint oldQpFrom = M_quality[qp.pFrom.x][qp.pFrom.y];
-                QPoint newQpFrom = M_quality[pFrom.x][pFrom.y];
-                if (newQpFrom.value > oldQpFrom.value) {
-                    qp.pFrom = pFrom;
-                }
-            }
-        }
+        return result;
     }
 }
@@ -19,13 +19,27 @@
 
 package edu.pdx.imagej.phase_unwrapping;
 
-import ij.IJ;
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
 import ij.ImagePlus;
 import ij.ImageStack;
 import ij.process.ImageProcessor;
 import ij.process.FloatProcessor;
 
 import org.scijava.ItemIO;
+import org.scijava.app.StatusService;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 import net.imagej.ops.AbstractOp;
@@ -52,14 +66,137 @@ import net.imagej.ops.OpService;
  *                       phase image to be unwrapped.
  *     <li>Output type: An {@link OutputType} saying what type of image the
  *                      output should be.
+ *     <li>Frontier (optional): The {@link QualityUnwrappingOp.Frontier} to use
+ *                              when unwrapping each slice.
+ *     <li>Tile size (optional): If positive, each slice is split into tiles of
+ *                               this size that are unwrapped in parallel using
+ *                               {@link TiledQualityUnwrappingOp}.
+ *     <li>Algorithm (optional): The {@link Algorithm} used to unwrap each
+ *                               slice.  It defaults to
+ *                               {@link Algorithm#QualityGuided}.
+ *     <li>Congruent (optional): Whether or not the least squares algorithms
+ *                               should make their results congruent to the
+ *                               phase image.  It defaults to false.
+ *     <li>Mask (optional): A {@link Mask} saying which pixels of each slice
+ *                          should be unwrapped.  If it is null, every pixel is
+ *                          unwrapped.  Pixels outside of the mask are skipped
+ *                          entirely by the quality-guided and reliability
+ *                          algorithms, while the others unwrap them anyway.
+ *     <li>Fill value (optional): The value given to every pixel that is not
+ *                                in the mask.  It defaults to NaN.
+ *     <li>Parallel slices (optional): The number of slices to unwrap at the
+ *                                     same time.  If it is zero or less, it is
+ *                                     the number of processors.  It defaults
+ *                                     to one.
+ *     <li>Volume (optional): A {@link Volume} saying whether the slices are
+ *                            unwrapped separately or together as volumes.  It
+ *                            defaults to {@link Volume#None}.
+ *     <li>Output directory (optional): A <code>File</code> with the directory
+ *                                      that the result is streamed to.  If it
+ *                                      is null, the result is kept in memory.
+ *     <li>Output format (optional): The {@link StreamedStack.Format} that the
+ *                                   result is written in when there is an
+ *                                   output directory.  It defaults to
+ *                                   {@link StreamedStack.Format#Raw}.
+ *     <li>Replay order (optional): Whether slices that share a quality slice
+ *                                  replay the order of the first one, as
+ *                                  described below.  It defaults to true.
  * </ol>
  * The result is an <code>ImagePlus</code> with all unwrapped phase images.
+ * <p>
+ * When more than one slice is unwrapped at a time, they are handed out to a
+ * work-stealing pool with the given number of threads, and every thread gets
+ * its own copy of the quality using {@link Quality#duplicate}.  If the quality
+ * can't be duplicated, the slices are unwrapped one at a time anyway.  The
+ * result is the same as unwrapping them one at a time, except that the
+ * weighted least squares algorithm doesn't start from the previous slice, and
+ * the progress shown is the number of slices that are done.
+ * <p>
+ * When the slices are unwrapped one at a time and the quality can be
+ * duplicated, reading each slice and calculating its quality is done on one
+ * thread and converting each result on another, so that the next slice is
+ * ready and the last one is being converted while the current one is being
+ * unwrapped.  The stages are never more than a couple of slices apart, and the
+ * buffers the slices are read into are reused.  The result is exactly the same
+ * as doing every step in order.
+ * <p>
+ * The pixels of 32-bit slices are used directly without being copied, and the
+ * quality is calculated with
+ * {@link Quality#calculate(float[], int, int, int, int)}.  The quality-guided
+ * algorithm without tiles and the reliability algorithm are run with
+ * {@link FlatQualityUnwrappingOp} and {@link FlatReliabilityUnwrappingOp}, and
+ * their results become the pixels of the output slices, so for these no
+ * pixels are copied at all.  The other algorithms still need a
+ * <code>float[][]</code>.
+ * <p>
+ * The phase image may be a virtual stack, such as a {@link MappedStack} of a
+ * file larger than memory.  Slices are only read when they are about to be
+ * unwrapped, so when the slices are unwrapped separately only a few of them
+ * are on the heap at once besides the result.  With an output directory, the
+ * result is a {@link StreamedStack} instead, and every slice is written to
+ * disk as soon as it is done, so that not even the result is kept in memory.
+ * <p>
+ * When the stack is unwrapped as volumes, every volume is unwrapped in one pass
+ * by {@link VolumeQualityUnwrappingOp}, so the slices of a volume don't need to
+ * be lined up with each other afterwards.  Only the quality-guided algorithm
+ * can do this, and the tile size and parallel slices are not used.  If the
+ * quality is a {@link VolumeQuality}, it is calculated for the whole volume;
+ * otherwise it is calculated for every slice, the same as usual.  The mask is
+ * always calculated for every slice.
+ * <p>
+ * The order that the quality-guided algorithm unwraps pixels in only depends on
+ * the quality and the mask, so when the quality has fewer slices than the
+ * phase image and the same quality slice is used for many phase slices, that
+ * order is recorded the first time the quality slice is used.  Every other
+ * phase slice that uses it just goes through its pixels in the same order,
+ * unwrapping each one from the same neighbor, without any frontier at all.  The
+ * result is exactly the same, but is much faster.  This is only done for the
+ * quality-guided algorithm without tiles, and the progress of the replayed
+ * slices' pixels is not shown.  Each thread records the order once, and it
+ * takes five bytes per pixel.
+ * <p>
+ * With {@link NoneQuality}, the quality-guided algorithm without tiles, a mask
+ * or volumes never calculates the quality's map of zeros at all, and unwraps
+ * every slice with the flood fill described in {@link QualityUnwrappingOp}.
  */
 @Plugin(type = Op.class, name = "Quality Guided Phase Unwrapping")
 public class QualityUnwrappingStackOp extends AbstractOp {
     public enum OutputType {Type8Bit, Type32Bit, Type32BitRadians};
+    /** Algorithm determines which Op is used to unwrap each slice. */
+    public enum Algorithm {
+        /** Use {@link QualityUnwrappingOp}, or
+         * {@link TiledQualityUnwrappingOp} if there is a tile size.
+         */
+        QualityGuided,
+        /** Use {@link ReliabilityUnwrappingOp}. */
+        ReliabilityGuided,
+        /** Use {@link GoldsteinUnwrappingOp}.  The quality is not used, and is
+         * never calculated.
+         */
+        BranchCut,
+        /** Use {@link LeastSquaresUnwrappingOp}.  The quality is not used, and
+         * is never calculated.
+         */
+        LeastSquares,
+        /** Use {@link WeightedLeastSquaresUnwrappingOp}, with the quality as
+         * the weights.  Every slice after the first starts the solver from the
+         * result of the slice before it.
+         */
+        WeightedLeastSquares
+    };
+    /** Volume determines which slices of a hyperstack are unwrapped together.
+     */
+    public enum Volume {
+        /** Unwrap every slice separately. */
+        None,
+        /** Unwrap all of the z slices of every frame together. */
+        Z,
+        /** Unwrap all of the frames of every z slice together. */
+        Time
+    };
 
     @Parameter private OpService P_ops;
+    @Parameter private StatusService P_status;
     // Inputs
     @Parameter private ImagePlus  P_phaseImage;
     @Parameter private Quality    P_quality;
@@ -67,92 +204,564 @@ public class QualityUnwrappingStackOp extends AbstractOp {
     @Parameter private float      P_phaseValue;
     @Parameter private boolean    P_singleFrame;
     @Parameter private OutputType P_outputType;
+    @Parameter(required = false)
+    private QualityUnwrappingOp.Frontier P_frontier
+        = QualityUnwrappingOp.Frontier.Exact;
+    @Parameter(required = false) private int P_tileSize = 0;
+    @Parameter(required = false)
+    private Algorithm P_algorithm = Algorithm.QualityGuided;
+    @Parameter(required = false) private boolean P_congruent = false;
+    @Parameter(required = false) private Mask P_mask;
+    @Parameter(required = false) private float P_fillValue = Float.NaN;
+    @Parameter(required = false) private int P_parallelSlices = 1;
+    @Parameter(required = false) private Volume P_volume = Volume.None;
+    @Parameter(required = false) private File P_outputDirectory;
+    @Parameter(required = false)
+    private StreamedStack.Format P_outputFormat = StreamedStack.Format.Raw;
+    @Parameter(required = false) private boolean P_replayOrder = true;
     // Outputs
     @Parameter(type = ItemIO.OUTPUT) ImagePlus P_result;
 
     @Override
     public void run()
     {
+        if (P_volume != Volume.None
+                && P_algorithm != Algorithm.QualityGuided) {
+            throw new IllegalArgumentException("Only the quality guided "
+                + "algorithm can unwrap volumes.");
+        }
         P_quality.setPhaseValue(P_phaseValue);
+        M_previous = null;
         if (P_singleFrame) calculateSingle();
+        else if (P_volume != Volume.None) calculateVolumes();
         else calculateStack();
         P_result.copyScale(P_phaseImage);
     }
     private void calculateSingle()
     {
-        float[][] image = P_phaseImage.getProcessor().getFloatArray();
-        P_quality.calculate(image, 1, 1);
-        float[][] result = (float[][])P_ops.run(
-            "Quality Guided Phase Unwrapping",
-            image, P_quality, P_showProgress, P_phaseValue);
-        P_result = new ImagePlus("Result", convertResult(result));
+        ImageProcessor processor = P_phaseImage.getProcessor();
+        int width = processor.getWidth();
+        int height = processor.getHeight();
+        float[] image = ArrayOps.pixels(processor);
+        float[] quality = usesQuality() && !skipsQuality()
+            ? P_quality.calculate(image, width, height, 1, 1) : null;
+        float[] result = unwrap(image, quality, width, height, true);
+        ImageStack stack = newStack("Result", width, height, 1);
+        stack.setProcessor(convertResult(result, width, height), 1);
+        P_result = new ImagePlus("Result", stack);
     }
     private void calculateStack()
+    {
+        int parallelism = P_parallelSlices > 0
+            ? P_parallelSlices : Runtime.getRuntime().availableProcessors();
+        // This worker is used for the first slice if the quality can be
+        // duplicated
+        SliceWorker first = new SliceWorker();
+        if (!usesQuality() || first.canRun()) {
+            if (parallelism > 1) calculateStackParallel(parallelism, first);
+            else calculateStackPipelined(first);
+            return;
+        }
+        // The quality can't be duplicated, so everything is done in order on
+        // this thread
+        int ts = P_phaseImage.getNFrames();
+        int zs = P_phaseImage.getNSlices();
+        int width = P_phaseImage.getWidth();
+        int height = P_phaseImage.getHeight();
+
+        String label = P_phaseImage.getTitle() + ", unwrapped";
+        ImageStack result = newStack(label, width, height, ts * zs);
+        SliceWorker worker = new SliceWorker(P_quality);
+        for (int t = 1; t <= ts; ++t) {
+            for (int z = 1; z <= zs; ++z) {
+                worker.load(t, z);
+                float[] thisResult = worker.unwrap(width, height, true);
+                setSlice(result, t, z,
+                         convertResult(thisResult, width, height));
+            }
+        }
+        P_result = StreamedStack.hyperstack(label, result, zs, ts);
+    }
+    // Unwrap every slice on a pool of parallelism threads.  The slices are
+    // handed out by work stealing, and each one is put in its place in the
+    // result as soon as it is done.  The first worker is already made.
+    private void calculateStackParallel(int parallelism, SliceWorker first)
     {
         int ts = P_phaseImage.getNFrames();
         int zs = P_phaseImage.getNSlices();
         int width = P_phaseImage.getProcessor().getWidth();
         int height = P_phaseImage.getProcessor().getHeight();
+        int count = ts * zs;
 
-        ImageStack result = new ImageStack(width, height);
-        ImagePlus P_qualityImg = null;
-
-        int qTs = P_quality.getTs();
-        int qZs = P_quality.getZs();
-        if (qTs == 0) qTs = ts;
-        if (qZs == 0) qZs = zs;
-        if (qTs != ts && qZs != zs) {
-            float[][] image = P_phaseImage.getProcessor().getFloatArray();
-            P_quality.calculate(image, 1, 1);
+        String label = P_phaseImage.getTitle() + ", unwrapped";
+        ImageStack stack = newStack(label, width, height, count);
+        ConcurrentLinkedQueue<SliceWorker> workers
+            = new ConcurrentLinkedQueue<>();
+        workers.add(first);
+        AtomicInteger done = new AtomicInteger();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        IntStream slices = IntStream.range(0, count).parallel();
+        try {
+            pool.submit(() -> slices.forEach(i -> {
+                int t = i / zs + 1;
+                int z = i % zs + 1;
+                // Normally there is a free worker, but a thread waiting on the
+                // tasks of an op can steal another slice, so make a new one if
+                // they are all taken
+                SliceWorker worker = workers.poll();
+                if (worker == null) worker = new SliceWorker();
+                worker.load(t, z);
+                float[] result = worker.unwrap(width, height, false);
+                setSlice(stack, i / zs + 1, i % zs + 1,
+                         convertResult(result, width, height));
+                workers.add(worker);
+                int finished = done.incrementAndGet();
+                if (P_showProgress) P_status.showProgress(finished, count);
+            })).get();
         }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        catch (ExecutionException e) {
+            throw rethrow(e);
+        }
+        finally {
+            pool.shutdown();
+        }
+        P_result = StreamedStack.hyperstack(label, stack, zs, ts);
+    }
+    // Unwrap every slice one at a time on this thread, while one other thread
+    // reads the slices and calculates their qualities ahead of it and another
+    // converts the results behind it.  Each stage hands its slices to the next
+    // through a bounded queue, and the workers are handed back to the first
+    // stage once their slice has been unwrapped so that their buffers and
+    // qualities are reused.  The first worker is already made.
+    private void calculateStackPipelined(SliceWorker first)
+    {
+        int ts = P_phaseImage.getNFrames();
+        int zs = P_phaseImage.getNSlices();
+        int width = P_phaseImage.getProcessor().getWidth();
+        int height = P_phaseImage.getProcessor().getHeight();
+        int count = ts * zs;
 
-        for (int t = 1; t <= ts; ++t) {
-            if (qTs == ts && qZs != zs) calculateQuality(t, 1);
-            for (int z = 1; z <= zs; ++z) {
-                if (qZs == zs) calculateQuality(qTs == ts ? t : 1, z);
-
-                float[][] image = getPhaseImage(t, z);
-                float[][] thisResult = (float[][])P_ops.run(
-                    "Quality Guided Phase Unwrapping",
-                    image, P_quality, P_showProgress, P_phaseValue);
-                String label = P_phaseImage.getStack()
-                    .getSliceLabel(P_phaseImage.getStackIndex(1, z, t))
-                    + ", unwrapped";
-                result.addSlice(label, convertResult(thisResult));
+        BlockingQueue<SliceWorker> free
+            = new ArrayBlockingQueue<>(PIPELINE_DEPTH);
+        BlockingQueue<SliceWorker> loaded
+            = new ArrayBlockingQueue<>(PIPELINE_DEPTH);
+        BlockingQueue<float[]> unwrapped
+            = new ArrayBlockingQueue<>(PIPELINE_DEPTH);
+        free.add(first);
+        for (int i = 1; i < PIPELINE_DEPTH; ++i) free.add(new SliceWorker());
+        String label = P_phaseImage.getTitle() + ", unwrapped";
+        ImageStack stack = newStack(label, width, height, count);
+        ExecutorService stages = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> load = stages.submit(() -> {
+                for (int i = 0; i < count; ++i) {
+                    SliceWorker worker = free.take();
+                    worker.load(i / zs + 1, i % zs + 1);
+                    loaded.put(worker);
+                }
+                return null;
+            });
+            Future<?> convert = stages.submit(() -> {
+                for (int i = 0; i < count; ++i) {
+                    float[] result = unwrapped.take();
+                    setSlice(stack, i / zs + 1, i % zs + 1,
+                             convertResult(result, width, height));
+                }
+                return null;
+            });
+            for (int i = 0; i < count; ++i) {
+                SliceWorker worker = take(loaded, load);
+                float[] result = worker.unwrap(width, height, true);
+                free.put(worker);
+                put(unwrapped, result, convert);
             }
+            convert.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
         }
+        catch (ExecutionException e) {
+            throw rethrow(e);
+        }
+        finally {
+            // Interrupt any stage that is still waiting because another one
+            // failed
+            stages.shutdownNow();
+        }
+        P_result = StreamedStack.hyperstack(label, stack, zs, ts);
+    }
+    // Unwrap each volume in one pass.  The phase volume is reused for every
+    // volume, and is unwrapped in place.
+    private void calculateVolumes()
+    {
+        int ts = P_phaseImage.getNFrames();
+        int zs = P_phaseImage.getNSlices();
+        int width = P_phaseImage.getProcessor().getWidth();
+        int height = P_phaseImage.getProcessor().getHeight();
+        boolean alongZ = P_volume == Volume.Z;
+        int volumes = alongZ ? ts : zs;
+        int depth = alongZ ? zs : ts;
+        int slice = width * height;
+        if ((long)slice * depth > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("The volumes are too large to "
+                + "be unwrapped at once.");
+        }
+
         String label = P_phaseImage.getTitle() + ", unwrapped";
-        P_result = IJ.createHyperStack(label, width, height, 1, zs, ts, 32);
-        P_result.setStack(result);
+        ImageStack stack = newStack(label, width, height, ts * zs);
+        SliceWorker worker = new SliceWorker(P_quality);
+        boolean wholeVolume = P_quality instanceof VolumeQuality;
+        float[] phase = new float[slice * depth];
+        float[] quality = wholeVolume ? null : new float[slice * depth];
+        boolean[] mask = P_mask == null ? null : new boolean[slice * depth];
+        for (int v = 1; v <= volumes; ++v) {
+            for (int d = 1; d <= depth; ++d) {
+                int t = alongZ ? v : d;
+                int z = alongZ ? d : v;
+                if (wholeVolume) worker.read(t, z);
+                else {
+                    worker.load(t, z);
+                    System.arraycopy(worker.M_qualityPixels, 0, quality,
+                                     (d - 1) * slice, slice);
+                }
+                System.arraycopy(worker.M_pixels, 0, phase, (d - 1) * slice,
+                                 slice);
+            }
+            if (wholeVolume) {
+                quality = ((VolumeQuality)P_quality)
+                    .calculateVolume(phase, width, height, depth);
+            }
+            boolean anyMasked = false;
+            for (int d = 0; mask != null && d < depth; ++d) {
+                float[][] sliceQuality
+                    = ArrayOps.unflatten(quality, d * slice, width, height);
+                boolean[][] sliceMask
+                    = P_mask.calculate(width, height, sliceQuality);
+                for (int y = 0; y < height; ++y) {
+                    for (int x = 0; x < width; ++x) {
+                        boolean in = sliceMask == null || sliceMask[x][y];
+                        mask[d * slice + y * width + x] = in;
+                        anyMasked |= !in;
+                    }
+                }
+            }
+            P_ops.run("Volume Quality Guided Phase Unwrapping", phase, width,
+                height, depth, quality, P_showProgress, P_phaseValue,
+                P_frontier, anyMasked ? mask : null, P_fillValue, true);
+            for (int d = 1; d <= depth; ++d) {
+                int t = alongZ ? v : d;
+                int z = alongZ ? d : v;
+                float[] result = Arrays.copyOfRange(phase, (d - 1) * slice,
+                                                    d * slice);
+                setSlice(stack, t, z, convertResult(result, width, height));
+            }
+        }
+        P_result = StreamedStack.hyperstack(label, stack, zs, ts);
+    }
+    // Take the next item from a queue that stage puts items in, giving up if
+    // stage stops before putting it there
+    private static <T> T take(BlockingQueue<T> queue, Future<?> stage)
+        throws InterruptedException, ExecutionException
+    {
+        while (true) {
+            T item = queue.poll(STAGE_POLL_MS, TimeUnit.MILLISECONDS);
+            if (item != null) return item;
+            if (stage.isDone()) {
+                stage.get();
+                throw new IllegalStateException("A stage stopped early.");
+            }
+        }
+    }
+    // Put an item in a queue that stage takes items from, giving up if stage
+    // stops before taking it
+    private static <T> void put(BlockingQueue<T> queue, T item,
+                                Future<?> stage)
+        throws InterruptedException, ExecutionException
+    {
+        while (!queue.offer(item, STAGE_POLL_MS, TimeUnit.MILLISECONDS)) {
+            if (stage.isDone()) {
+                stage.get();
+                throw new IllegalStateException("A stage stopped early.");
+            }
+        }
+    }
+    private static RuntimeException rethrow(ExecutionException e)
+    {
+        if (e.getCause() instanceof RuntimeException) {
+            return (RuntimeException)e.getCause();
+        }
+        return new RuntimeException(e.getCause());
+    }
+    // Make the stack that the results go in, which is streamed to the output
+    // directory if there is one
+    private ImageStack newStack(String label, int width, int height, int size)
+    {
+        return StreamedStack.make(P_outputDirectory, P_outputFormat, label,
+            width, height, size,
+            P_outputType == OutputType.Type8Bit ? 8 : 32);
+    }
+    // Put the result of slice (t, z) in its place in the result stack
+    private void setSlice(ImageStack stack, int t, int z,
+                          ImageProcessor result)
+    {
+        int index = (t - 1) * P_phaseImage.getNSlices() + z;
+        stack.setProcessor(result, index);
+        stack.setSliceLabel(P_phaseImage.getStack()
+            .getSliceLabel(P_phaseImage.getStackIndex(1, z, t))
+            + ", unwrapped", index);
+    }
+    // Unwrap the row-major pixels of one slice, using the quality, which is
+    // null if the algorithm doesn't use it.  When sequential is false, other
+    // slices are being unwrapped at the same time, so the progress of each one
+    // isn't shown, and nothing can be carried over from the previous slice.
+    private float[] unwrap(float[] image, float[] quality, int width,
+                           int height, boolean sequential)
+    {
+        boolean showProgress = sequential && P_showProgress;
+        float[][] quality2d = quality == null
+            ? null : ArrayOps.unflatten(quality, width, height);
+        boolean[][] mask2d = P_mask == null
+            ? null : P_mask.calculate(width, height, quality2d);
+        boolean[] mask = ArrayOps.flatten(mask2d);
+        if (P_algorithm == Algorithm.ReliabilityGuided) {
+            return (float[])P_ops.run("Reliability Guided Phase Unwrapping",
+                image, width, height, quality, showProgress, P_phaseValue, mask,
+                P_fillValue);
+        }
+        if (P_algorithm == Algorithm.QualityGuided && P_tileSize <= 0) {
+            if (quality == null) {
+                return QualityUnwrappingOp.unwrap(P_status, image, width,
+                    height, null, showProgress, P_phaseValue, P_frontier,
+                    mask, P_fillValue);
+            }
+            return (float[])P_ops.run("Quality Guided Phase Unwrapping",
+                image, width, height, quality, showProgress, P_phaseValue,
+                P_frontier, mask, P_fillValue);
+        }
+        // The rest of the ops only work on float[][]s
+        float[][] image2d = ArrayOps.unflatten(image, width, height);
+        Quality sliceQuality
+            = quality == null ? null : new ResultQuality(quality2d);
+        if (P_algorithm == Algorithm.QualityGuided) {
+            return ArrayOps.flatten((float[][])P_ops.run(
+                "Quality Guided Phase Unwrapping", image2d, sliceQuality,
+                showProgress, P_phaseValue, P_tileSize, P_frontier, mask2d,
+                P_fillValue));
+        }
+        // The other algorithms unwrap everything, so the mask is only used to
+        // fill in the result afterwards
+        float[] result
+            = ArrayOps.flatten(unwrapAll(image2d, sliceQuality, sequential));
+        if (mask != null) {
+            for (int i = 0; i < result.length; ++i) {
+                if (!mask[i]) result[i] = P_fillValue;
+            }
+        }
+        return result;
+    }
+    private float[][] unwrapAll(float[][] image, Quality quality,
+                                boolean sequential)
+    {
+        if (P_algorithm == Algorithm.BranchCut) {
+            return (float[][])P_ops.run("Goldstein Phase Unwrapping",
+                image, P_phaseValue);
+        }
+        if (P_algorithm == Algorithm.LeastSquares) {
+            return (float[][])P_ops.run("Least Squares Phase Unwrapping",
+                image, P_phaseValue, P_congruent);
+        }
+        // Weighted least squares
+        float[][] result = (float[][])P_ops.run(
+            "Weighted Least Squares Phase Unwrapping",
+            image, quality, sequential && P_showProgress, P_phaseValue,
+            WeightedLeastSquaresUnwrappingOp.DEFAULT_TOLERANCE,
+            WeightedLeastSquaresUnwrappingOp.DEFAULT_MAX_ITERATIONS,
+            sequential ? M_previous : null, P_congruent);
+        if (sequential) M_previous = result;
+        return result;
+    }
+    private boolean usesQuality()
+    {
+        return P_algorithm != Algorithm.BranchCut
+            && P_algorithm != Algorithm.LeastSquares;
     }
-    private void calculateQuality(int t, int z)
+    // Whether the quality is NoneQuality and nothing needs its map of zeros,
+    // so that the quality-guided algorithm can flood fill without it
+    private boolean skipsQuality()
     {
-        P_quality.calculate(getPhaseImage(t, z), t, z);
+        return P_quality instanceof NoneQuality
+            && P_algorithm == Algorithm.QualityGuided && P_tileSize <= 0
+            && P_mask == null && P_volume == Volume.None;
     }
-    private float[][] getPhaseImage(int t, int z)
+    private ImageProcessor getSlice(int t, int z)
     {
-        int slice = P_phaseImage.getStackIndex(1, z, t);
         return P_phaseImage.getStack()
-                            .getProcessor(slice)
-                            .getFloatArray();
+                           .getProcessor(P_phaseImage.getStackIndex(1, z, t));
     }
 
-    private ImageProcessor convertResult(float[][] image)
+    // Convert the row-major pixels of a result into the output type.  The
+    // pixels are used by the new processor directly, and may be changed.
+    private ImageProcessor convertResult(float[] image, int width, int height)
     {
         if (P_outputType == OutputType.Type8Bit) {
-            return new FloatProcessor(image).convertToByteProcessor();
+            return new FloatProcessor(width, height, image)
+                .convertToByteProcessor();
         }
         else if (P_outputType == OutputType.Type32Bit) {
-            return new FloatProcessor(image);
+            return new FloatProcessor(width, height, image);
         }
         else { // 32-bit radians
-            for (int x = 0; x < image.length; ++x) {
-                for (int y = 0; y < image[0].length; ++y) {
-                    image[x][y] /= P_phaseValue;
-                    image[x][y] *= Math.PI * 2;
-                }
+            for (int i = 0; i < image.length; ++i) {
+                image[i] /= P_phaseValue;
+                image[i] *= Math.PI * 2;
             }
-            return new FloatProcessor(image);
+            return new FloatProcessor(width, height, image);
         }
     }
+
+    // A SliceWorker holds its own copy of the quality, so that several slices
+    // can be worked on at once.  The pixels of 32-bit slices are used directly,
+    // and other slices are converted into a buffer that is reused.  It
+    // remembers which quality slice it has calculated, so that slices that
+    // share a quality slice don't calculate it again, along with the order
+    // that the quality-guided algorithm unwrapped the last slice in.
+    private class SliceWorker {
+        SliceWorker()
+        {
+            this(usesQuality() ? P_quality.duplicate() : null);
+            M_duplicated = true;
+        }
+        // Use quality directly instead of a duplicate of it.  Its result could
+        // be the phase image it was given, so the buffer is never reused.
+        SliceWorker(Quality quality)
+        {
+            M_quality = quality;
+            if (M_quality != null) M_quality.setPhaseValue(P_phaseValue);
+        }
+        // Whether or not the quality could be duplicated
+        boolean canRun() {return M_quality != null;}
+        // Get the pixels of the phase slice (t, z) and calculate its quality
+        void load(int t, int z)
+        {
+            read(t, z);
+            calculateQuality(t, z);
+        }
+        // Get the pixels of the phase slice (t, z)
+        void read(int t, int z)
+        {
+            ImageProcessor slice = getSlice(t, z);
+            if (slice instanceof FloatProcessor) {
+                M_pixels = ArrayOps.pixels(slice);
+            }
+            else {
+                M_buffer = ArrayOps.pixels(slice,
+                                           M_duplicated ? M_buffer : null);
+                M_pixels = M_buffer;
+            }
+        }
+        // Calculate the quality for the phase slice (t, z), choosing the
+        // quality slice based on how many slices the quality has
+        void calculateQuality(int t, int z)
+        {
+            if (M_quality == null || skipsQuality()) return;
+            int ts = P_phaseImage.getNFrames();
+            int zs = P_phaseImage.getNSlices();
+            int qTs = P_quality.getTs();
+            int qZs = P_quality.getZs();
+            if (qTs == 0) qTs = ts;
+            if (qZs == 0) qZs = zs;
+            int qualityT;
+            int qualityZ;
+            if (qZs == zs) {
+                qualityT = qTs == ts ? t : 1;
+                qualityZ = z;
+            }
+            else if (qTs == ts) {
+                qualityT = t;
+                qualityZ = 1;
+            }
+            else {
+                // The same quality is used for everything
+                qualityT = 0;
+                qualityZ = 0;
+            }
+            if (qualityT == M_t && qualityZ == M_z) return;
+            M_order = null;
+            M_shared = qTs != ts || qZs != zs;
+            int width = P_phaseImage.getWidth();
+            int height = P_phaseImage.getHeight();
+            if (qualityT == 0) {
+                float[] image = ArrayOps.pixels(P_phaseImage.getProcessor());
+                M_qualityPixels = M_quality.calculate(image, width, height,
+                                                      1, 1);
+            }
+            else if (qualityT == t && qualityZ == z) {
+                M_qualityPixels = M_quality.calculate(M_pixels, width, height,
+                                                      t, z);
+            }
+            else {
+                float[] image = ArrayOps.pixels(getSlice(qualityT, qualityZ));
+                M_qualityPixels = M_quality.calculate(image, width, height,
+                                                      qualityT, qualityZ);
+            }
+            M_t = qualityT;
+            M_z = qualityZ;
+        }
+        // Unwrap the current slice.  If its quality slice is shared with other
+        // phase slices, the order is recorded the first time and replayed
+        // after that.
+        float[] unwrap(int width, int height, boolean sequential)
+        {
+            if (!M_shared || !P_replayOrder
+                    || P_algorithm != Algorithm.QualityGuided
+                    || P_tileSize > 0) {
+                return QualityUnwrappingStackOp.this.unwrap(M_pixels,
+                    M_qualityPixels, width, height, sequential);
+            }
+            float[] result = new float[width * height];
+            if (M_order != null) {
+                M_order.replay(M_pixels, result);
+                return result;
+            }
+            boolean[] mask = P_mask == null ? null : ArrayOps.flatten(
+                P_mask.calculate(width, height,
+                    ArrayOps.unflatten(M_qualityPixels, width, height)));
+            QualityUnwrapper unwrapper = new QualityUnwrapper(width, height,
+                P_phaseValue, P_frontier);
+            unwrapper.setMask(mask, P_fillValue);
+            if (sequential && P_showProgress) {
+                unwrapper.setProgress(
+                    (done, total) -> P_status.showProgress(done, total));
+            }
+            M_order = unwrapper.record(M_pixels, M_qualityPixels, result);
+            return result;
+        }
+
+        final Quality M_quality;
+        // The pixels of the current phase slice and its quality
+        float[] M_pixels;
+        float[] M_qualityPixels;
+        private float[] M_buffer;
+        private boolean M_duplicated;
+        private int M_t = -1;
+        private int M_z = -1;
+        // Whether the quality slice is used for more than one phase slice, and
+        // the order it was unwrapped in, if it has been yet
+        private boolean M_shared;
+        private UnwrapOrder M_order;
+    }
+
+    // The last result of the weighted least squares algorithm, used to start
+    // the solver for the next slice
+    private float[][] M_previous;
+
+    // How many slices each stage of the pipeline can get ahead of the next
+    private static final int PIPELINE_DEPTH = 2;
+    // How often a stage waiting on another checks whether it has failed
+    private static final long STAGE_POLL_MS = 100;
 }
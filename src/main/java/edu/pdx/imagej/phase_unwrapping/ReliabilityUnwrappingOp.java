@@ -0,0 +1,178 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import org.scijava.ItemIO;
+import org.scijava.app.StatusService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import net.imagej.ops.AbstractOp;
+import net.imagej.ops.Op;
+
+/** ReliabilityUnwrappingOp is an Op that calculates single wavelength phase
+ * unwrapping by sorting the edges between pixels by their reliability, in the
+ * style of Herráez et al.
+ * <p>
+ * To run this op yourself, it has the name "Reliability Guided Phase
+ * Unwrapping" and has these parameters:
+ * <ol>
+ *     <li>Phase image: a <code>float[][]</code> representing the current phase
+ *                      image.
+ *     <li>Quality: A {@link Quality} <em>that has already been calculated</em>.
+ *     <li>Show progress: Whether or not you want to see the progress of the
+ *                        algorithm.
+ *     <li>Phase value: The pixel phase value for the phase image.
+ *     <li>Mask (optional): A <code>boolean[][]</code> that is true for every
+ *                          pixel that should be unwrapped.  See {@link Mask}.
+ *                          If it is null, every pixel is unwrapped.
+ *     <li>Fill value (optional): The value given to every pixel that is not
+ *                                in the mask.  It defaults to NaN.
+ * </ol>
+ * The result is a <code>float[][]</code> representing the unwrapped phase
+ * image.
+ * <p>
+ * Every pair of orthogonally adjacent pixels makes an edge, whose reliability
+ * is the sum of the qualities of its two pixels.  All of the edges are sorted
+ * once, in parallel, and then gone through from the most reliable to the least
+ * reliable.  At the start, every pixel is in its own group.  For every edge
+ * that joins two different groups, the groups are merged, with one of them
+ * shifted by however many phase values make the two pixels of the edge closest
+ * to each other.  At the end, everything is shifted so that the center pixel
+ * keeps its original value, like it does in {@link QualityUnwrappingOp}.
+ * Edges that touch a pixel outside of the mask are never used, so any region
+ * that the mask cuts off from the center is unwrapped on its own.
+ * <p>
+ * This follows the same idea as QualityUnwrappingOp, unwrapping the most
+ * reliable areas first, but instead of growing one region a pixel at a time it
+ * grows many of them at once.  It is usually much faster.
+ */
+@Plugin(type = Op.class, name = "Reliability Guided Phase Unwrapping")
+public class ReliabilityUnwrappingOp extends AbstractOp {
+    @Parameter private StatusService P_status;
+    // Inputs
+    @Parameter private float[][] P_phaseImage;
+    @Parameter private Quality   P_quality;
+    @Parameter private boolean   P_showProgress;
+    @Parameter private float     P_phaseValue;
+    @Parameter(required = false) private boolean[][] P_mask;
+    @Parameter(required = false) private float P_fillValue = Float.NaN;
+    // Outputs
+    @Parameter(type = ItemIO.OUTPUT) float[][] P_result;
+
+    @Override
+    public void run()
+    {
+        int width = P_phaseImage.length;
+        int height = P_phaseImage[0].length;
+        float[] result = unwrap(P_status, ArrayOps.flatten(P_phaseImage),
+            width, height, ArrayOps.flatten(P_quality.getResult()),
+            P_showProgress, P_phaseValue, ArrayOps.flatten(P_mask),
+            P_fillValue);
+        P_result = ArrayOps.unflatten(result, width, height);
+    }
+    // Unwrap row-major pixels.  This is shared with
+    // FlatReliabilityUnwrappingOp.
+    static float[] unwrap(StatusService status, float[] phase, int width,
+                          int height, float[] quality, boolean showProgress,
+                          float phaseValue, boolean[] mask, float fillValue)
+    {
+        long[] edges = sortEdges(quality, mask, width, height);
+        OffsetUnionFind groups = mergeEdges(edges, phase, width, phaseValue,
+                                            showProgress ? status : null);
+        edges = null;
+
+        int center = (height / 2) * width + width / 2;
+        int centerOffset = groups.offset(center);
+        int centerRoot = groups.find(center);
+        float[] result = new float[width * height];
+        for (int i = 0; i < result.length; ++i) {
+            if (mask != null && !mask[i]) {
+                result[i] = fillValue;
+                continue;
+            }
+            int offset = groups.offset(i);
+            if (groups.find(i) == centerRoot) offset -= centerOffset;
+            result[i] = phase[i] + offset * phaseValue;
+        }
+        return result;
+    }
+    // Make a key for every edge and sort them.  Edge 2 * p is between p and the
+    // pixel to its right, and edge 2 * p + 1 is between p and the pixel below
+    // it.  The high 32 bits of each key are the reliability, and the low 32
+    // bits are the edge, so sorting the keys sorts the edges by reliability.
+    // Edges that don't exist because they are on the border, or because they
+    // touch a pixel that isn't in the mask, are given the lowest possible key
+    // so that they end up at the start.  mask may be null.
+    static long[] sortEdges(float[] quality, boolean[] mask, int width,
+                            int height)
+    {
+        long[] edges = new long[2 * width * height];
+        IntStream.range(0, height).parallel().forEach(y -> {
+            for (int x = 0; x < width; ++x) {
+                int p = y * width + x;
+                boolean in = mask == null || mask[p];
+                if (in && x < width - 1 && (mask == null || mask[p + 1])) {
+                    edges[2 * p] = key(quality[p] + quality[p + 1], 2 * p);
+                }
+                else edges[2 * p] = Long.MIN_VALUE;
+                if (in && y < height - 1
+                        && (mask == null || mask[p + width])) {
+                    edges[2 * p + 1] = key(quality[p] + quality[p + width],
+                                           2 * p + 1);
+                }
+                else edges[2 * p + 1] = Long.MIN_VALUE;
+            }
+        });
+        Arrays.parallelSort(edges);
+        return edges;
+    }
+    static private long key(float reliability, int edge)
+    {
+        return ((long)PixelHeap.sortable(reliability) << 32)
+               | (edge & 0xFFFFFFFFL);
+    }
+    // Go through the edges from most to least reliable, merging the groups on
+    // either side of them.  The progress is shown if status isn't null.
+    static private OffsetUnionFind mergeEdges(long[] edges, float[] phase,
+                                              int width, float phaseValue,
+                                              StatusService status)
+    {
+        OffsetUnionFind groups = new OffsetUnionFind(phase.length);
+        int merged = 0;
+        for (int i = edges.length - 1; i >= 0; --i) {
+            if (edges[i] == Long.MIN_VALUE) break;
+            int edge = (int)edges[i];
+            int p = edge >>> 1;
+            int q = (edge & 1) == 0 ? p + 1 : p + width;
+            int k = Math.round((phase[p] - phase[q]) / phaseValue);
+            if (groups.union(p, q, k)) {
+                ++merged;
+                if (merged == phase.length - 1) break;
+                if (status != null && merged % 50000 == 0) {
+                    status.showProgress(merged, phase.length);
+                }
+            }
+        }
+        return groups;
+    }
+}
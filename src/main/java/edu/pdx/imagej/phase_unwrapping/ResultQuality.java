@@ -0,0 +1,36 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+// ResultQuality is a Quality whose result has already been calculated some
+// other way, such as with the row-major version of calculate.  It is used to
+// give that result to the ops that take a Quality.  It is not a plugin, so it
+// never shows up as a choice.
+final class ResultQuality extends AbstractQuality {
+    public ResultQuality(float[][] result) {M_result = result;}
+    @Override
+    public float[][] calculate(float[][] phaseImage, int t, int z)
+    {
+        return M_result;
+    }
+    @Override public float[][] getResult() {return M_result;}
+
+    private final float[][] M_result;
+}
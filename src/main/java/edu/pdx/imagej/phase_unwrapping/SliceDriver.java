@@ -0,0 +1,133 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import ij.IJ;
+import ij.ImageStack;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+
+// SliceDriver runs the slices of the stack ops that work on every slice on its
+// own, either one after the other or several at once.  Every thread takes a
+// free worker, so that the buffers a worker keeps are used again for the next
+// slice it gets.
+final class SliceDriver {
+    // Everything that one thread needs to compute slices, which is kept
+    // between slices
+    static abstract class Worker {
+        // If split is true, each slice is split across the processors, and
+        // images is how many input images each slice is computed from
+        Worker(ImageStack[] stacks, boolean split, int images)
+        {
+            M_stacks = stacks;
+            M_split = split;
+            // Streamed stacks copy every slice to disk, so the same results
+            // can be used again
+            M_reuseResults = stacks[0] instanceof StreamedStack;
+            M_buffers = new float[images][];
+        }
+        // Compute the slice at frame t and slice z, storing it at index of the
+        // stacks.  All three start at 1.
+        abstract void compute(int t, int z, int index);
+        // The pixels of a slice of an input image, which are copied into the
+        // buffer for that image if the slice isn't 32-bit
+        float[] pixels(ImageProcessor slice, int image)
+        {
+            if (slice instanceof FloatProcessor) {
+                return (float[])slice.getPixels();
+            }
+            M_buffers[image] = ArrayOps.pixels(slice, M_buffers[image]);
+            return M_buffers[image];
+        }
+        // An array of size pixels to put a result in, which is previous if it
+        // can be used again
+        float[] result(float[] previous, int size)
+        {
+            if (M_reuseResults && previous != null) return previous;
+            return new float[size];
+        }
+        final ImageStack[] M_stacks;
+        final boolean M_split;
+        private final boolean M_reuseResults;
+        private final float[][] M_buffers;
+    }
+    // Makes a new worker, like Worker's constructor
+    interface WorkerFactory {
+        Worker make(boolean split);
+    }
+
+    // Compute count slices, zSize slices per frame, on parallelSlices threads,
+    // or on every processor if parallelSlices isn't positive.  When the slices
+    // are computed one at a time, each slice is split across the processors.
+    static void run(int zSize, int count, int parallelSlices,
+                    WorkerFactory factory)
+    {
+        int parallelism = parallelSlices > 0
+            ? parallelSlices : Runtime.getRuntime().availableProcessors();
+        if (parallelism > 1 && count > 1) {
+            runParallel(zSize, count, parallelism, factory);
+        }
+        else {
+            Worker worker = factory.make(true);
+            for (int i = 0; i < count; ++i) {
+                if (count > 1) IJ.showProgress(i, count);
+                worker.compute(i / zSize + 1, i % zSize + 1, i + 1);
+            }
+        }
+    }
+    // Compute every slice on a pool of parallelism threads.  The slices are
+    // handed out by work stealing.
+    private static void runParallel(int zSize, int count, int parallelism,
+                                    WorkerFactory factory)
+    {
+        ConcurrentLinkedQueue<Worker> workers = new ConcurrentLinkedQueue<>();
+        AtomicInteger done = new AtomicInteger();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        IntStream slices = IntStream.range(0, count).parallel();
+        try {
+            pool.submit(() -> slices.forEach(i -> {
+                Worker worker = workers.poll();
+                if (worker == null) worker = factory.make(false);
+                worker.compute(i / zSize + 1, i % zSize + 1, i + 1);
+                workers.add(worker);
+                IJ.showProgress(done.incrementAndGet(), count);
+            })).get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+}
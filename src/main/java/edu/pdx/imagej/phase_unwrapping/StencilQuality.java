@@ -0,0 +1,35 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+// A quality whose value at every pixel can be found on its own from a few
+// pixels around it.  CompositeQuality uses this to combine several qualities
+// in one pass over the image, instead of calculating the whole map of every
+// quality first.
+interface StencilQuality {
+    // The value of the quality at one pixel
+    interface Stencil {
+        float at(int x, int y);
+    }
+    // Get the stencil for a phase image, with the same arguments as the
+    // row-major Quality.calculate.  The phase image must not be modified while
+    // the stencil is being used.
+    Stencil stencil(float[] phaseImage, int width, int height, int t, int z);
+}
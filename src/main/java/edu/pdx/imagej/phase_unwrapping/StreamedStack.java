@@ -0,0 +1,358 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.VirtualStack;
+import ij.io.FileInfo;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+
+/** StreamedStack is a virtual stack that writes every slice to disk as soon as
+ * it is set, instead of keeping it in memory.  {@link QualityUnwrappingStackOp}
+ * and {@link DoubleWavelengthStackOp} use it when they are given an output
+ * directory, so that unwrapping a long stack doesn't need memory for every
+ * result at once, and other programs can start reading the results before the
+ * whole stack is done.  Reading a slice back reads it from disk again.
+ * <p>
+ * The number of slices is fixed when the stack is made, and the slices can be
+ * set in any order with {@link setProcessor}.  Slices that haven't been set
+ * yet are all zero.  Only 8-bit and 32-bit slices are supported.
+ * <p>
+ * The stack can be written in one of these {@link Format}s:
+ * <ul>
+ *     <li>{@link Format#Raw}: One big-endian raw file, with every slice
+ *                             written in its place in the file.  It can be
+ *                             opened with ImageJ's raw importer or
+ *                             {@link MappedStack} using {@link getFileInfo}.
+ *     <li>{@link Format#Chunked} and {@link Format#CompressedChunked}: An N5
+ *         directory, with one block file for every slice, which is compressed
+ *         with gzip for the compressed format.  The dataset's
+ *         <code>attributes.json</code> is written when the stack is made, so
+ *         N5 readers can read the slices that are done while the rest are
+ *         still being unwrapped.
+ * </ul>
+ */
+public class StreamedStack extends VirtualStack {
+    /** Format is the way a StreamedStack is stored on disk. */
+    public enum Format {
+        /** A single raw file. */
+        Raw,
+        /** An uncompressed N5 directory. */
+        Chunked,
+        /** An N5 directory compressed with gzip. */
+        CompressedChunked
+    };
+
+    /** Make a stack that writes to a file or directory.  Anything that is
+     * already there is overwritten.
+     *
+     * @param path The raw file, or the N5 directory, to write to.
+     * @param format The {@link Format} to write.
+     * @param width The width of every slice.
+     * @param height The height of every slice.
+     * @param size The number of slices.
+     * @param bitDepth The bit depth of every slice, 8 or 32.
+     * @throws IOException If the file or directory can't be made.
+     * @throws IllegalArgumentException If the bit depth isn't 8 or 32, or the
+     *                                  slices are larger than 2 GB.
+     */
+    public StreamedStack(File path, Format format, int width, int height,
+                         int size, int bitDepth) throws IOException
+    {
+        super(width, height, null, path.getAbsoluteFile().getParent());
+        if (bitDepth != 8 && bitDepth != 32) {
+            throw new IllegalArgumentException("Only 8-bit and 32-bit stacks "
+                + "can be streamed.");
+        }
+        M_path = path.toPath();
+        M_format = format;
+        M_size = size;
+        M_bitDepth = bitDepth;
+        M_sliceBytes = (long)width * height * (bitDepth / 8);
+        // Every slice is put in one buffer when it is written or read
+        if (M_sliceBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Slices larger than 2 GB can't "
+                + "be streamed.");
+        }
+        M_labels = new String[size];
+        setBitDepth(bitDepth);
+        if (format == Format.Raw) {
+            // The whole file is made right away, so that the slices can be
+            // written in any order, and slices that haven't been written yet
+            // are read back as zero
+            Files.deleteIfExists(M_path);
+            try (RandomAccessFile file
+                    = new RandomAccessFile(M_path.toFile(), "rw")) {
+                file.setLength(M_sliceBytes * size);
+            }
+        }
+        else {
+            Files.createDirectories(M_path);
+            String compression = format == Format.CompressedChunked
+                ? "{\"type\":\"gzip\",\"level\":-1}" : "{\"type\":\"raw\"}";
+            String attributes = "{\"n5\":\"2.0.0\","
+                + "\"dimensions\":[" + width + "," + height + "," + size + "],"
+                + "\"blockSize\":[" + width + "," + height + ",1],"
+                + "\"dataType\":\"" + (bitDepth == 8 ? "uint8" : "float32")
+                + "\",\"compression\":" + compression + "}";
+            Files.write(M_path.resolve("attributes.json"),
+                        attributes.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /** Get a description of the raw file, which can be used to open it with
+     * {@link MappedStack} or ImageJ's <code>FileOpener</code>.
+     *
+     * @return The description, or null if this stack isn't a raw file.
+     */
+    public FileInfo getFileInfo()
+    {
+        if (M_format != Format.Raw) return null;
+        FileInfo result = new FileInfo();
+        result.fileFormat = FileInfo.RAW;
+        result.fileType = M_bitDepth == 8 ? FileInfo.GRAY8
+                                          : FileInfo.GRAY32_FLOAT;
+        result.directory = getDirectory() + File.separator;
+        result.fileName = M_path.getFileName().toString();
+        result.width = getWidth();
+        result.height = getHeight();
+        result.nImages = M_size;
+        return result;
+    }
+    @Override
+    public int getSize()
+    {
+        return M_size;
+    }
+    @Override
+    public int getBitDepth()
+    {
+        return M_bitDepth;
+    }
+    @Override
+    public String getSliceLabel(int n)
+    {
+        return M_labels[n - 1];
+    }
+    @Override
+    public void setSliceLabel(String label, int n)
+    {
+        M_labels[n - 1] = label;
+    }
+    @Override
+    public String getFileName(int n)
+    {
+        return M_path.getFileName().toString();
+    }
+    /** Write a slice to disk.  Different slices may be set from different
+     * threads at the same time.
+     *
+     * @param ip The slice, which must be the same size and bit depth as the
+     *           stack.
+     * @param n The one-based index of the slice.
+     * @throws UncheckedIOException If the slice can't be written.
+     */
+    @Override
+    public void setProcessor(ImageProcessor ip, int n)
+    {
+        checkIndex(n);
+        if (ip.getWidth() != getWidth() || ip.getHeight() != getHeight()
+                || ip.getBitDepth() != M_bitDepth) {
+            throw new IllegalArgumentException("The slice must be the same "
+                + "size and bit depth as the stack.");
+        }
+        try {
+            if (M_format == Format.Raw) {
+                // The slice is written through the channel instead of a
+                // mapping, because mappings aren't let go of until they are
+                // garbage collected, so long stacks would keep one for every
+                // slice
+                ByteBuffer data = ByteBuffer.allocate((int)M_sliceBytes);
+                put(data, ip);
+                data.clear();
+                try (FileChannel channel = FileChannel.open(M_path,
+                        StandardOpenOption.WRITE)) {
+                    long position = (n - 1) * M_sliceBytes;
+                    while (data.hasRemaining()) {
+                        position += channel.write(data, position);
+                    }
+                }
+            }
+            else {
+                ByteBuffer header = ByteBuffer.allocate(16);
+                header.putShort((short)0).putShort((short)3)
+                      .putInt(getWidth()).putInt(getHeight()).putInt(1);
+                ByteBuffer data = ByteBuffer.allocate((int)M_sliceBytes);
+                put(data, ip);
+                Path block = block(n);
+                Files.createDirectories(block.getParent());
+                // Write to a temporary file first so that readers never see
+                // half of a block
+                Path temporary = block.resolveSibling(n - 1 + ".part");
+                try (OutputStream out = Files.newOutputStream(temporary)) {
+                    out.write(header.array());
+                    if (M_format == Format.CompressedChunked) {
+                        GZIPOutputStream gzip = new GZIPOutputStream(out);
+                        gzip.write(data.array());
+                        gzip.finish();
+                    }
+                    else out.write(data.array());
+                }
+                Files.move(temporary, block,
+                           StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    /** Read a slice back from disk.
+     *
+     * @param n The one-based index of the slice.
+     * @return A new processor with the slice, which is all zero if it hasn't
+     *         been set yet.
+     * @throws UncheckedIOException If the slice can't be read.
+     */
+    @Override
+    public ImageProcessor getProcessor(int n)
+    {
+        checkIndex(n);
+        ByteBuffer data = ByteBuffer.allocate((int)M_sliceBytes);
+        try {
+            if (M_format == Format.Raw) {
+                try (FileChannel channel = FileChannel.open(M_path,
+                        StandardOpenOption.READ)) {
+                    long position = (n - 1) * M_sliceBytes;
+                    while (data.hasRemaining()) {
+                        int read = channel.read(data, position);
+                        if (read < 0) break;
+                        position += read;
+                    }
+                }
+            }
+            else {
+                try (InputStream in = Files.newInputStream(block(n))) {
+                    DataInputStream dataIn = new DataInputStream(in);
+                    dataIn.readFully(new byte[16]);
+                    InputStream blockIn = M_format == Format.CompressedChunked
+                        ? new GZIPInputStream(in) : in;
+                    new DataInputStream(blockIn).readFully(data.array());
+                }
+                catch (NoSuchFileException e) {
+                    // Not written yet, so it stays zero
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        data.rewind();
+        int width = getWidth();
+        int height = getHeight();
+        if (M_bitDepth == 8) {
+            return new ByteProcessor(width, height, data.array());
+        }
+        float[] pixels = new float[width * height];
+        data.asFloatBuffer().get(pixels);
+        return new FloatProcessor(width, height, pixels);
+    }
+    /** Streamed stacks have a fixed number of slices.
+     *
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public void deleteSlice(int n)
+    {
+        throw new UnsupportedOperationException(
+            "Slices can't be deleted from a streamed stack.");
+    }
+
+    // Make a stack of size empty slices for an op's output called name.  It is
+    // a StreamedStack in directory if there is a directory, or a normal stack
+    // in memory otherwise.
+    static ImageStack make(File directory, Format format, String name,
+                           int width, int height, int size, int bitDepth)
+    {
+        if (directory == null) return new ImageStack(width, height, size);
+        String fileName = name.replaceAll("[^A-Za-z0-9._ -]", "_")
+            + (format == Format.Raw ? ".raw" : ".n5");
+        try {
+            return new StreamedStack(new File(directory, fileName), format,
+                                     width, height, size, bitDepth);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    // Make a hyperstack out of a stack without making a new stack first, like
+    // IJ.createHyperStack does
+    static ImagePlus hyperstack(String title, ImageStack stack, int zs, int ts)
+    {
+        ImagePlus result = new ImagePlus(title, stack);
+        result.setDimensions(1, zs, ts);
+        result.setOpenAsHyperStack(true);
+        return result;
+    }
+
+    private void checkIndex(int n)
+    {
+        if (n < 1 || n > M_size) {
+            throw new IllegalArgumentException("Argument out of range: " + n);
+        }
+    }
+    // The block of slice n, at grid position (0, 0, n - 1)
+    private Path block(int n)
+    {
+        return M_path.resolve("0").resolve("0").resolve(String.valueOf(n - 1));
+    }
+    private void put(ByteBuffer buffer, ImageProcessor ip)
+    {
+        if (M_bitDepth == 8) buffer.put((byte[])ip.getPixels());
+        else buffer.asFloatBuffer().put((float[])ip.getPixels());
+    }
+
+    private final Path     M_path;
+    private final Format   M_format;
+    private final int      M_size;
+    private final int      M_bitDepth;
+    private final long     M_sliceBytes;
+    private final String[] M_labels;
+}
@@ -0,0 +1,416 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import org.scijava.ItemIO;
+import org.scijava.app.StatusService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import net.imagej.ops.AbstractOp;
+import net.imagej.ops.Op;
+
+/** TiledQualityUnwrappingOp is an Op that performs the same quality-guided
+ * unwrapping as {@link QualityUnwrappingOp}, but splits the image into tiles
+ * so that they can be unwrapped in parallel.
+ * <p>
+ * To run this op yourself, it has the name "Quality Guided Phase Unwrapping"
+ * and has these parameters:
+ * <ol>
+ *     <li>Phase image: a <code>float[][]</code> representing the current phase
+ *                      image.
+ *     <li>Quality: A {@link Quality} <em>that has already been calculated</em>.
+ *     <li>Show progress: Whether or not you want to see how many tiles have
+ *                        been unwrapped.
+ *     <li>Phase value: The pixel phase value for the phase image.
+ *     <li>Tile size: The width and height of every tile, not counting the
+ *                    overlap.  If it is not positive, the whole image is one
+ *                    tile.
+ *     <li>Frontier (optional): The {@link QualityUnwrappingOp.Frontier} to use
+ *                              in every tile.
+ *     <li>Mask (optional): A <code>boolean[][]</code> that is true for every
+ *                          pixel that should be unwrapped.  See {@link Mask}.
+ *                          If it is null, every pixel is unwrapped.
+ *     <li>Fill value (optional): The value given to every pixel that is not
+ *                                in the mask.  It defaults to NaN.
+ * </ol>
+ * The result is a <code>float[][]</code> representing the unwrapped phase
+ * image.
+ * <p>
+ * Every tile is extended by {@link #OVERLAP} pixels on every side and unwrapped
+ * on its own, starting from its center, on the common fork-join pool.  Each
+ * tile is then off from its neighbors by some integer multiple of the phase
+ * value.  To find these multiples, each pair of adjacent tiles votes on the
+ * difference between them in the area where they overlap, and the pairs are
+ * merged together starting with the borders with the highest average quality,
+ * the same way that pixels are unwrapped.  Finally, everything is shifted so
+ * that the center pixel keeps its original value, like it does in
+ * QualityUnwrappingOp.  Only pixels in the mask get a vote, and two tiles
+ * that share no pixels in the mask are not joined directly.
+ * <p>
+ * A mask can split a tile into several separate regions, which are each
+ * unwrapped on their own and so are off from each other by unrelated
+ * multiples of the phase value.  Because of this, it is really the regions of
+ * every tile that vote and are merged, not whole tiles, so a region that is
+ * cut off from the rest of its tile is lined up with whatever it touches in
+ * the tiles around it.
+ * <p>
+ * The result is only the same as QualityUnwrappingOp's where the unwrapping
+ * paths do not matter, but on reasonable images the differences are very small,
+ * and the time taken goes down with the number of cores available.
+ */
+@Plugin(type = Op.class, name = "Quality Guided Phase Unwrapping")
+public class TiledQualityUnwrappingOp extends AbstractOp {
+    /** The number of pixels each tile is extended by on each side. */
+    public static final int OVERLAP = 16;
+
+    @Parameter private StatusService P_status;
+    // Inputs
+    @Parameter private float[][] P_phaseImage;
+    @Parameter private Quality   P_quality;
+    @Parameter private boolean   P_showProgress;
+    @Parameter private float     P_phaseValue;
+    @Parameter private int       P_tileSize;
+    @Parameter(required = false)
+    private QualityUnwrappingOp.Frontier P_frontier
+        = QualityUnwrappingOp.Frontier.Exact;
+    @Parameter(required = false) private boolean[][] P_mask;
+    @Parameter(required = false) private float P_fillValue = Float.NaN;
+    // Outputs
+    @Parameter(type = ItemIO.OUTPUT) float[][] P_result;
+
+    @Override
+    public void run()
+    {
+        M_width = P_phaseImage.length;
+        M_height = P_phaseImage[0].length;
+        M_phase = ArrayOps.flatten(P_phaseImage);
+        M_quality = ArrayOps.flatten(P_quality.getResult());
+        M_mask = ArrayOps.flatten(P_mask);
+        int tileSize = P_tileSize > 0 ? P_tileSize
+                                      : Math.max(M_width, M_height);
+        M_tilesX = (M_width + tileSize - 1) / tileSize;
+        M_tilesY = (M_height + tileSize - 1) / tileSize;
+        M_tileSize = tileSize;
+
+        int tileCount = M_tilesX * M_tilesY;
+        M_tileResults = new float[tileCount][];
+        M_tileRegions = new int[tileCount][];
+        M_regionCounts = new int[tileCount];
+        AtomicInteger done = new AtomicInteger();
+        IntStream.range(0, tileCount).parallel().forEach(tile -> {
+            unwrapTile(tile);
+            int finished = done.incrementAndGet();
+            if (P_showProgress) P_status.showProgress(finished, tileCount);
+        });
+
+        int[] offsets = stitch();
+        P_result = assemble(offsets);
+        M_phase = null;
+        M_quality = null;
+        M_mask = null;
+        M_tileResults = null;
+        M_tileRegions = null;
+        M_regionCounts = null;
+        M_firstRegion = null;
+    }
+
+    // The bounds of a tile, including the overlap, are
+    // [left(tile), right(tile)) by [top(tile), bottom(tile))
+    private int left(int tile)
+    {
+        return Math.max(0, (tile % M_tilesX) * M_tileSize - OVERLAP);
+    }
+    private int right(int tile)
+    {
+        return Math.min(M_width, (tile % M_tilesX + 1) * M_tileSize + OVERLAP);
+    }
+    private int top(int tile)
+    {
+        return Math.max(0, (tile / M_tilesX) * M_tileSize - OVERLAP);
+    }
+    private int bottom(int tile)
+    {
+        return Math.min(M_height,
+                        (tile / M_tilesX + 1) * M_tileSize + OVERLAP);
+    }
+
+    private void unwrapTile(int tile)
+    {
+        int x0 = left(tile);
+        int y0 = top(tile);
+        int width = right(tile) - x0;
+        int height = bottom(tile) - y0;
+        float[] phase = new float[width * height];
+        float[] quality = new float[width * height];
+        boolean[] mask = M_mask == null ? null : new boolean[width * height];
+        for (int y = 0; y < height; ++y) {
+            System.arraycopy(M_phase, (y0 + y) * M_width + x0,
+                             phase, y * width, width);
+            System.arraycopy(M_quality, (y0 + y) * M_width + x0,
+                             quality, y * width, width);
+            if (mask != null) {
+                System.arraycopy(M_mask, (y0 + y) * M_width + x0,
+                                 mask, y * width, width);
+            }
+        }
+        float[] result = new float[width * height];
+        QualityUnwrapper unwrapper
+            = new QualityUnwrapper(width, height, P_phaseValue, P_frontier);
+        unwrapper.setMask(mask, P_fillValue);
+        unwrapper.unwrap(phase, quality, result);
+        M_tileResults[tile] = result;
+        if (mask == null) M_regionCounts[tile] = 1;
+        else findRegions(tile, mask, width, height);
+    }
+    // Label the separate regions of the mask in a tile, which are the same ones
+    // that QualityUnwrapper unwraps separately.  Pixels outside of the mask are
+    // labeled -1.
+    private void findRegions(int tile, boolean[] mask, int width, int height)
+    {
+        int[] labels = new int[width * height];
+        Arrays.fill(labels, -1);
+        PixelQueue queue = new PixelQueue();
+        int count = 0;
+        for (int start = 0; start < labels.length; ++start) {
+            if (!mask[start] || labels[start] != -1) continue;
+            labels[start] = count;
+            queue.push(start);
+            while (!queue.isEmpty()) {
+                int p = queue.pop();
+                int x = p % width;
+                if (x > 0) label(p - 1, count, mask, labels, queue);
+                if (p >= width) label(p - width, count, mask, labels, queue);
+                if (x < width - 1) label(p + 1, count, mask, labels, queue);
+                if (p < labels.length - width) {
+                    label(p + width, count, mask, labels, queue);
+                }
+            }
+            ++count;
+        }
+        M_tileRegions[tile] = labels;
+        M_regionCounts[tile] = count;
+    }
+    private static void label(int p, int region, boolean[] mask, int[] labels,
+                              PixelQueue queue)
+    {
+        if (mask[p] && labels[p] == -1) {
+            labels[p] = region;
+            queue.push(p);
+        }
+    }
+    // The region that the pixel (x, y) of the image belongs to in a tile,
+    // numbered across every tile
+    private int region(int tile, int x, int y)
+    {
+        int[] labels = M_tileRegions[tile];
+        if (labels == null) return M_firstRegion[tile];
+        int width = right(tile) - left(tile);
+        return M_firstRegion[tile]
+               + labels[(y - top(tile)) * width + x - left(tile)];
+    }
+
+    // Determine how many phase values need to be added to every region of
+    // every tile
+    private int[] stitch()
+    {
+        int tileCount = M_tilesX * M_tilesY;
+        M_firstRegion = new int[tileCount + 1];
+        for (int tile = 0; tile < tileCount; ++tile) {
+            M_firstRegion[tile + 1] = M_firstRegion[tile]
+                                      + M_regionCounts[tile];
+        }
+        // Every border is between a tile and the one to the right or below it,
+        // and every pair of regions that meet there gets a vote
+        ArrayList<Vote> votes = new ArrayList<>();
+        for (int tile = 0; tile < tileCount; ++tile) {
+            for (int side = 0; side < 2; ++side) {
+                int other = side == 0 ? tile + 1 : tile + M_tilesX;
+                if (side == 0 && tile % M_tilesX == M_tilesX - 1) continue;
+                if (side == 1 && other >= tileCount) continue;
+                vote(tile, other, votes);
+            }
+        }
+        // Sorting these keys in reverse order sorts the votes by quality, from
+        // highest to lowest
+        long[] sorted = new long[votes.size()];
+        for (int i = 0; i < sorted.length; ++i) {
+            sorted[i] = ((long)PixelHeap.sortable(votes.get(i).quality()) << 32)
+                        | i;
+        }
+        Arrays.sort(sorted);
+
+        OffsetUnionFind groups = new OffsetUnionFind(M_firstRegion[tileCount]);
+        for (int i = sorted.length - 1; i >= 0; --i) {
+            Vote vote = votes.get((int)sorted[i]);
+            groups.union(vote.M_region, vote.M_otherRegion, vote.mode());
+        }
+        int[] result = new int[M_firstRegion[tileCount]];
+        for (int region = 0; region < result.length; ++region) {
+            result[region] = groups.offset(region);
+        }
+        return result;
+    }
+    // For every pair of regions of tile and other that meet in the area the
+    // tiles overlap, find the numbers of phase values that need to be added to
+    // the region of other so that it matches the region of tile, and add them
+    // to votes.  Pixels outside of the mask don't vote.
+    private void vote(int tile, int other, ArrayList<Vote> votes)
+    {
+        int x0 = Math.max(left(tile), left(other));
+        int x1 = Math.min(right(tile), right(other));
+        int y0 = Math.max(top(tile), top(other));
+        int y1 = Math.min(bottom(tile), bottom(other));
+        // Linked so that the votes are always in the same order
+        LinkedHashMap<Long, Vote> pairs = new LinkedHashMap<>();
+        for (int y = y0; y < y1; ++y) {
+            for (int x = x0; x < x1; ++x) {
+                if (M_mask != null && !M_mask[y * M_width + x]) continue;
+                int region = region(tile, x, y);
+                int otherRegion = region(other, x, y);
+                long key = ((long)region << 32) | otherRegion;
+                Vote vote = pairs.get(key);
+                if (vote == null) {
+                    vote = new Vote(region, otherRegion);
+                    pairs.put(key, vote);
+                }
+                float a = tileValue(tile, x, y);
+                float b = tileValue(other, x, y);
+                vote.add(Math.round((a - b) / P_phaseValue),
+                         M_quality[y * M_width + x]);
+            }
+        }
+        votes.addAll(pairs.values());
+    }
+    private float tileValue(int tile, int x, int y)
+    {
+        int width = right(tile) - left(tile);
+        return M_tileResults[tile][(y - top(tile)) * width + x - left(tile)];
+    }
+    // The differences between two regions where they overlap
+    private static final class Vote {
+        Vote(int region, int otherRegion)
+        {
+            M_region = region;
+            M_otherRegion = otherRegion;
+        }
+        void add(int difference, float quality)
+        {
+            if (M_count == M_differences.length) {
+                M_differences = Arrays.copyOf(M_differences, M_count * 2);
+            }
+            M_differences[M_count++] = difference;
+            M_qualitySum += quality;
+        }
+        // The most common difference
+        int mode()
+        {
+            return TiledQualityUnwrappingOp.mode(
+                Arrays.copyOf(M_differences, M_count));
+        }
+        // The average quality where the regions overlap
+        float quality() {return (float)(M_qualitySum / M_count);}
+
+        final int M_region;
+        final int M_otherRegion;
+        private int[] M_differences = new int[16];
+        private int M_count;
+        private double M_qualitySum;
+    }
+    static private int mode(int[] values)
+    {
+        Arrays.sort(values);
+        int best = values[0];
+        int bestCount = 0;
+        int count = 0;
+        for (int i = 0; i < values.length; ++i) {
+            if (i > 0 && values[i] == values[i - 1]) ++count;
+            else count = 1;
+            if (count > bestCount) {
+                bestCount = count;
+                best = values[i];
+            }
+        }
+        return best;
+    }
+
+    // Put every tile's unwrapped pixels, not including the overlap, into the
+    // final result
+    private float[][] assemble(int[] offsets)
+    {
+        float shift = centerShift(offsets);
+        float[][] result = new float[M_width][M_height];
+        IntStream.range(0, M_tilesX * M_tilesY).parallel().forEach(tile -> {
+            int x0 = (tile % M_tilesX) * M_tileSize;
+            int y0 = (tile / M_tilesX) * M_tileSize;
+            int x1 = Math.min(M_width, x0 + M_tileSize);
+            int y1 = Math.min(M_height, y0 + M_tileSize);
+            for (int x = x0; x < x1; ++x) {
+                for (int y = y0; y < y1; ++y) {
+                    if (M_mask != null && !M_mask[y * M_width + x]) {
+                        result[x][y] = P_fillValue;
+                    }
+                    else {
+                        result[x][y] = tileValue(tile, x, y) + shift
+                            + offsets[region(tile, x, y)] * P_phaseValue;
+                    }
+                }
+            }
+        });
+        return result;
+    }
+
+    // The multiple of the phase value that makes the center pixel keep its
+    // original value.  If the center isn't in the mask, there's nothing to
+    // line up with, so it is zero.
+    private float centerShift(int[] offsets)
+    {
+        int centerX = M_width / 2;
+        int centerY = M_height / 2;
+        if (M_mask != null && !M_mask[centerY * M_width + centerX]) return 0;
+        int centerTile = (centerY / M_tileSize) * M_tilesX
+                         + centerX / M_tileSize;
+        float centerValue = tileValue(centerTile, centerX, centerY)
+            + offsets[region(centerTile, centerX, centerY)] * P_phaseValue;
+        return Math.round((P_phaseImage[centerX][centerY] - centerValue)
+                          / P_phaseValue) * P_phaseValue;
+    }
+
+    private int M_width;
+    private int M_height;
+    private int M_tileSize;
+    private int M_tilesX;
+    private int M_tilesY;
+    private float[] M_phase;
+    private float[] M_quality;
+    private boolean[] M_mask;
+    private float[][] M_tileResults;
+    // The region of every pixel of every tile, or null for tiles without a
+    // mask, how many regions each tile has, and the number of the first region
+    // of every tile when the regions of every tile are numbered together
+    private int[][] M_tileRegions;
+    private int[] M_regionCounts;
+    private int[] M_firstRegion;
+}
@@ -0,0 +1,83 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+// UnwrapOrder is the order that QualityUnwrapper unwrapped the pixels of an
+// image in, along with the direction to the neighbor that every pixel was
+// unwrapped from.  None of this depends on the phase, only on the quality, the
+// mask and the frontier, so another image with the same quality and mask can
+// be unwrapped by going through the same pixels in the same order, without any
+// frontier at all.  The result is exactly the same as unwrapping it with
+// QualityUnwrapper.
+//
+// The pixels and their directions are kept in the order they were unwrapped,
+// so replaying only goes through them once from start to end.  Pixels that
+// started a region have the direction SEED and keep their phase.
+final class UnwrapOrder {
+    static final byte SEED = 6;
+
+    UnwrapOrder(int[] pixels, byte[] directions, int[] offsets,
+                float phaseValue, boolean[] mask, float fillValue)
+    {
+        M_pixels = pixels;
+        M_directions = directions;
+        M_offsets = offsets;
+        M_phaseValue = phaseValue;
+        M_mask = mask;
+        M_fillValue = fillValue;
+    }
+    // Unwrap phase into result, which may be the same array
+    void replay(float[] phase, float[] result)
+    {
+        if (M_mask != null) {
+            for (int p = 0; p < M_mask.length; ++p) {
+                if (!M_mask[p]) result[p] = M_fillValue;
+            }
+        }
+        final float phaseValue = M_phaseValue;
+        for (int i = 0; i < M_pixels.length; ++i) {
+            int current = M_pixels[i];
+            byte direction = M_directions[i];
+            float currentVal = phase[current];
+            if (direction != SEED) {
+                // The same steps as QualityUnwrapper, so that the result is
+                // exactly the same
+                float fromVal = result[current + M_offsets[direction]];
+                if (currentVal != fromVal) {
+                    fromVal -= currentVal;
+                    fromVal /= phaseValue;
+                    fromVal = Math.round(fromVal);
+                    fromVal *= phaseValue;
+                    currentVal += fromVal;
+                }
+            }
+            result[current] = currentVal;
+        }
+    }
+    // The number of pixels that are unwrapped
+    int size() {return M_pixels.length;}
+
+    private final int[]     M_pixels;
+    private final byte[]    M_directions;
+    private final int[]     M_offsets;
+    private final float     M_phaseValue;
+    private final boolean[] M_mask;
+    private final float     M_fillValue;
+}
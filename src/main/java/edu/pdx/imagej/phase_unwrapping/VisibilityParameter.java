@@ -0,0 +1,93 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import ij.ImagePlus;
+
+import org.scijava.plugin.Plugin;
+
+import edu.pdx.imagej.dynamic_parameters.DParameter;
+import edu.pdx.imagej.dynamic_parameters.HoldingParameter;
+import edu.pdx.imagej.dynamic_parameters.ImageParameter;
+import edu.pdx.imagej.dynamic_parameters.IntParameter;
+
+/** VisibilityParameter is a DParameter that gets the inputs for
+ * {@link VisibilityQuality}: the hologram and the size of the window used to
+ * find the fringe visibility.
+ */
+@Plugin(type = DParameter.class)
+public class VisibilityParameter extends HoldingParameter<ImagePlus> {
+    /** Construct a VisibilityParameter. */
+    public VisibilityParameter()
+    {
+        super("VisibilityBase");
+        M_hologram = addParameter(new ImageParameter("Hologram"));
+        M_windowSize = addParameter(
+            new IntParameter(3, "Visibility_window_size (odd)"));
+        M_windowSize.setBounds(1, Integer.MAX_VALUE);
+    }
+    /** See DParameter's documentation. */
+    @Override
+    public void readFromDialog()
+    {
+        super.readFromDialog();
+        checkWindowSize();
+    }
+    /** See DParameter's documentation.
+     *
+     * @param c The class that is reading, usually the command that is being
+     *          run.
+     * @param name The name used for this parameter.
+     */
+    @Override
+    public void readFromPrefs(Class<?> c, String name)
+    {
+        super.readFromPrefs(c, name);
+        checkWindowSize();
+    }
+    /** Get the hologram.
+     *
+     * @return The hologram that the fringe visibility is calculated from.
+     */
+    @Override
+    public ImagePlus getValue()
+    {
+        return M_hologram.getValue();
+    }
+    /** Get the window size.
+     *
+     * @return The width and height of the window around every pixel.
+     */
+    public int getWindowSize()
+    {
+        return M_windowSize.getValue();
+    }
+
+    private void checkWindowSize()
+    {
+        if (getWindowSize() % 2 == 0) {
+            setError("The visibility window size must be odd.");
+        }
+        else setError(null);
+    }
+
+    private ImageParameter M_hologram;
+    private IntParameter   M_windowSize;
+}
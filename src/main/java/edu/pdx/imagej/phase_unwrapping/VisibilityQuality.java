@@ -20,18 +20,20 @@
 package edu.pdx.imagej.phase_unwrapping;
 
 import ij.ImagePlus;
+import ij.process.ImageProcessor;
 import org.scijava.Priority;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 import net.imagej.ops.OpService;
 
 import edu.pdx.imagej.dynamic_parameters.DParameter;
-import edu.pdx.imagej.dynamic_parameters.ImageParameter;
 
 /** VisibilityQuality is a {@link Quality} that uses the fringe visibility of
  * the hologram used to create the phase image.  See
  * {@link edu.pdx.imagej.fringe_visibility.FringeVisibilityOp} for more
- * information on the fringe visibility.
+ * information on the fringe visibility.  The window that the fringe visibility
+ * is found in can be made larger than the usual three pixels, so that it fits
+ * the hologram's fringes.
  */
 @Plugin(type = Quality.class,
         name = "Fringe Visibility",
@@ -40,13 +42,14 @@ public class VisibilityQuality extends AbstractQuality {
     @Parameter private OpService P_ops;
     /** {@inheritDoc}
      * <p>
-     * For VisibilityQuality, it is just an ImageParameter.
+     * For VisibilityQuality, it is a {@link VisibilityParameter}, which has
+     * the hologram and the window size.
      */
     @Override
     public DParameter param()
     {
         if (M_holo == null) {
-            M_holo = new ImageParameter("Hologram");
+            M_holo = new VisibilityParameter();
         }
         return M_holo;
     }
@@ -59,16 +62,44 @@ public class VisibilityQuality extends AbstractQuality {
         float[][] data = hologram.getStack()
                                  .getProcessor(currentSlice)
                                  .getFloatArray();
-        M_result = (float[][])P_ops.run("Fringe Visibility", (Object)data);
+        M_result = (float[][])P_ops.run("Fringe Visibility", data,
+                                        M_holo.getWindowSize());
         return M_result;
     }
+    /** {@inheritDoc}
+     * <p>
+     * If the hologram is 32-bit, its pixels are used directly.
+     */
+    @Override
+    public float[] calculate(float[] phaseImage, int width, int height, int t,
+                             int z)
+    {
+        ImagePlus hologram = M_holo.getValue();
+        int currentSlice = hologram.getStackIndex(1, z, t);
+        ImageProcessor slice = hologram.getStack().getProcessor(currentSlice);
+        return (float[])P_ops.run("Fringe Visibility", ArrayOps.pixels(slice),
+                                  slice.getWidth(), slice.getHeight(),
+                                  M_holo.getWindowSize());
+    }
     /** {@inheritDoc} */
     @Override public float[][] getResult() {return M_result;}
     /** {@inheritDoc} */
     @Override public int getTs() {return M_holo.getValue().getNFrames();}
     /** {@inheritDoc} */
     @Override public int getZs() {return M_holo.getValue().getNSlices();}
+    /** {@inheritDoc}
+     * <p>
+     * The new VisibilityQuality uses the same hologram and window size.
+     */
+    @Override
+    public Quality duplicate()
+    {
+        VisibilityQuality result = new VisibilityQuality();
+        result.P_ops = P_ops;
+        result.M_holo = M_holo;
+        return result;
+    }
 
-    private ImageParameter   M_holo;
-    private float[][]        M_result;
+    private VisibilityParameter M_holo;
+    private float[][]           M_result;
 }
@@ -0,0 +1,48 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+/** VolumeQuality is a {@link Quality} that can also calculate the quality of a
+ * whole volume at once, so that the quality of every pixel can depend on the
+ * slices before and after it as well.  It is used when
+ * {@link QualityUnwrappingStackOp} unwraps a stack as a volume.  Qualities that
+ * don't implement this are calculated one slice at a time instead, which is
+ * fine for qualities that only look at one slice anyway.
+ * <p>
+ * Volumes are single row-major <code>float</code> arrays, where the pixel
+ * (x, y, z) is at index <code>(z * height + y) * width + x</code>, so that
+ * large volumes don't need an array for every row.
+ */
+public interface VolumeQuality extends Quality {
+    /** Calculate the quality values of a volume.  {@link setPhaseValue} will
+     * have already been called.  Unlike {@link calculate}, this doesn't change
+     * the result of {@link getResult}.
+     *
+     * @param phase The phase volume being unwrapped, as described in the class
+     *              documentation.
+     * @param width The width of every slice.
+     * @param height The height of every slice.
+     * @param depth The number of slices.
+     * @return The quality of every pixel of the volume, in the same order as
+     *         the phase, with the highest values corresponding to pixels that
+     *         should be unwrapped earliest.
+     */
+    float[] calculateVolume(float[] phase, int width, int height, int depth);
+}
@@ -0,0 +1,113 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import org.scijava.ItemIO;
+import org.scijava.app.StatusService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import net.imagej.ops.AbstractOp;
+import net.imagej.ops.Op;
+
+/** VolumeQualityUnwrappingOp is an Op that calculates single wavelength phase
+ * unwrapping of a whole volume at once using the same quality-guided algorithm
+ * as {@link QualityUnwrappingOp}.  Every pixel is connected to the pixels in
+ * the slices before and after it as well as the four around it, so the whole
+ * volume is unwrapped consistently instead of every slice getting its own
+ * offset.  The slices can be z slices or the frames of a time series.
+ * <p>
+ * To run this op yourself, it has the name "Volume Quality Guided Phase
+ * Unwrapping" and has these parameters:
+ * <ol>
+ *     <li>Phase volume: a <code>float[]</code> with every slice of the volume,
+ *                       where the pixel (x, y, z) is at index
+ *                       <code>(z * height + y) * width + x</code>.
+ *     <li>Width: The width of every slice.
+ *     <li>Height: The height of every slice.
+ *     <li>Depth: The number of slices.
+ *     <li>Quality: A <code>float[]</code> with the quality of every pixel, in
+ *                  the same order as the phase.  See {@link VolumeQuality}.
+ *     <li>Show progress: Whether or not you want to see the progress of the
+ *                        algorithm.
+ *     <li>Phase value: The pixel phase value for the phase volume.
+ *     <li>Frontier (optional): A {@link QualityUnwrappingOp.Frontier} saying
+ *                              how the pixels waiting to be unwrapped are
+ *                              ordered.  It defaults to
+ *                              {@link QualityUnwrappingOp.Frontier#Exact}.
+ *     <li>Mask (optional): A <code>boolean[]</code> that is true for every
+ *                          pixel that should be unwrapped, in the same order
+ *                          as the phase.  If it is null, every pixel is
+ *                          unwrapped.
+ *     <li>Fill value (optional): The value given to every pixel that is not
+ *                                in the mask.  It defaults to NaN.
+ *     <li>In place (optional): Whether or not to put the result into the phase
+ *                              volume instead of a new array.  It defaults to
+ *                              false.
+ * </ol>
+ * The result is a <code>float[]</code> representing the unwrapped phase
+ * volume, in the same order as the phase.  It starts from the center of the
+ * middle slice.
+ * <p>
+ * Only one byte of state is kept for every pixel, along with the pixels that
+ * are waiting to be unwrapped, so unwrapping in place needs only nine bytes per
+ * pixel, including the phase and quality.  Volumes are limited to the size of
+ * a Java array, a little more than two billion pixels.
+ */
+@Plugin(type = Op.class, name = "Volume Quality Guided Phase Unwrapping")
+public class VolumeQualityUnwrappingOp extends AbstractOp {
+    @Parameter private StatusService P_status;
+    // Inputs
+    @Parameter private float[] P_phase;
+    @Parameter private int     P_width;
+    @Parameter private int     P_height;
+    @Parameter private int     P_depth;
+    @Parameter private float[] P_quality;
+    @Parameter private boolean P_showProgress;
+    @Parameter private float   P_phaseValue;
+    @Parameter(required = false)
+    private QualityUnwrappingOp.Frontier P_frontier
+        = QualityUnwrappingOp.Frontier.Exact;
+    @Parameter(required = false) private boolean[] P_mask;
+    @Parameter(required = false) private float P_fillValue = Float.NaN;
+    @Parameter(required = false) private boolean P_inPlace = false;
+    // Outputs
+    @Parameter(type = ItemIO.OUTPUT) float[] P_result;
+
+    @Override
+    public void run()
+    {
+        long size = (long)P_width * P_height * P_depth;
+        if (P_phase.length != size || P_quality.length != size
+                || (P_mask != null && P_mask.length != size)) {
+            throw new IllegalArgumentException("The phase, quality, and mask "
+                + "must all have width * height * depth pixels.");
+        }
+        float[] result = P_inPlace ? P_phase : new float[P_phase.length];
+        QualityUnwrapper unwrapper = new QualityUnwrapper(
+            P_width, P_height, P_depth, P_phaseValue, P_frontier);
+        unwrapper.setMask(P_mask, P_fillValue);
+        if (P_showProgress) {
+            unwrapper.setProgress(
+                (done, total) -> P_status.showProgress(done, total));
+        }
+        unwrapper.unwrap(P_phase, P_quality, result);
+        P_result = result;
+    }
+}
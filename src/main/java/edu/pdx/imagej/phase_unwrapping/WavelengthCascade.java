@@ -0,0 +1,124 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+// The cascade of wavelengths used by MultipleWavelengthOp and
+// MultipleWavelengthStackOp.  Every wavelength, and the synthetic wavelength
+// of every pair of wavelengths next to each other in size, gives the optical
+// path length modulo that wavelength.  These are sorted from the longest to
+// the shortest.  The longest gives a rough path length, and every one after it
+// picks the path length closest to the last one that agrees with it, so the
+// last one has the range of the longest and the noise of the shortest.
+//
+// Every pixel is done on its own, so any range of pixels can be done at once.
+// The path lengths are turned into phase in the units of the first image, the
+// same as DoubleWavelengthOp.
+final class WavelengthCascade {
+    WavelengthCascade(float[] wavelengths, float[] phaseValues)
+    {
+        if (wavelengths.length == 0
+                || wavelengths.length != phaseValues.length) {
+            throw new IllegalArgumentException("There must be a phase value "
+                + "for every wavelength, and at least one wavelength.");
+        }
+        M_phaseValues = phaseValues.clone();
+        M_scale = phaseValues[0] / wavelengths[0];
+        Integer[] order = new Integer[wavelengths.length];
+        for (int i = 0; i < order.length; ++i) order[i] = i;
+        Arrays.sort(order, Comparator.comparingDouble(i -> wavelengths[i]));
+        ArrayList<Stage> stages = new ArrayList<>();
+        for (int i = 0; i < order.length; ++i) {
+            stages.add(new Stage(wavelengths[order[i]], order[i], -1));
+            if (i + 1 == order.length) continue;
+            double shorter = wavelengths[order[i]];
+            double longer = wavelengths[order[i + 1]];
+            // The same wavelength twice doesn't give anything new
+            if (shorter == longer) continue;
+            stages.add(new Stage(shorter * longer / (longer - shorter),
+                                 order[i], order[i + 1]));
+        }
+        stages.sort(Comparator.comparingDouble((Stage s) -> -s.wavelength));
+        M_stages = stages.toArray(new Stage[0]);
+    }
+    // The number of steps in the cascade, which is also the number of outputs
+    // when every step is kept
+    int stages() {return M_stages.length;}
+    // The wavelength of a step, which might be synthetic
+    double wavelength(int stage) {return M_stages[stage].wavelength;}
+    // Unwrap the pixels from start up to but not including end.  images has
+    // the pixels of every image, in the same order as the wavelengths.  If
+    // allStages is true, outputs gets the path length after every step,
+    // otherwise it gets the first and the last ones.
+    void unwrap(float[][] images, float[][] outputs, boolean allStages,
+                int start, int end)
+    {
+        double[] fractions = new double[images.length];
+        for (int i = start; i < end; ++i) {
+            for (int j = 0; j < images.length; ++j) {
+                fractions[j] = fraction(images[j][i] / M_phaseValues[j]);
+            }
+            double length = 0;
+            for (int s = 0; s < M_stages.length; ++s) {
+                Stage stage = M_stages[s];
+                double fraction = stage.longer == -1
+                    ? fractions[stage.shorter]
+                    : fraction(fractions[stage.shorter]
+                               - fractions[stage.longer]);
+                double estimate = fraction * stage.wavelength;
+                if (s == 0) length = estimate;
+                else {
+                    length = estimate + stage.wavelength
+                        * Math.rint((length - estimate) / stage.wavelength);
+                }
+                if (allStages) outputs[s][i] = (float)(length * M_scale);
+                else if (s == 0) outputs[0][i] = (float)(length * M_scale);
+            }
+            if (!allStages) outputs[1][i] = (float)(length * M_scale);
+        }
+    }
+
+    // Bring a number of wavelengths into [0, 1)
+    private static double fraction(double a)
+    {
+        return a - Math.floor(a);
+    }
+
+    // One step of the cascade.  If longer is -1, it is the phase of the image
+    // shorter, otherwise it is the synthetic wavelength of the two images.
+    private static final class Stage {
+        Stage(double wavelength, int shorter, int longer)
+        {
+            this.wavelength = wavelength;
+            this.shorter = shorter;
+            this.longer = longer;
+        }
+        final double wavelength;
+        final int shorter;
+        final int longer;
+    }
+
+    private final Stage[] M_stages;
+    private final float[] M_phaseValues;
+    private final double  M_scale;
+}
@@ -0,0 +1,316 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import org.scijava.ItemIO;
+import org.scijava.app.StatusService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import net.imagej.ops.AbstractOp;
+import net.imagej.ops.Op;
+
+/** WeightedLeastSquaresUnwrappingOp is an Op that calculates single wavelength
+ * phase unwrapping by finding the weighted least squares solution, with the
+ * weights coming from a {@link Quality}.
+ * <p>
+ * To run this op yourself, it has the name "Weighted Least Squares Phase
+ * Unwrapping" and has these parameters:
+ * <ol>
+ *     <li>Phase image: a <code>float[][]</code> representing the current phase
+ *                      image.
+ *     <li>Quality: A {@link Quality} <em>that has already been calculated</em>.
+ *     <li>Show progress: Whether or not you want to see the progress of the
+ *                        algorithm, including the residual of every iteration.
+ *     <li>Phase value: The pixel phase value for the phase image.
+ *     <li>Tolerance (optional): The solver stops once the norm of the residual
+ *                               divided by the norm of the right hand side is
+ *                               less than this.  It defaults to
+ *                               {@link #DEFAULT_TOLERANCE}.
+ *     <li>Maximum iterations (optional): The solver stops after this many
+ *                                        iterations even if it hasn't reached
+ *                                        the tolerance.  It defaults to
+ *                                        {@link #DEFAULT_MAX_ITERATIONS}.
+ *     <li>Initial guess (optional): A <code>float[][]</code> to start the
+ *                                   solver from, usually the result of
+ *                                   unwrapping a similar image, such as the
+ *                                   previous frame of a stack.  If it is null,
+ *                                   the solver starts from zero.
+ *     <li>Congruent (optional): Whether or not to make the result congruent to
+ *                               the phase image.  It defaults to false.
+ * </ol>
+ * The result is a <code>float[][]</code> representing the unwrapped phase
+ * image.  If you create this op yourself, the residual of every iteration can
+ * be gotten afterwards with {@link #getResiduals}.
+ * <p>
+ * The quality is scaled so that its lowest value is zero and its highest value
+ * is one, and the weight of the difference between two neighboring pixels is
+ * the square of the smaller of their scaled qualities, but never less than
+ * {@link #MIN_WEIGHT}.  Pixels with a quality of NaN are left out when scaling
+ * the quality, and their differences get the weight {@link #MIN_WEIGHT}.  A
+ * quality with the same value everywhere, like {@link NoneQuality}, gives the
+ * same result as {@link LeastSquaresUnwrappingOp}.
+ * <p>
+ * The weighted problem can't be solved directly with cosine transforms, so it
+ * is solved with the preconditioned conjugate gradient method, using the
+ * unweighted problem, which can be solved directly, as the preconditioner.
+ * Multiplying by the weighted laplacian and all of the vector operations are
+ * done on every row in parallel.  Starting from the result of a similar image
+ * usually means only a few iterations are needed.
+ */
+@Plugin(type = Op.class, name = "Weighted Least Squares Phase Unwrapping")
+public class WeightedLeastSquaresUnwrappingOp extends AbstractOp {
+    /** The default tolerance of the solver. */
+    public static final double DEFAULT_TOLERANCE = 1e-4;
+    /** The default maximum number of iterations of the solver. */
+    public static final int DEFAULT_MAX_ITERATIONS = 100;
+    /** The smallest weight any difference can have.  Without it, the pixels
+     * with the lowest quality would not be connected to anything.
+     */
+    public static final double MIN_WEIGHT = 1e-3;
+
+    @Parameter private StatusService P_status;
+    // Inputs
+    @Parameter private float[][] P_phaseImage;
+    @Parameter private Quality   P_quality;
+    @Parameter private boolean   P_showProgress;
+    @Parameter private float     P_phaseValue;
+    @Parameter(required = false)
+    private double P_tolerance = DEFAULT_TOLERANCE;
+    @Parameter(required = false)
+    private int P_maxIterations = DEFAULT_MAX_ITERATIONS;
+    @Parameter(required = false) private float[][] P_initial;
+    @Parameter(required = false) private boolean P_congruent = false;
+    // Outputs
+    @Parameter(type = ItemIO.OUTPUT) float[][] P_result;
+
+    /** Get the residuals of the solver after the op has been run.
+     *
+     * @return The norm of the residual divided by the norm of the right hand
+     *         side, after every iteration.  Element zero is the residual of
+     *         the initial guess.
+     */
+    public double[] getResiduals() {return M_residuals;}
+
+    @Override
+    public void run()
+    {
+        M_width = P_phaseImage.length;
+        M_height = P_phaseImage[0].length;
+        float[] phase = ArrayOps.flatten(P_phaseImage);
+        makeWeights(ArrayOps.flatten(P_quality.getResult()));
+
+        double[] b = rightHandSide(phase);
+        double[] x = new double[M_width * M_height];
+        if (P_initial != null) {
+            float[] initial = ArrayOps.flatten(P_initial);
+            for (int i = 0; i < x.length; ++i) x[i] = initial[i];
+        }
+        solve(b, x);
+
+        int center = (M_height / 2) * M_width + M_width / 2;
+        double shift = phase[center] - x[center];
+        float[] result = new float[M_width * M_height];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = (float)(x[i] + shift);
+            if (P_congruent) {
+                float k = Math.round((result[i] - phase[i]) / P_phaseValue);
+                result[i] = phase[i] + k * P_phaseValue;
+            }
+        }
+        P_result = ArrayOps.unflatten(result, M_width, M_height);
+        M_weightX = null;
+        M_weightY = null;
+    }
+
+    // The weight between p and the pixel to its right is M_weightX[p], and the
+    // weight between p and the pixel below it is M_weightY[p].  Weights off of
+    // the image are zero.
+    private void makeWeights(float[] quality)
+    {
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        // NaN qualities are skipped, because they would make every weight NaN
+        for (float q : quality) {
+            if (Float.isNaN(q)) continue;
+            min = Math.min(min, q);
+            max = Math.max(max, q);
+        }
+        double range = max > min ? max - min : 0;
+        float qMin = min;
+        M_weightX = new double[M_width * M_height];
+        M_weightY = new double[M_width * M_height];
+        IntStream.range(0, M_height).parallel().forEach(y -> {
+            for (int x = 0; x < M_width; ++x) {
+                int p = y * M_width + x;
+                if (x < M_width - 1) {
+                    M_weightX[p] = weight(quality[p], quality[p + 1],
+                                          qMin, range);
+                }
+                if (y < M_height - 1) {
+                    M_weightY[p] = weight(quality[p], quality[p + M_width],
+                                          qMin, range);
+                }
+            }
+        });
+    }
+    static private double weight(float q1, float q2, float min, double range)
+    {
+        if (Float.isNaN(q1) || Float.isNaN(q2)) return MIN_WEIGHT;
+        if (range == 0) return 1;
+        double w = (Math.min(q1, q2) - min) / range;
+        return Math.max(MIN_WEIGHT, w * w);
+    }
+    // The weighted sum of the wrapped differences between every pixel and its
+    // neighbors
+    private double[] rightHandSide(float[] phase)
+    {
+        double[] result = new double[M_width * M_height];
+        IntStream.range(0, M_height).parallel().forEach(y -> {
+            for (int x = 0; x < M_width; ++x) {
+                int p = y * M_width + x;
+                double sum = 0;
+                if (x > 0) {
+                    sum += M_weightX[p - 1] * wrap(phase[p] - phase[p - 1]);
+                }
+                if (y > 0) {
+                    sum += M_weightY[p - M_width]
+                           * wrap(phase[p] - phase[p - M_width]);
+                }
+                if (x < M_width - 1) {
+                    sum += M_weightX[p] * wrap(phase[p] - phase[p + 1]);
+                }
+                if (y < M_height - 1) {
+                    sum += M_weightY[p] * wrap(phase[p] - phase[p + M_width]);
+                }
+                result[p] = sum;
+            }
+        });
+        return result;
+    }
+    private double wrap(double difference)
+    {
+        return difference - Math.round(difference / P_phaseValue)
+                            * P_phaseValue;
+    }
+
+    // Solve A x = b with the preconditioned conjugate gradient method, where x
+    // starts as the initial guess
+    private void solve(double[] b, double[] x)
+    {
+        int n = x.length;
+        double[] r = new double[n];
+        double[] z = new double[n];
+        double[] p = new double[n];
+        double[] q = new double[n];
+        M_residuals = new double[P_maxIterations + 1];
+
+        double bNorm = Math.sqrt(dot(b, b));
+        multiply(x, q);
+        rows(i -> r[i] = b[i] - q[i]);
+        int iteration = 0;
+        M_residuals[0] = bNorm == 0 ? 0 : Math.sqrt(dot(r, r)) / bNorm;
+        report(0);
+        if (M_residuals[0] > P_tolerance) {
+            precondition(r, z);
+            System.arraycopy(z, 0, p, 0, n);
+            double rz = dot(r, z);
+            while (iteration < P_maxIterations) {
+                multiply(p, q);
+                double pq = dot(p, q);
+                if (pq <= 0) break;
+                double alpha = rz / pq;
+                rows(i -> {
+                    x[i] += alpha * p[i];
+                    r[i] -= alpha * q[i];
+                });
+                ++iteration;
+                M_residuals[iteration] = Math.sqrt(dot(r, r)) / bNorm;
+                report(iteration);
+                if (M_residuals[iteration] <= P_tolerance) break;
+                precondition(r, z);
+                double newRz = dot(r, z);
+                double beta = newRz / rz;
+                rz = newRz;
+                rows(i -> p[i] = z[i] + beta * p[i]);
+            }
+        }
+        M_residuals = Arrays.copyOf(M_residuals, iteration + 1);
+    }
+    // out = A in, where A is the negative of the weighted laplacian
+    private void multiply(double[] in, double[] out)
+    {
+        IntStream.range(0, M_height).parallel().forEach(y -> {
+            for (int x = 0; x < M_width; ++x) {
+                int p = y * M_width + x;
+                double v = in[p];
+                double sum = 0;
+                if (x > 0) sum += M_weightX[p - 1] * (v - in[p - 1]);
+                if (x < M_width - 1) sum += M_weightX[p] * (v - in[p + 1]);
+                if (y > 0) {
+                    sum += M_weightY[p - M_width] * (v - in[p - M_width]);
+                }
+                if (y < M_height - 1) {
+                    sum += M_weightY[p] * (v - in[p + M_width]);
+                }
+                out[p] = sum;
+            }
+        });
+    }
+    // Solve the unweighted problem with r as the right hand side
+    private void precondition(double[] r, double[] z)
+    {
+        rows(i -> z[i] = -r[i]);
+        Dct.solvePoisson(z, M_width, M_height);
+    }
+    private double dot(double[] a, double[] b)
+    {
+        return IntStream.range(0, M_height).parallel().mapToDouble(y -> {
+            double sum = 0;
+            for (int i = y * M_width; i < (y + 1) * M_width; ++i) {
+                sum += a[i] * b[i];
+            }
+            return sum;
+        }).sum();
+    }
+    // Run f on every pixel, with every row in parallel
+    private void rows(IntConsumer f)
+    {
+        IntStream.range(0, M_height).parallel().forEach(y -> {
+            for (int i = y * M_width; i < (y + 1) * M_width; ++i) f.accept(i);
+        });
+    }
+    private void report(int iteration)
+    {
+        if (!P_showProgress) return;
+        P_status.showStatus(iteration, P_maxIterations,
+            "Weighted least squares iteration " + iteration + ", residual "
+            + M_residuals[iteration]);
+    }
+
+    private int      M_width;
+    private int      M_height;
+    private double[] M_weightX;
+    private double[] M_weightY;
+    private double[] M_residuals;
+}
@@ -0,0 +1,140 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import edu.pdx.imagej.fringe_visibility.SlidingWindow;
+
+// Calculations over the square window around every pixel of a row-major image,
+// used by the windowed qualities.  Windows that go past the edges of the image
+// only use the pixels that are in the image.  Everything here takes the same
+// time for any window size, and is done in parallel.
+final class WindowOps {
+    // Gives the values of every channel that is summed at pixel p
+    interface PixelValues {
+        void get(int p, double[] values);
+    }
+    // Turns the sums of every channel over a window of count pixels into the
+    // result for the pixel in the middle of the window
+    interface WindowValue {
+        float get(double[] sums, int count);
+    }
+
+    // The wrapped differences between every pixel and the next one along x,
+    // and along y.  The last column and row use the difference with the pixel
+    // before them instead.  A phase value of zero means no wrapping.
+    static float[][] derivatives(float[] phase, int width, int height,
+                                 float phaseValue)
+    {
+        float[] dx = new float[phase.length];
+        float[] dy = new float[phase.length];
+        IntStream.range(0, height).parallel().forEach(y -> {
+            int row = y * width;
+            for (int x = 0; x < width - 1; ++x) {
+                dx[row + x] = wrap(phase[row + x + 1] - phase[row + x],
+                                   phaseValue);
+            }
+            if (width > 1) dx[row + width - 1] = dx[row + width - 2];
+            int next = y < height - 1 ? width : -width;
+            int sign = y < height - 1 ? 1 : -1;
+            for (int x = 0; x < width && height > 1; ++x) {
+                int p = row + x;
+                dy[p] = wrap(sign * (phase[p + next] - phase[p]), phaseValue);
+            }
+        });
+        return new float[][] {dx, dy};
+    }
+    // Sum channels values over the window of 2 * radius + 1 pixels around every
+    // pixel with summed-area tables, and combine them into the result.  The
+    // rows are split into bands that each have their own table covering the
+    // band and the rows within radius of it, so the tables are never much
+    // bigger than the bands.
+    static float[] sums(int width, int height, int radius, int channels,
+                        PixelValues pixel, WindowValue window)
+    {
+        float[] result = new float[width * height];
+        int bandRows = Math.max(S_bandRows, 2 * radius);
+        int bands = (height + bandRows - 1) / bandRows;
+        IntStream.range(0, bands).parallel().forEach(b -> {
+            int first = b * bandRows;
+            int end = Math.min(height, first + bandRows);
+            int top = Math.max(0, first - radius);
+            int rows = Math.min(height, end + radius) - top;
+            // table[(r * (width + 1) + x) * channels + c] is the sum of
+            // channel c over the first r rows and x columns from top
+            int stride = (width + 1) * channels;
+            double[] table = new double[(rows + 1) * stride];
+            double[] values = new double[channels];
+            double[] rowSums = new double[channels];
+            for (int r = 0; r < rows; ++r) {
+                Arrays.fill(rowSums, 0);
+                int above = r * stride + channels;
+                int here = above + stride;
+                for (int x = 0; x < width; ++x) {
+                    pixel.get((top + r) * width + x, values);
+                    for (int c = 0; c < channels; ++c) {
+                        rowSums[c] += values[c];
+                        table[here + c] = table[above + c] + rowSums[c];
+                    }
+                    above += channels;
+                    here += channels;
+                }
+            }
+            double[] sums = new double[channels];
+            for (int y = first; y < end; ++y) {
+                int y0 = Math.max(0, y - radius) - top;
+                int y1 = Math.min(height, y + radius + 1) - top;
+                for (int x = 0; x < width; ++x) {
+                    int x0 = Math.max(0, x - radius);
+                    int x1 = Math.min(width, x + radius + 1);
+                    int a = (y0 * (width + 1) + x0) * channels;
+                    int bb = (y0 * (width + 1) + x1) * channels;
+                    int c0 = (y1 * (width + 1) + x0) * channels;
+                    int d = (y1 * (width + 1) + x1) * channels;
+                    for (int c = 0; c < channels; ++c) {
+                        sums[c] = table[d + c] - table[bb + c] - table[c0 + c]
+                                + table[a + c];
+                    }
+                    result[y * width + x]
+                        = window.get(sums, (y1 - y0) * (x1 - x0));
+                }
+            }
+        });
+        return result;
+    }
+    // The maximum over the window of 2 * radius + 1 pixels around every pixel,
+    // found the same way as the fringe visibility's
+    static float[] max(float[] values, int width, int height, int radius)
+    {
+        return SlidingWindow.max(values, width, height, radius);
+    }
+
+    private static float wrap(float difference, float phaseValue)
+    {
+        if (difference > phaseValue / 2) difference -= phaseValue;
+        else if (difference < -phaseValue / 2) difference += phaseValue;
+        return difference;
+    }
+
+    // Rows per band, when the window is small
+    private static final int S_bandRows = 64;
+}
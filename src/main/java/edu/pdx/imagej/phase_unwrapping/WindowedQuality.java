@@ -0,0 +1,91 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import edu.pdx.imagej.dynamic_parameters.DParameter;
+import edu.pdx.imagej.dynamic_parameters.IntParameter;
+
+// The parts shared by the qualities that look at the window of pixels around
+// every pixel of the phase image: the window size parameter, the phase value,
+// and converting the two-dimensional calculate to the row-major one.  The
+// qualities only need to implement the row-major calculate and make a new
+// instance of themselves.
+abstract class WindowedQuality extends AbstractQuality {
+    /** {@inheritDoc}
+     * <p>
+     * For the windowed qualities, it is the size of the window, which should
+     * be odd.  Even sizes are treated as the next odd size.
+     */
+    @Override
+    public DParameter param()
+    {
+        if (M_window == null) {
+            M_window = new IntParameter(M_windowSize, "Window_size");
+            M_window.setBounds(1, Integer.MAX_VALUE);
+        }
+        return M_window;
+    }
+    /** {@inheritDoc}
+     * <p>
+     * The windowed qualities use the phase value to wrap phase differences,
+     * and this function saves it.
+     */
+    @Override
+    public void setPhaseValue(float phaseValue) {M_phase = phaseValue;}
+    /** {@inheritDoc} */
+    @Override
+    public float[][] calculate(float[][] phaseImage, int t, int z)
+    {
+        int width = phaseImage.length;
+        int height = phaseImage[0].length;
+        M_result = ArrayOps.unflatten(calculate(ArrayOps.flatten(phaseImage),
+                                                width, height, t, z),
+                                      width, height);
+        return M_result;
+    }
+    /** {@inheritDoc} */
+    @Override public float[][] getResult() {return M_result;}
+    /** {@inheritDoc} */
+    @Override
+    public Quality duplicate()
+    {
+        WindowedQuality result = newInstance();
+        result.M_window = M_window;
+        result.M_windowSize = M_windowSize;
+        result.M_phase = M_phase;
+        return result;
+    }
+
+    // Bypass the parameter, for testing
+    void setWindowSize(int windowSize) {M_windowSize = windowSize;}
+    // The number of pixels on each side of the middle of the window
+    int radius()
+    {
+        int size = M_window == null ? M_windowSize : M_window.getValue();
+        return Math.max(size, 1) / 2;
+    }
+    float phaseValue() {return M_phase;}
+    abstract WindowedQuality newInstance();
+
+    private IntParameter M_window;
+    private int M_windowSize = 3;
+    private float M_phase;
+    private float[][] M_result;
+}
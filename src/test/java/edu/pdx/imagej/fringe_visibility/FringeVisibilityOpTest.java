@@ -23,6 +23,8 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.Test;
 
+import java.util.Random;
+
 import org.scijava.Context;
 import net.imagej.ops.OpService;
 
@@ -71,6 +73,48 @@ public class FringeVisibilityOpTest {
         // why the fringe visibility equations are the way they are, so I waon't
         // try to do anything else
     }
+    @Test public void testWindowSize()
+    {
+        Context context = new Context(OpService.class);
+        OpService ops = context.getService(OpService.class);
+
+        int width = 40;
+        int height = 23;
+        Random random = new Random(3);
+        float[] data = new float[width * height];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = random.nextFloat() * 100 - 20;
+        }
+        float dataMin = Float.MAX_VALUE;
+        for (float val : data) dataMin = Math.min(dataMin, val);
+        int[] windows = {1, 3, 7, 31, 61};
+        for (int window : windows) {
+            float[] result = (float[])ops.run(FlatFringeVisibilityOp.class,
+                data, width, height, window);
+            int radius = window / 2;
+            for (int y = 0; y < height; ++y) {
+                for (int x = 0; x < width; ++x) {
+                    float max = 0;
+                    float min = Float.MAX_VALUE;
+                    for (int newY = Math.max(0, y - radius);
+                            newY <= Math.min(height - 1, y + radius); ++newY) {
+                        for (int newX = Math.max(0, x - radius);
+                                newX <= Math.min(width - 1, x + radius);
+                                ++newX) {
+                            float val = data[newY * width + newX] - dataMin;
+                            max = Math.max(max, val);
+                            min = Math.min(min, val);
+                        }
+                    }
+                    float expected = max == 0 && min == 0
+                        ? 0 : (max - min) / (max + min);
+                    assertEquals(result[y * width + x], expected, "The fringe "
+                        + "visibility should use the whole window of size "
+                        + window + ", at (" + x + ", " + y + ").");
+                }
+            }
+        }
+    }
     private float[][] run(OpService ops, float[][] input)
     {
         return (float[][])ops.run(FringeVisibilityOp.class, (Object)input);
@@ -0,0 +1,90 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+public class ArrayExpressionTest {
+    @Test public void testChain()
+    {
+        // Tall enough for several blocks in every column
+        float[][] a = random(7, 3000, 1);
+        float[][] b = random(7, 3000, 2);
+        ArrayExpression sum = ArrayExpression.of(a).combine(b, ArrayOps.Add);
+        ArrayExpression scaled = sum.map(ArrayOps.MultiplyBy(3));
+        ArrayExpression shifted = scaled.map(x -> x - 1);
+        // sum is used twice, but only calculated once
+        ArrayExpression both = shifted.combine(sum, ArrayOps.Divide);
+        for (boolean parallel : new boolean[] {false, true}) {
+            float[][][] result = ArrayExpression.evaluate(parallel, null,
+                                                          sum, both);
+            for (int x = 0; x < a.length; ++x) {
+                for (int y = 0; y < a[0].length; ++y) {
+                    float expectedSum = a[x][y] + b[x][y];
+                    assertEquals(result[0][x][y], expectedSum, "The sum "
+                        + "should be evaluated at [" + x + "][" + y + "].");
+                    assertEquals(result[1][x][y],
+                        (expectedSum * 3 - 1) / expectedSum, "The whole "
+                        + "chain should be evaluated at [" + x + "][" + y
+                        + "].");
+                }
+            }
+        }
+    }
+    @Test public void testFlat()
+    {
+        float[] a = random(1, 5000, 3)[0];
+        float[] into = new float[a.length];
+        float[][] result = ArrayExpression.evaluateFlat(true,
+            new float[][] {into, null},
+            ArrayExpression.of(a).map(ArrayOps.AddBy(2)),
+            ArrayExpression.of(a));
+        assertSame(result[0], into, "Results should go into the arrays that "
+            + "are given.");
+        for (int i = 0; i < a.length; ++i) {
+            assertEquals(result[0][i], a[i] + 2, "A flat expression should be "
+                + "evaluated at " + i + ".");
+            assertEquals(result[1][i], a[i], "An array on its own should be "
+                + "copied at " + i + ".");
+        }
+    }
+    @Test public void testSize()
+    {
+        ArrayExpression wrong = ArrayExpression.of(new float[3][4])
+            .combine(new float[4][3], ArrayOps.Add);
+        assertThrows(IllegalArgumentException.class, () -> wrong.toArray(),
+            "Arrays of different sizes shouldn't be combined.");
+    }
+
+    private static float[][] random(int width, int height, long seed)
+    {
+        Random random = new Random(seed);
+        float[][] result = new float[width][height];
+        for (int x = 0; x < width; ++x) {
+            for (int y = 0; y < height; ++y) result[x][y] = random.nextFloat();
+        }
+        return result;
+    }
+}
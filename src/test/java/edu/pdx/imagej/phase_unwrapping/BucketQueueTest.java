@@ -0,0 +1,58 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public class BucketQueueTest {
+    @Test public void testOrder()
+    {
+        BucketQueue queue = new BucketQueue(10, 200);
+        int[] levels = {3, 150, 0, 64, 150, 3, 199, 64};
+        for (int i = 0; i < levels.length; ++i) queue.push(i, levels[i]);
+        int[] expected = {6, 1, 4, 3, 7, 0, 5, 2};
+        for (int i = 0; i < expected.length; ++i) {
+            assertEquals(queue.pop(), expected[i], "The queue should return "
+                + "the highest level first, and items with the same level in "
+                + "the order they were added (item " + i + ").");
+        }
+        assertTrue(queue.isEmpty(), "The queue should be empty after popping "
+            + "every item.");
+    }
+    @Test public void testPushAfterPop()
+    {
+        // Pushing a higher level than the last one popped must still be found
+        BucketQueue queue = new BucketQueue(5, 128);
+        queue.push(0, 10);
+        queue.push(1, 5);
+        assertEquals(queue.pop(), 0, "The highest level should come first.");
+        queue.push(2, 100);
+        queue.push(3, 5);
+        queue.push(0, 70);
+        int[] expected = {2, 0, 1, 3};
+        for (int i = 0; i < expected.length; ++i) {
+            assertEquals(queue.pop(), expected[i], "Items pushed after popping "
+                + "should be in the right order (item " + i + ").");
+        }
+        assertEquals(queue.size(), 0, "The queue should be empty.");
+    }
+}
@@ -0,0 +1,130 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class CompositeQualityTest {
+    @Test public void testWeightedSum()
+    {
+        check(CompositeQuality.Operator.WeightedSum);
+    }
+    @Test public void testProduct()
+    {
+        check(CompositeQuality.Operator.Product);
+    }
+    @Test public void testConstant()
+    {
+        // A component that is the same everywhere shouldn't change anything
+        CompositeQuality quality = new CompositeQuality();
+        quality.setPhaseValue(6);
+        quality.setComponents(CompositeQuality.Operator.Product,
+            new Quality[] {new PhaseGradientQuality(),
+                           new PseudoCorrelationQuality()},
+            new double[] {1, 1});
+        float[] constant = new float[S_width * S_height];
+        Arrays.fill(constant, 2);
+        float[] result = quality.calculate(constant, S_width, S_height, 1, 1);
+        for (int p = 0; p < result.length; ++p) {
+            assertEquals(result[p], 1, 1e-6, "Components that are the same "
+                + "everywhere should scale to one, at pixel " + p + ".");
+        }
+    }
+    @Test public void testDuplicate()
+    {
+        float[] phase = phase();
+        CompositeQuality quality = composite(
+            CompositeQuality.Operator.WeightedSum);
+        Quality duplicate = quality.duplicate();
+        duplicate.setPhaseValue(6);
+        float[] expected = quality.calculate(phase, S_width, S_height, 1, 1);
+        float[] result = duplicate.calculate(phase, S_width, S_height, 1, 1);
+        for (int p = 0; p < result.length; ++p) {
+            assertEquals(result[p], expected[p], "A duplicate should give the "
+                + "same quality, at pixel " + p + ".");
+        }
+    }
+
+    // Compare with calculating every map on its own first
+    private void check(CompositeQuality.Operator operator)
+    {
+        float[] phase = phase();
+        CompositeQuality quality = composite(operator);
+        float[] result = quality.calculate(phase, S_width, S_height, 1, 1);
+        PhaseGradientQuality gradient = new PhaseGradientQuality();
+        gradient.setPhaseValue(6);
+        PseudoCorrelationQuality correlation = new PseudoCorrelationQuality();
+        correlation.setPhaseValue(6);
+        float[] gradientMap
+            = scale(gradient.calculate(phase, S_width, S_height, 1, 1));
+        float[] correlationMap
+            = scale(correlation.calculate(phase, S_width, S_height, 1, 1));
+        for (int p = 0; p < result.length; ++p) {
+            double expected
+                = operator == CompositeQuality.Operator.Product
+                ? gradientMap[p] * correlationMap[p]
+                : 2 * gradientMap[p] + 0.5 * correlationMap[p];
+            assertEquals(result[p], expected, 1e-5, "The composite quality "
+                + "should be the same as combining the scaled maps, at pixel "
+                + p + ".");
+        }
+    }
+    private static CompositeQuality composite(
+        CompositeQuality.Operator operator)
+    {
+        CompositeQuality result = new CompositeQuality();
+        result.setPhaseValue(6);
+        result.setComponents(operator,
+            new Quality[] {new PhaseGradientQuality(), new NoneQuality(),
+                           new PseudoCorrelationQuality()},
+            new double[] {2, 10, 0.5});
+        return result;
+    }
+    private static float[] scale(float[] map)
+    {
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        for (float value : map) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        float[] result = new float[map.length];
+        for (int i = 0; i < map.length; ++i) {
+            result[i] = (map[i] - min) / (max - min);
+        }
+        return result;
+    }
+    private static float[] phase()
+    {
+        Random random = new Random(41);
+        float[] result = new float[S_width * S_height];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = random.nextFloat() * 6;
+        }
+        return result;
+    }
+
+    private static final int S_width = 50;
+    private static final int S_height = 40;
+}
@@ -23,6 +23,8 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.Test;
 
+import java.util.Random;
+
 import org.scijava.Context;
 import net.imagej.ops.OpService;
 
@@ -152,6 +154,39 @@ public class DoubleWavelengthOpTest {
             + "should be close enough to the coarse map that there is no "
             + "change.");
     }
+    @Test public void testLarge()
+    {
+        // The coarse and fine maps are found without the steps in between
+        // when they aren't shown, which should be exactly the same
+        Random random = new Random(5);
+        PhaseImage image1 = new PhaseImage();
+        image1.phaseImage = new float[60][70];
+        image1.wavelength = 633;
+        image1.phaseValue = 256;
+        PhaseImage image2 = new PhaseImage();
+        image2.phaseImage = new float[60][70];
+        image2.wavelength = 611;
+        image2.phaseValue = (float)(2 * Math.PI);
+        for (int x = 0; x < 60; ++x) {
+            for (int y = 0; y < 70; ++y) {
+                image1.phaseImage[x][y] = random.nextFloat() * 256;
+                image2.phaseImage[x][y]
+                    = random.nextFloat() * image2.phaseValue;
+            }
+        }
+        float[][][] steps = run(image1, image2, true);
+        float[][][] noSteps = run(image1, image2, false);
+        for (int x = 0; x < 60; ++x) {
+            for (int y = 0; y < 70; ++y) {
+                assertEquals(noSteps[0][x][y], steps[3][x][y], "The coarse "
+                    + "map should be the same without the steps, at (" + x
+                    + ", " + y + ").");
+                assertEquals(noSteps[1][x][y], steps[6][x][y], "The fine map "
+                    + "should be the same without the steps, at (" + x + ", "
+                    + y + ").");
+            }
+        }
+    }
     private float[][][] run(PhaseImage image1, PhaseImage image2, boolean steps)
     {
         return (float[][][])M_ops.run(DoubleWavelengthOp.class,
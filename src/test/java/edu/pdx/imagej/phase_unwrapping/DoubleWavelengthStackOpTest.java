@@ -23,8 +23,14 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.Test;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
 import ij.ImagePlus;
 import ij.ImageStack;
+import ij.process.ByteProcessor;
 import ij.process.FloatProcessor;
 
 import org.scijava.Context;
@@ -143,6 +149,138 @@ public class DoubleWavelengthStackOpTest {
             }
         }
     }
+    @Test public void testStreamed() throws IOException
+    {
+        ImageStack stack1 = new ImageStack(2, 1);
+        ImageStack stack2 = new ImageStack(2, 1);
+        for (int i = 0; i < 3; ++i) {
+            stack1.addSlice(new FloatProcessor(new float[][]{{i}, {i + 1}}));
+            stack2.addSlice(new FloatProcessor(new float[][]{{2 * i}, {i}}));
+        }
+        ImagePlus imp1 = new ImagePlus("", stack1);
+        ImagePlus imp2 = new ImagePlus("", stack2);
+        ImagePlus[] expected = runStack(imp1, 5, 4, imp2, 6, 8, true);
+        File directory = Files.createTempDirectory("streamed").toFile();
+        directory.deleteOnExit();
+        ImagePlus[] actual = (ImagePlus[])M_ops.run(
+            DoubleWavelengthStackOp.class, imp1, 5, 4, imp2, 6, 8, true,
+            directory, StreamedStack.Format.CompressedChunked);
+        assertEquals(directory.list().length, 7, "Streaming the steps should "
+            + "write a directory for every step.");
+        for (int i = 0; i < expected.length; ++i) {
+            for (int z = 1; z <= 3; ++z) {
+                float[] expectedPixels
+                    = (float[])expected[i].getStack().getPixels(z);
+                float[] actualPixels
+                    = (float[])actual[i].getStack().getPixels(z);
+                for (int j = 0; j < 2; ++j) {
+                    assertEquals(actualPixels[j], expectedPixels[j],
+                        "Streaming the results should not change them (step "
+                        + i + ", slice " + z + ", pixel " + j + ").");
+                }
+            }
+        }
+    }
+    @Test public void testParallel() throws IOException
+    {
+        // 8-bit and 32-bit, so that both reading the pixels directly and
+        // reading them into buffers are used
+        Random random = new Random(3);
+        ImageStack stack1 = new ImageStack(9, 7);
+        ImageStack stack2 = new ImageStack(9, 7);
+        for (int i = 0; i < 12; ++i) {
+            byte[] bytes = new byte[9 * 7];
+            random.nextBytes(bytes);
+            float[] floats = new float[9 * 7];
+            for (int j = 0; j < floats.length; ++j) {
+                floats[j] = random.nextFloat() * 6;
+            }
+            stack1.addSlice(new ByteProcessor(9, 7, bytes));
+            stack2.addSlice(new FloatProcessor(9, 7, floats));
+        }
+        ImagePlus imp1 = new ImagePlus("", stack1);
+        imp1.setDimensions(1, 3, 4);
+        ImagePlus imp2 = new ImagePlus("", stack2);
+        imp2.setDimensions(1, 3, 4);
+        File directory = Files.createTempDirectory("parallel").toFile();
+        directory.deleteOnExit();
+        for (boolean showSteps : new boolean[] {false, true}) {
+            ImagePlus[] expected
+                = runStack(imp1, 5, 256, imp2, 6, 6, showSteps);
+            ImagePlus[] parallel = (ImagePlus[])M_ops.run(
+                DoubleWavelengthStackOp.class, imp1, 5, 256, imp2, 6, 6,
+                showSteps, null, StreamedStack.Format.Raw, 3);
+            ImagePlus[] streamed = (ImagePlus[])M_ops.run(
+                DoubleWavelengthStackOp.class, imp1, 5, 256, imp2, 6, 6,
+                showSteps, directory, StreamedStack.Format.Raw, 0);
+            for (int i = 0; i < expected.length; ++i) {
+                for (int n = 1; n <= 12; ++n) {
+                    float[] expectedPixels
+                        = (float[])expected[i].getStack().getPixels(n);
+                    float[] parallelPixels
+                        = (float[])parallel[i].getStack().getPixels(n);
+                    float[] streamedPixels
+                        = (float[])streamed[i].getStack().getPixels(n);
+                    for (int j = 0; j < expectedPixels.length; ++j) {
+                        assertEquals(parallelPixels[j], expectedPixels[j],
+                            "Unwrapping slices in parallel should not change "
+                            + "them (step " + i + ", slice " + n + ", pixel "
+                            + j + ").");
+                        assertEquals(streamedPixels[j], expectedPixels[j],
+                            "Reusing the results when streaming should not "
+                            + "change them (step " + i + ", slice " + n
+                            + ", pixel " + j + ").");
+                    }
+                }
+            }
+        }
+    }
+    @Test public void testOneAtATime()
+    {
+        Random random = new Random(5);
+        ImageStack stack1 = new ImageStack(9, 7);
+        ImageStack stack2 = new ImageStack(9, 7);
+        for (int i = 0; i < 4; ++i) {
+            float[] floats1 = new float[9 * 7];
+            float[] floats2 = new float[9 * 7];
+            for (int j = 0; j < floats1.length; ++j) {
+                floats1[j] = random.nextFloat() * 4;
+                floats2[j] = random.nextFloat() * 6;
+            }
+            stack1.addSlice(new FloatProcessor(9, 7, floats1));
+            stack2.addSlice(new FloatProcessor(9, 7, floats2));
+        }
+        ImagePlus imp1 = new ImagePlus("", stack1);
+        ImagePlus imp2 = new ImagePlus("", stack2);
+        // Each slice is split across the processors here
+        ImagePlus[] stacks = (ImagePlus[])M_ops.run(
+            DoubleWavelengthStackOp.class, imp1, 5, 4, imp2, 6, 6, false,
+            null, StreamedStack.Format.Raw, 1);
+        for (int n = 1; n <= 4; ++n) {
+            PhaseImage image1 = new PhaseImage();
+            image1.phaseImage = stack1.getProcessor(n).getFloatArray();
+            image1.wavelength = 5;
+            image1.phaseValue = 4;
+            PhaseImage image2 = new PhaseImage();
+            image2.phaseImage = stack2.getProcessor(n).getFloatArray();
+            image2.wavelength = 6;
+            image2.phaseValue = 6;
+            float[][][] arrays = runSingle(image1, image2, false);
+            for (int i = 0; i < stacks.length; ++i) {
+                float[][] stack
+                    = stacks[i].getStack().getProcessor(n).getFloatArray();
+                for (int x = 0; x < 9; ++x) {
+                    for (int y = 0; y < 7; ++y) {
+                        assertEquals(stack[x][y], arrays[i][x][y],
+                            "Unwrapping a stack one slice at a time should "
+                            + "give the same result as DoubleWavelengthOp "
+                            + "(step " + i + ", slice " + n
+                            + ", at coordinates (" + x + ", " + y + ")).");
+                    }
+                }
+            }
+        }
+    }
     private float[][][] runSingle(PhaseImage image1,
                                    PhaseImage image2,
                                    boolean showSteps)
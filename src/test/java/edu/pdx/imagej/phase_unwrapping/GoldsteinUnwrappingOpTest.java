@@ -0,0 +1,77 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+import org.scijava.Context;
+import net.imagej.ops.OpService;
+
+public class GoldsteinUnwrappingOpTest {
+    @Test public void testNormalUnwrapping()
+    {
+        OpService ops = M_context.getService(OpService.class);
+        float[][] phaseImage = {
+            {0, 1, 4, 7, 9, 2, 5, 3, 9, 5}
+        };
+        float[][] result = (float[][])ops.run(GoldsteinUnwrappingOp.class,
+                                              phaseImage, 10);
+        float[] differences = {1, 3, 3, 2, 3, 3, -2, -4, -4};
+        for (int i = 0; i < 9; ++i) {
+            float diff = result[0][i + 1] - result[0][i];
+            assertEquals(diff, differences[i], "The unwrapping should produce "
+                + "the correct values for the differences between values.");
+        }
+    }
+    @Test public void testResidues()
+    {
+        OpService ops = M_context.getService(OpService.class);
+        // A vortex in the middle of the image makes two residues of opposite
+        // charge, and everything around them should still be unwrapped.
+        float[][] phaseImage = new float[20][20];
+        for (int x = 0; x < 20; ++x) {
+            for (int y = 0; y < 20; ++y) {
+                double angle1 = Math.atan2(y - 9.5, x - 6.5);
+                double angle2 = Math.atan2(y - 9.5, x - 12.5);
+                double value = (angle1 - angle2) / (2 * Math.PI) * 10 + x * 0.5;
+                phaseImage[x][y] = (float)(value - 10 * Math.floor(value / 10));
+            }
+        }
+        float[][] result = (float[][])ops.run(GoldsteinUnwrappingOp.class,
+                                              phaseImage, 10);
+        for (int x = 0; x < 20; ++x) {
+            for (int y = 0; y < 20; ++y) {
+                float k = (result[x][y] - phaseImage[x][y]) / 10;
+                assertEquals(k, Math.round(k), 1e-4, "Unwrapping should only "
+                    + "add multiples of the phase value, at coords [" + x
+                    + "][" + y + "].");
+            }
+        }
+        for (int x = 0; x < 19; ++x) {
+            float diff = result[x + 1][0] - result[x][0];
+            assertTrue(Math.abs(diff) < 5, "The top row doesn't touch the "
+                + "residues, so it should be unwrapped smoothly, at x = " + x
+                + ".");
+        }
+    }
+    private Context M_context = new Context(OpService.class);
+}
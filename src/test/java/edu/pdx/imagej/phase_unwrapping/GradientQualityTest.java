@@ -23,6 +23,8 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.Test;
 
+import java.util.Random;
+
 public class GradientQualityTest {
     @Test public void testNothing()
     {
@@ -123,6 +125,34 @@ public class GradientQualityTest {
             + "value for the middle was " + crazyResult[1][1] + " and the "
             + "actual value for the edge was " + crazyResult[1][0] + ".");
     }
+    @Test public void testLarge()
+    {
+        // Large enough to be split into several bands
+        int width = 300;
+        int height = 250;
+        Random random = new Random(5);
+        float[] data = new float[width * height];
+        for (int i = 0; i < data.length; ++i) data[i] = random.nextFloat() * 8;
+        float[] result = GradientQuality.calculateWith(data, width, height);
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                float expected = 0;
+                for (int yPlus = -1; yPlus <= 1; ++yPlus) {
+                    for (int xPlus = -1; xPlus <= 1; ++xPlus) {
+                        int newX = x + xPlus;
+                        int newY = y + yPlus;
+                        if (newX < 0 || newY < 0 || newX == width
+                                || newY == height) continue;
+                        expected -= Math.abs(data[y * width + x]
+                                             - data[newY * width + newX]);
+                    }
+                }
+                assertEquals(result[y * width + x], expected, 1e-4,
+                    "The gradient should be the sum of the differences with "
+                    + "every neighbor, at (" + x + ", " + y + ").");
+            }
+        }
+    }
 
     private GradientQuality M_quality = new GradientQuality();
 }
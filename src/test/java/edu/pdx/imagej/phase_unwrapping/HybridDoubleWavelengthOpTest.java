@@ -0,0 +1,120 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import org.scijava.Context;
+import net.imagej.ops.OpService;
+
+public class HybridDoubleWavelengthOpTest {
+    @Test public void testClean()
+    {
+        // Without any noise, nothing should be flagged, so the result should
+        // be exactly the same as the normal double wavelength result
+        PhaseImage[] images = images(0, new Random(1));
+        float[][][] expected = (float[][][])M_ops.run(DoubleWavelengthOp.class,
+            images[0], images[1], false);
+        float[][][] result = run(images);
+        for (int x = 0; x < S_size; ++x) {
+            for (int y = 0; y < S_size; ++y) {
+                assertEquals(result[0][x][y], expected[0][x][y], "The coarse "
+                    + "map should be the same at (" + x + ", " + y + ").");
+                assertEquals(result[1][x][y], expected[1][x][y], "The fine map "
+                    + "should be the same at (" + x + ", " + y + ").");
+            }
+        }
+    }
+    @Test public void testNoise()
+    {
+        // The noise in the second image ruins the fine map of the normal
+        // double wavelength unwrapping in the middle of the image, but the
+        // first image is clean, so the correction should fix all of it
+        PhaseImage[] images = images(0.15f, new Random(2));
+        float[][][] plain = (float[][][])M_ops.run(DoubleWavelengthOp.class,
+            images[0], images[1], false);
+        float[][][] result = run(images);
+        int wrong = 0;
+        for (int x = 0; x < S_size; ++x) {
+            for (int y = 0; y < S_size; ++y) {
+                float expected = surface(x, y);
+                if (Math.abs(plain[1][x][y] - expected) > S_phase / 2) ++wrong;
+                assertEquals(result[1][x][y], expected, 0.01f, "The fine map "
+                    + "should be corrected at (" + x + ", " + y + ").");
+            }
+        }
+        assertTrue(wrong > 0, "The noise should have caused errors in the "
+            + "normal double wavelength fine map.");
+    }
+
+    // The true unwrapped phase, in units of the first image, going from one to
+    // ten first wavelengths
+    private static float surface(int x, int y)
+    {
+        double dx = x - S_size / 2.0;
+        double dy = y - S_size / 2.0;
+        double r2 = (dx * dx + dy * dy) / (S_size * S_size / 2.0);
+        return (float)((1 + 9 * (1 - r2)) * S_phase);
+    }
+    // Wrap the surface at both wavelengths, adding uniform noise of up to
+    // noise phase values to the middle of the second image
+    private static PhaseImage[] images(float noise, Random random)
+    {
+        PhaseImage image1 = new PhaseImage();
+        image1.phaseImage = new float[S_size][S_size];
+        image1.wavelength = 500;
+        image1.phaseValue = S_phase;
+        PhaseImage image2 = new PhaseImage();
+        image2.phaseImage = new float[S_size][S_size];
+        image2.wavelength = 550;
+        image2.phaseValue = S_phase;
+        for (int x = 0; x < S_size; ++x) {
+            for (int y = 0; y < S_size; ++y) {
+                float fringes = surface(x, y) / S_phase;
+                float fringes2 = fringes * 500 / 550;
+                boolean middle = Math.abs(x - S_size / 2) < 10
+                              && Math.abs(y - S_size / 2) < 10;
+                if (middle) {
+                    fringes2 += (random.nextFloat() * 2 - 1) * noise;
+                }
+                image1.phaseImage[x][y] = wrap(fringes);
+                image2.phaseImage[x][y] = wrap(fringes2);
+            }
+        }
+        return new PhaseImage[] {image1, image2};
+    }
+    private static float wrap(float fringes)
+    {
+        return (float)(fringes - Math.floor(fringes)) * S_phase;
+    }
+    private float[][][] run(PhaseImage[] images)
+    {
+        return (float[][][])M_ops.run(HybridDoubleWavelengthOp.class,
+                                      images[0], images[1]);
+    }
+    private static final int S_size = 64;
+    private static final float S_phase = (float)(2 * Math.PI);
+    private Context M_context = new Context(OpService.class);
+    private OpService M_ops = M_context.getService(OpService.class);
+}
@@ -0,0 +1,103 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+
+import org.scijava.Context;
+import net.imagej.ops.OpService;
+
+public class LeastSquaresUnwrappingOpTest {
+    @Test public void testNormalUnwrapping()
+    {
+        OpService ops = M_context.getService(OpService.class);
+        float[][] phaseImage = {
+            {0, 1, 4, 7, 9, 2, 5, 3, 9, 5}
+        };
+        float[][] result = (float[][])ops.run(LeastSquaresUnwrappingOp.class,
+                                              phaseImage, 10);
+        float[] differences = {1, 3, 3, 2, 3, 3, -2, -4, -4};
+        for (int i = 0; i < 9; ++i) {
+            float diff = result[0][i + 1] - result[0][i];
+            assertEquals(diff, differences[i], 1e-4, "The unwrapping should "
+                + "produce the correct values for the differences between "
+                + "values.");
+        }
+        assertEquals(result[0][5], phaseImage[0][5], 1e-4, "The center pixel "
+            + "should keep its value.");
+    }
+    @Test public void testSmooth()
+    {
+        OpService ops = M_context.getService(OpService.class);
+        // A smooth surface with no residues is unwrapped exactly, even when its
+        // sizes are not powers of two.
+        float[][] expected = new float[23][14];
+        float[][] phaseImage = new float[23][14];
+        for (int x = 0; x < 23; ++x) {
+            for (int y = 0; y < 14; ++y) {
+                double value = 0.03 * (x - 11) * (x - 11) + 0.5 * y + 7;
+                expected[x][y] = (float)value;
+                phaseImage[x][y] = (float)(value - 10 * Math.floor(value / 10));
+            }
+        }
+        float[][] result = (float[][])ops.run(LeastSquaresUnwrappingOp.class,
+                                              phaseImage, 10);
+        float[][] congruent = (float[][])ops.run(
+            LeastSquaresUnwrappingOp.class, phaseImage, 10, true);
+        float shift = expected[11][7] - phaseImage[11][7];
+        for (int x = 0; x < 23; ++x) {
+            for (int y = 0; y < 14; ++y) {
+                assertEquals(result[x][y] + shift, expected[x][y], 1e-3,
+                    "Least squares unwrapping should find the surface, at "
+                    + "coords [" + x + "][" + y + "].");
+                assertEquals(congruent[x][y] + shift, expected[x][y], 1e-3,
+                    "Congruent unwrapping should find the surface, at coords ["
+                    + x + "][" + y + "].");
+            }
+        }
+    }
+    @Test public void testCongruent()
+    {
+        OpService ops = M_context.getService(OpService.class);
+        // With residues the least squares solution is not congruent, unless it
+        // is asked to be.
+        float[][] phaseImage = new float[20][20];
+        for (int x = 0; x < 20; ++x) {
+            for (int y = 0; y < 20; ++y) {
+                double angle1 = Math.atan2(y - 9.5, x - 6.5);
+                double angle2 = Math.atan2(y - 9.5, x - 12.5);
+                double value = (angle1 - angle2) / (2 * Math.PI) * 10 + x * 0.5;
+                phaseImage[x][y] = (float)(value - 10 * Math.floor(value / 10));
+            }
+        }
+        float[][] result = (float[][])ops.run(LeastSquaresUnwrappingOp.class,
+                                              phaseImage, 10, true);
+        for (int x = 0; x < 20; ++x) {
+            for (int y = 0; y < 20; ++y) {
+                float k = (result[x][y] - phaseImage[x][y]) / 10;
+                assertEquals(k, Math.round(k), 1e-4, "Unwrapping should only "
+                    + "add multiples of the phase value, at coords [" + x
+                    + "][" + y + "].");
+            }
+        }
+    }
+    private Context M_context = new Context(OpService.class);
+}
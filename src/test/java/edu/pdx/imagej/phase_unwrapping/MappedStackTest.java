@@ -0,0 +1,143 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import ij.ImagePlus;
+import ij.io.FileInfo;
+import ij.io.FileSaver;
+
+import org.scijava.Context;
+import org.scijava.app.StatusService;
+import net.imagej.ops.OpService;
+
+public class MappedStackTest {
+    @Test public void testRaw() throws IOException
+    {
+        // Five 3x2 slices after a 7 byte header with 5 bytes between slices
+        ByteBuffer buffer = ByteBuffer.allocate(7 + 5 * 24 + 4 * 5);
+        buffer.position(7);
+        for (int z = 0; z < 5; ++z) {
+            for (int i = 0; i < 6; ++i) buffer.putFloat(z * 10 + i);
+            if (z != 4) buffer.position(buffer.position() + 5);
+        }
+        File file = tempFile(buffer.array());
+        FileInfo info = rawInfo(file, FileInfo.GRAY32_FLOAT, 5);
+        info.offset = 7;
+        info.gapBetweenImages = 5;
+        MappedStack stack = new MappedStack(info, 2);
+        assertEquals(stack.getSize(), 5, "A mapped stack should have every "
+            + "image in the file.");
+        assertEquals(stack.getBitDepth(), 32, "A mapped float stack should be "
+            + "32-bit.");
+        // Out of order, to cross groups in both directions
+        int[] order = {3, 1, 5, 2, 4, 1};
+        for (int z : order) {
+            float[] pixels = (float[])stack.getProcessor(z).getPixels();
+            for (int i = 0; i < 6; ++i) {
+                assertEquals(pixels[i], (z - 1) * 10 + i, "A mapped stack "
+                    + "should read the right pixels (slice " + z + ", pixel "
+                    + i + ").");
+            }
+        }
+    }
+    @Test public void testShort() throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(3 * 6 * 2)
+                                      .order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < 18; ++i) buffer.putShort((short)(i * 1000));
+        File file = tempFile(buffer.array());
+        FileInfo info = rawInfo(file, FileInfo.GRAY16_UNSIGNED, 3);
+        info.intelByteOrder = true;
+        MappedStack stack = new MappedStack(info, 1);
+        for (int z = 1; z <= 3; ++z) {
+            short[] pixels = (short[])stack.getProcessor(z).getPixels();
+            for (int i = 0; i < 6; ++i) {
+                assertEquals(pixels[i] & 0xffff, ((z - 1) * 6 + i) * 1000,
+                    "A mapped stack should read little-endian 16-bit pixels "
+                    + "(slice " + z + ", pixel " + i + ").");
+            }
+        }
+    }
+    @Test public void testTiff() throws IOException
+    {
+        ImagePlus imp = QualityUnwrappingStackOpTest.wrappedStack();
+        File file = File.createTempFile("mapped", ".tif");
+        file.deleteOnExit();
+        new FileSaver(imp).saveAsTiffStack(file.getPath());
+
+        ImagePlus mapped = MappedStack.openTiff(file.getPath(), 2);
+        assertEquals(mapped.getNSlices(), 2, "A mapped hyperstack should keep "
+            + "its z slices.");
+        assertEquals(mapped.getNFrames(), 3, "A mapped hyperstack should keep "
+            + "its frames.");
+
+        OpService ops = M_context.getService(OpService.class);
+        ImagePlus expected = (ImagePlus)ops.run(
+            QualityUnwrappingStackOp.class,
+            imp, new PhaseGradientQuality(), false, 10, false,
+            QualityUnwrappingStackOp.OutputType.Type32Bit);
+        ImagePlus actual = (ImagePlus)ops.run(
+            QualityUnwrappingStackOp.class,
+            mapped, new PhaseGradientQuality(), false, 10, false,
+            QualityUnwrappingStackOp.OutputType.Type32Bit,
+            QualityUnwrappingOp.Frontier.Exact, 0,
+            QualityUnwrappingStackOp.Algorithm.QualityGuided, false, null,
+            Float.NaN, 3);
+        for (int i = 1; i <= 6; ++i) {
+            float[] expectedPixels = (float[])expected.getStack().getPixels(i);
+            float[] actualPixels = (float[])actual.getStack().getPixels(i);
+            for (int j = 0; j < expectedPixels.length; ++j) {
+                assertEquals(actualPixels[j], expectedPixels[j], "Unwrapping "
+                    + "a mapped stack should be the same as unwrapping it in "
+                    + "memory (slice " + i + ", pixel " + j + ").");
+            }
+        }
+    }
+    private static File tempFile(byte[] contents) throws IOException
+    {
+        File file = File.createTempFile("mapped", ".raw");
+        file.deleteOnExit();
+        Files.write(file.toPath(), contents);
+        return file;
+    }
+    private static FileInfo rawInfo(File file, int type, int images)
+    {
+        FileInfo info = new FileInfo();
+        info.fileFormat = FileInfo.RAW;
+        info.fileType = type;
+        info.directory = file.getParent();
+        info.fileName = file.getName();
+        info.width = 3;
+        info.height = 2;
+        info.nImages = images;
+        return info;
+    }
+    private Context M_context = new Context(OpService.class,
+                                            StatusService.class);
+}
@@ -0,0 +1,87 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+public class MaxPhaseGradientQualityTest {
+    @Test public void testWrap()
+    {
+        float[][] wrap = {
+            {0, 5.5f, 0, 1, 2, 3}
+        };
+        MaxPhaseGradientQuality quality = new MaxPhaseGradientQuality();
+        quality.setPhaseValue(6);
+        quality.setWindowSize(1);
+        float[][] result = quality.calculate(wrap, 1, 1);
+        assertEquals(result[0][0], -0.5f, 1e-5f, "The maximum phase gradient "
+            + "should wrap differences.");
+        assertEquals(result[0][3], -1, 1e-5f, "The maximum phase gradient "
+            + "should be the difference with the next pixel.");
+        assertEquals(result[0][5], -1, 1e-5f, "The maximum phase gradient on "
+            + "the edge should be the difference with the previous pixel.");
+    }
+    @Test public void testWindows()
+    {
+        int width = 90;
+        int height = 130;
+        Random random = new Random(31);
+        float[] phase = new float[width * height];
+        for (int i = 0; i < phase.length; ++i) {
+            phase[i] = random.nextFloat() * 6;
+        }
+        for (int size : new int[] {1, 3, 9, 61}) {
+            MaxPhaseGradientQuality quality = new MaxPhaseGradientQuality();
+            quality.setPhaseValue(6);
+            quality.setWindowSize(size);
+            float[] result = quality.calculate(phase, width, height, 1, 1);
+            int r = size / 2;
+            for (int y = 0; y < height; ++y) {
+                for (int x = 0; x < width; ++x) {
+                    double max = 0;
+                    for (int j = Math.max(0, y - r);
+                            j <= Math.min(height - 1, y + r); ++j) {
+                        for (int i = Math.max(0, x - r);
+                                i <= Math.min(width - 1, x + r); ++i) {
+                            int nextX = i == width - 1 ? i - 1 : i;
+                            int nextY = j == height - 1 ? j - 1 : j;
+                            max = Math.max(max, Math.max(
+                                difference(phase, width, nextX, j, 1, 0),
+                                difference(phase, width, i, nextY, 0, 1)));
+                        }
+                    }
+                    assertEquals(result[y * width + x], -max, 1e-5,
+                        "The maximum phase gradient with a window size of "
+                        + size + " should match at (" + x + ", " + y + ").");
+                }
+            }
+        }
+    }
+    private static double difference(float[] phase, int width, int x, int y,
+                                     int xPlus, int yPlus)
+    {
+        double d = Math.abs(phase[(y + yPlus) * width + x + xPlus]
+                          - phase[y * width + x]);
+        return Math.min(d, 6 - d);
+    }
+}
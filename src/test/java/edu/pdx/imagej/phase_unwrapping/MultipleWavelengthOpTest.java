@@ -0,0 +1,180 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.FloatProcessor;
+
+import org.scijava.Context;
+import net.imagej.ops.OpService;
+
+public class MultipleWavelengthOpTest {
+    @Test public void testSurface()
+    {
+        // A surface much taller than any of the wavelengths, but shorter than
+        // the longest synthetic wavelength
+        float[][] surface = surface(30, 20, 15000);
+        PhaseImage[] images = wrap(surface, new float[] {633, 611, 532},
+                                   new float[] {256, 256, 256}, 0);
+        float[][][] result = run(images, false);
+        for (int x = 0; x < 30; ++x) {
+            for (int y = 0; y < 20; ++y) {
+                float expected = surface[x][y] / 633 * 256;
+                assertEquals(result[1][x][y], expected, 0.05f, "The fine map "
+                    + "should be the whole surface at (" + x + ", " + y
+                    + ").");
+            }
+        }
+    }
+    @Test public void testNoise()
+    {
+        // With noise, the cascade should still find the right fringe
+        // everywhere, and the fine map should be better than the coarse map
+        float[][] surface = surface(40, 40, 15000);
+        PhaseImage[] images = wrap(surface, new float[] {633, 611, 532},
+            new float[] {(float)(2 * Math.PI), 256, 1}, 0.01);
+        float[][][] result = run(images, false);
+        double coarseError = 0;
+        double fineError = 0;
+        for (int x = 0; x < 40; ++x) {
+            for (int y = 0; y < 40; ++y) {
+                float expected = (float)(surface[x][y] / 633 * 2 * Math.PI);
+                coarseError += Math.abs(result[0][x][y] - expected);
+                float error = Math.abs(result[1][x][y] - expected);
+                fineError += error;
+                assertTrue(error < Math.PI, "The fine map should be on the "
+                    + "right fringe at (" + x + ", " + y + ").  It was off by "
+                    + error + ".");
+            }
+        }
+        assertTrue(fineError < coarseError, "The fine map should be better "
+            + "than the coarse map.  The errors were " + fineError + " and "
+            + coarseError + ".");
+    }
+    @Test public void testSteps()
+    {
+        PhaseImage[] images = wrap(surface(5, 4, 15000),
+            new float[] {633, 611, 532}, new float[] {256, 256, 256}, 0);
+        float[][][] steps = run(images, true);
+        float[][][] noSteps = run(images, false);
+        // Three wavelengths and two synthetic wavelengths
+        assertEquals(steps.length, 5, "There should be a step for every "
+            + "wavelength and every synthetic wavelength.");
+        for (int x = 0; x < 5; ++x) {
+            for (int y = 0; y < 4; ++y) {
+                assertEquals(steps[0][x][y], noSteps[0][x][y], "The first "
+                    + "step should be the coarse map.");
+                assertEquals(steps[4][x][y], noSteps[1][x][y], "The last "
+                    + "step should be the fine map.");
+            }
+        }
+    }
+    @Test public void testStack()
+    {
+        float[] wavelengths = {633, 611, 532};
+        float[] phaseValues = {256, 6, 1};
+        ImagePlus[] stacks = new ImagePlus[3];
+        ImageStack[] slices = new ImageStack[3];
+        for (int i = 0; i < 3; ++i) slices[i] = new ImageStack(6, 5);
+        PhaseImage[][] images = new PhaseImage[4][];
+        for (int n = 0; n < 4; ++n) {
+            images[n] = wrap(surface(6, 5, 5000 * (n + 1)), wavelengths,
+                             phaseValues, 0);
+            for (int i = 0; i < 3; ++i) {
+                slices[i].addSlice(
+                    new FloatProcessor(images[n][i].phaseImage));
+            }
+        }
+        for (int i = 0; i < 3; ++i) stacks[i] = new ImagePlus("", slices[i]);
+        for (int parallel : new int[] {1, 3}) {
+            ImagePlus[] result = (ImagePlus[])M_ops.run(
+                MultipleWavelengthStackOp.class, stacks, wavelengths,
+                phaseValues, false, null, StreamedStack.Format.Raw, parallel);
+            for (int n = 0; n < 4; ++n) {
+                float[][][] expected = run(images[n], false);
+                for (int i = 0; i < 2; ++i) {
+                    float[][] actual = result[i].getStack().getProcessor(n + 1)
+                                                           .getFloatArray();
+                    for (int x = 0; x < 6; ++x) {
+                        for (int y = 0; y < 5; ++y) {
+                            assertEquals(actual[x][y], expected[i][x][y],
+                                "The stack op should unwrap every slice the "
+                                + "same way (slice " + (n + 1) + ", map " + i
+                                + ", parallel " + parallel + ").");
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // A smooth surface of optical path lengths from a tenth of top to top,
+    // which stays away from zero so that noise can't wrap it around
+    private static float[][] surface(int width, int height, float top)
+    {
+        float[][] result = new float[width][height];
+        for (int x = 0; x < width; ++x) {
+            for (int y = 0; y < height; ++y) {
+                double r = Math.hypot(x - width / 2.0, y - height / 2.0);
+                double max = Math.hypot(width / 2.0, height / 2.0);
+                result[x][y] = (float)(top * (1 - 0.9 * r / max));
+            }
+        }
+        return result;
+    }
+    // The wrapped phase of the surface at every wavelength, with noise that is
+    // the given fraction of a wavelength
+    private static PhaseImage[] wrap(float[][] surface, float[] wavelengths,
+                                     float[] phaseValues, double noise)
+    {
+        Random random = new Random(11);
+        PhaseImage[] result = new PhaseImage[wavelengths.length];
+        for (int i = 0; i < wavelengths.length; ++i) {
+            result[i] = new PhaseImage();
+            result[i].wavelength = wavelengths[i];
+            result[i].phaseValue = phaseValues[i];
+            result[i].phaseImage
+                = new float[surface.length][surface[0].length];
+            for (int x = 0; x < surface.length; ++x) {
+                for (int y = 0; y < surface[0].length; ++y) {
+                    double fringes = surface[x][y] / wavelengths[i]
+                                   + random.nextGaussian() * noise;
+                    result[i].phaseImage[x][y] = (float)(
+                        (fringes - Math.floor(fringes)) * phaseValues[i]);
+                }
+            }
+        }
+        return result;
+    }
+    private float[][][] run(PhaseImage[] images, boolean showSteps)
+    {
+        return (float[][][])M_ops.run(MultipleWavelengthOp.class, images,
+                                      showSteps);
+    }
+    private Context M_context = new Context(OpService.class);
+    private OpService M_ops = M_context.getService(OpService.class);
+}
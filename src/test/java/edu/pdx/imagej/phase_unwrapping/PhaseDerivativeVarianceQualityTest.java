@@ -0,0 +1,108 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+public class PhaseDerivativeVarianceQualityTest {
+    @Test public void testRamp()
+    {
+        // A wrapped ramp changes at the same rate everywhere, so there is no
+        // variance even where it wraps
+        float[] ramp = new float[20 * 10];
+        for (int y = 0; y < 10; ++y) {
+            for (int x = 0; x < 20; ++x) ramp[y * 20 + x] = (x * 1.5f) % 6;
+        }
+        PhaseDerivativeVarianceQuality quality
+            = new PhaseDerivativeVarianceQuality();
+        quality.setPhaseValue(6);
+        float[] result = quality.calculate(ramp, 20, 10, 1, 1);
+        for (int p = 0; p < result.length; ++p) {
+            assertEquals(result[p], 0, 1e-4, "A wrapped ramp should have no "
+                + "phase derivative variance, at pixel " + p + ".");
+        }
+        ramp[5 * 20 + 10] += 1;
+        result = quality.calculate(ramp, 20, 10, 1, 1);
+        assertTrue(result[5 * 20 + 10] < -0.1, "A bump in a ramp should have "
+            + "some variance.  The actual value was " + result[5 * 20 + 10]
+            + ".");
+    }
+    @Test public void testWindows()
+    {
+        // Tall enough for several bands
+        int width = 40;
+        int height = 150;
+        Random random = new Random(17);
+        float[] phase = new float[width * height];
+        for (int i = 0; i < phase.length; ++i) {
+            phase[i] = random.nextFloat() * 6;
+        }
+        for (int size : new int[] {1, 3, 7, 21}) {
+            PhaseDerivativeVarianceQuality quality
+                = new PhaseDerivativeVarianceQuality();
+            quality.setPhaseValue(6);
+            quality.setWindowSize(size);
+            float[] result = quality.calculate(phase, width, height, 1, 1);
+            int r = size / 2;
+            for (int y = 0; y < height; ++y) {
+                for (int x = 0; x < width; ++x) {
+                    double[] sums = new double[4];
+                    int count = 0;
+                    for (int j = Math.max(0, y - r);
+                            j <= Math.min(height - 1, y + r); ++j) {
+                        for (int i = Math.max(0, x - r);
+                                i <= Math.min(width - 1, x + r); ++i) {
+                            int nextX = i == width - 1 ? i - 1 : i;
+                            int nextY = j == height - 1 ? j - 1 : j;
+                            double dx = wrap(phase, width, nextX, j, 1, 0);
+                            double dy = wrap(phase, width, i, nextY, 0, 1);
+                            sums[0] += dx;
+                            sums[1] += dx * dx;
+                            sums[2] += dy;
+                            sums[3] += dy * dy;
+                            ++count;
+                        }
+                    }
+                    double expected = -(
+                        Math.sqrt(Math.max(0, sums[1] - sums[0] * sums[0]
+                                                        / count))
+                      + Math.sqrt(Math.max(0, sums[3] - sums[2] * sums[2]
+                                                        / count))) / count;
+                    assertEquals(result[y * width + x], expected, 1e-4,
+                        "The phase derivative variance with a window size of "
+                        + size + " should match at (" + x + ", " + y + ").");
+                }
+            }
+        }
+    }
+    private static double wrap(float[] phase, int width, int x, int y,
+                               int xPlus, int yPlus)
+    {
+        double d = phase[(y + yPlus) * width + x + xPlus]
+                 - phase[y * width + x];
+        if (d > 3) d -= 6;
+        else if (d < -3) d += 6;
+        return d;
+    }
+}
@@ -23,6 +23,8 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.Test;
 
+import java.util.Random;
+
 public class PhaseGradientQualityTest {
     @Test public void testWrap()
     {
@@ -137,6 +139,97 @@ public class PhaseGradientQualityTest {
             + "value for the middle was " + crazyResult[1][1] + " and the "
             + "actual value for the edge was " + crazyResult[1][0] + ".");
     }
+    @Test public void testVolume()
+    {
+        float[][] slice = {
+            {0, 3, 0},
+            {1, 9, 1}
+        };
+        float[] volume = {0, 1, 3, 9, 0, 1, 0, 1, 3, 9, 0, 1};
+        VolumeQuality quality = (VolumeQuality)M_quality;
+        float[][] sliceResult = quality.calculate(slice, 0, 0);
+        float[] sliceVolume = quality.calculateVolume(volume, 2, 3, 1);
+        float[] volumeResult = quality.calculateVolume(volume, 2, 3, 2);
+        for (int x = 0; x < 2; ++x) {
+            for (int y = 0; y < 3; ++y) {
+                assertEquals(sliceVolume[y * 2 + x], sliceResult[x][y], "The "
+                    + "quality of a volume with one slice should be the same "
+                    + "as the quality of the slice, at [" + x + "][" + y
+                    + "].");
+            }
+        }
+        volume[6 + 3] = 8;
+        float[] changedResult = quality.calculateVolume(volume, 2, 3, 2);
+        assertTrue(changedResult[3] < volumeResult[3], "Changing the next "
+            + "slice should change the quality.  The actual value was "
+            + changedResult[3] + " instead of less than " + volumeResult[3]
+            + ".");
+        assertEquals(changedResult[0], volumeResult[0], "Changing the next "
+            + "slice shouldn't change the quality of pixels that aren't next "
+            + "to it.");
+    }
+    @Test public void testLargeVolume()
+    {
+        // Large enough that the bands cross from one slice to the next
+        int width = 200;
+        int height = 100;
+        int depth = 4;
+        Random random = new Random(7);
+        float[] data = new float[width * height * depth];
+        for (int i = 0; i < data.length; ++i) data[i] = random.nextFloat() * 6;
+        PhaseGradientQuality quality = new PhaseGradientQuality();
+        quality.setPhaseValue(6);
+        float[] result = quality.calculateVolume(data, width, height, depth);
+        for (int z = 0; z < depth; ++z) {
+            for (int y = 0; y < height; ++y) {
+                for (int x = 0; x < width; ++x) {
+                    int p = (z * height + y) * width + x;
+                    float expected = 0;
+                    for (int zPlus = -1; zPlus <= 1; ++zPlus) {
+                        for (int yPlus = -1; yPlus <= 1; ++yPlus) {
+                            for (int xPlus = -1; xPlus <= 1; ++xPlus) {
+                                int newX = x + xPlus;
+                                int newY = y + yPlus;
+                                int newZ = z + zPlus;
+                                if (newX < 0 || newY < 0 || newZ < 0
+                                        || newX == width || newY == height
+                                        || newZ == depth) continue;
+                                // Only the pixel itself from other slices
+                                if (zPlus != 0 && (xPlus != 0 || yPlus != 0)) {
+                                    continue;
+                                }
+                                float d = data[p] - data[
+                                    (newZ * height + newY) * width + newX];
+                                if (d < -3) d += 6;
+                                if (d > 3) d -= 6;
+                                expected -= Math.abs(d);
+                            }
+                        }
+                    }
+                    assertEquals(result[p], expected, 1e-4, "The phase "
+                        + "gradient of a volume should be the sum of the "
+                        + "wrapped differences with every neighbor, at (" + x
+                        + ", " + y + ", " + z + ").");
+                }
+            }
+        }
+    }
+    @Test public void testFlat()
+    {
+        float[][] image = {
+            {0, 3, 0},
+            {1, 9, 1}
+        };
+        float[] flat = M_quality.calculate(ArrayOps.flatten(image), 2, 3, 1, 1);
+        float[][] expected = M_quality.calculate(image, 1, 1);
+        for (int x = 0; x < 2; ++x) {
+            for (int y = 0; y < 3; ++y) {
+                assertEquals(flat[y * 2 + x], expected[x][y], "The quality of "
+                    + "row-major pixels should be the same, at [" + x + "]["
+                    + y + "].");
+            }
+        }
+    }
     private static Quality getQuality()
     {
         Quality result = new PhaseGradientQuality();
@@ -0,0 +1,70 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public class PixelHeapTest {
+    @Test public void testOrder()
+    {
+        PixelHeap heap = new PixelHeap(2);
+        float[] keys = {3, -1, 7, 0, -0.5f, 2.5f};
+        for (int i = 0; i < keys.length; ++i) heap.push(i, keys[i]);
+        int[] expected = {2, 0, 5, 3, 4, 1};
+        for (int i = 0; i < expected.length; ++i) {
+            assertEquals(heap.pop(), expected[i], "The heap should return the "
+                + "items with the highest keys first (item " + i + ").");
+        }
+        assertTrue(heap.isEmpty(), "The heap should be empty after popping "
+            + "every item.");
+    }
+    @Test public void testTies()
+    {
+        PixelHeap heap = new PixelHeap();
+        heap.push(4, 1);
+        heap.push(2, 1);
+        heap.push(9, 5);
+        heap.push(0, -0.0f);
+        heap.push(7, 1);
+        heap.push(1, 0);
+        int[] expected = {9, 4, 2, 7, 0, 1};
+        for (int i = 0; i < expected.length; ++i) {
+            assertEquals(heap.pop(), expected[i], "Items with the same key "
+                + "should be returned in the order they were added (item " + i
+                + ").");
+        }
+    }
+    @Test public void testNaN()
+    {
+        PixelHeap heap = new PixelHeap();
+        heap.push(0, Float.NaN);
+        heap.push(1, Float.NEGATIVE_INFINITY);
+        heap.push(2, Float.POSITIVE_INFINITY);
+        heap.push(3, Float.NaN);
+        heap.push(4, -5);
+        int[] expected = {2, 4, 1, 0, 3};
+        for (int i = 0; i < expected.length; ++i) {
+            assertEquals(heap.pop(), expected[i], "NaN keys should be returned "
+                + "after every other key (item " + i + ").");
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public class PixelQueueTest {
+    @Test public void testOrder()
+    {
+        // Popping some items before the queue fills makes it wrap around
+        // before it grows, which must keep the order
+        PixelQueue queue = new PixelQueue(4);
+        int next = 0;
+        int expected = 0;
+        for (int round = 0; round < 5; ++round) {
+            for (int i = 0; i < 3 + round * 2; ++i) queue.push(next++);
+            for (int i = 0; i < 2; ++i) {
+                assertEquals(queue.pop(), expected++, "The queue should return "
+                    + "the items in the order they were added (round " + round
+                    + ").");
+            }
+        }
+        while (!queue.isEmpty()) {
+            assertEquals(queue.pop(), expected++, "The queue should return "
+                + "the items in the order they were added.");
+        }
+        assertEquals(expected, next, "The queue should return every item.");
+        assertTrue(queue.isEmpty(), "The queue should be empty after popping "
+            + "every item.");
+    }
+}
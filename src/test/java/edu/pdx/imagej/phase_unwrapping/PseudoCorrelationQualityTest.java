@@ -0,0 +1,88 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class PseudoCorrelationQualityTest {
+    @Test public void testConstant()
+    {
+        float[] constant = new float[12 * 8];
+        Arrays.fill(constant, 2.5f);
+        PseudoCorrelationQuality quality = new PseudoCorrelationQuality();
+        quality.setPhaseValue(6);
+        float[] result = quality.calculate(constant, 12, 8, 1, 1);
+        for (int p = 0; p < result.length; ++p) {
+            assertEquals(result[p], 1, 1e-5, "A constant phase should have a "
+                + "pseudo-correlation of one, at pixel " + p + ".");
+        }
+        // Zero and the phase value are the same phase
+        constant[4 * 12 + 6] = 0;
+        constant[4 * 12 + 7] = 6;
+        result = quality.calculate(constant, 12, 8, 1, 1);
+        assertTrue(result[4 * 12 + 6] < 1, "A different phase should lower the"
+            + " pseudo-correlation.");
+        assertEquals(result[0], 1, 1e-5, "A different phase shouldn't change "
+            + "pixels outside of its window.");
+    }
+    @Test public void testWindows()
+    {
+        int width = 150;
+        int height = 140;
+        Random random = new Random(23);
+        float[] phase = new float[width * height];
+        for (int i = 0; i < phase.length; ++i) {
+            phase[i] = random.nextFloat() * 6;
+        }
+        for (int size : new int[] {1, 5, 31}) {
+            PseudoCorrelationQuality quality = new PseudoCorrelationQuality();
+            quality.setPhaseValue(6);
+            quality.setWindowSize(size);
+            float[] result = quality.calculate(phase, width, height, 1, 1);
+            int r = size / 2;
+            for (int y = 0; y < height; ++y) {
+                for (int x = 0; x < width; ++x) {
+                    double cos = 0;
+                    double sin = 0;
+                    int count = 0;
+                    for (int j = Math.max(0, y - r);
+                            j <= Math.min(height - 1, y + r); ++j) {
+                        for (int i = Math.max(0, x - r);
+                                i <= Math.min(width - 1, x + r); ++i) {
+                            double angle = phase[j * width + i] * Math.PI / 3;
+                            cos += Math.cos(angle);
+                            sin += Math.sin(angle);
+                            ++count;
+                        }
+                    }
+                    assertEquals(result[y * width + x],
+                        Math.hypot(cos, sin) / count, 1e-5,
+                        "The pseudo-correlation with a window size of " + size
+                        + " should match at (" + x + ", " + y + ").");
+                }
+            }
+        }
+    }
+}
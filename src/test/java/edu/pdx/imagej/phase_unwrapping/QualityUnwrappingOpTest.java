@@ -23,6 +23,8 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.Test;
 
+import java.util.Random;
+
 import org.scijava.Context;
 import org.scijava.app.StatusService;
 import net.imagej.ops.OpService;
@@ -75,19 +77,161 @@ public class QualityUnwrappingOpTest {
         assertEquals(result2[0][0], 10, "The quality should affect the path "
             + "taken for residues (2).");
     }
-    private Context M_context = new Context(OpService.class, StatusService.class);
-}
-
-class TestQuality extends AbstractQuality {
-    @Override
-    public float[][] calculate(float[][] phaseImage, int t, int z)
+    @Test public void testBucketedFrontier()
+    {
+        OpService ops = M_context.getService(OpService.class);
+        float[][] phaseImage = {
+            {0, 3},
+            {8, 5}
+        };
+        float[][] qualityValues = {
+            {0, 1},
+            {0, 0}
+        };
+        Quality quality = new TestQuality();
+        quality.calculate(qualityValues, 0, 0);
+        float[][] exact = (float[][])ops.run(QualityUnwrappingOp.class,
+            phaseImage, quality, false, 10,
+            QualityUnwrappingOp.Frontier.Exact);
+        float[][] bucketed = (float[][])ops.run(QualityUnwrappingOp.class,
+            phaseImage, quality, false, 10,
+            QualityUnwrappingOp.Frontier.Bucketed);
+        for (int x = 0; x < 2; ++x) {
+            for (int y = 0; y < 2; ++y) {
+                assertEquals(exact[x][y], bucketed[x][y], "A bucketed frontier "
+                    + "should give the same result as an exact one when the "
+                    + "qualities are far apart, at coords [" + x + "][" + y
+                    + "].");
+            }
+        }
+    }
+    @Test public void testNaNQuality()
+    {
+        // The NaN pixel has a NaN phase too, so if anything were unwrapped
+        // from it, it would be left at its wrapped value
+        OpService ops = M_context.getService(OpService.class);
+        float[][] phaseImage = new float[6][6];
+        float[][] qualityValues = new float[6][6];
+        for (int x = 0; x < 6; ++x) {
+            for (int y = 0; y < 6; ++y) {
+                float value = 4.1f * x + 3.7f * y;
+                phaseImage[x][y] = value - 10 * (float)Math.floor(value / 10);
+                qualityValues[x][y] = (x * 7 + y * 13) % 36;
+            }
+        }
+        phaseImage[2][3] = Float.NaN;
+        qualityValues[2][3] = Float.NaN;
+        Quality quality = new TestQuality();
+        quality.calculate(qualityValues, 0, 0);
+        for (QualityUnwrappingOp.Frontier frontier
+                : QualityUnwrappingOp.Frontier.values()) {
+            float[][] result = (float[][])ops.run(QualityUnwrappingOp.class,
+                phaseImage, quality, false, 10, frontier);
+            for (int x = 0; x < 6; ++x) {
+                for (int y = 0; y < 6; ++y) {
+                    if (x == 2 && y == 3) continue;
+                    // The center pixel keeps its wrapped value, which is 20
+                    // less than its real value
+                    assertEquals(result[x][y], 4.1f * x + 3.7f * y - 20, 1e-4,
+                        "Pixels with a NaN quality should be unwrapped last "
+                        + "with the " + frontier + " frontier, at coords ["
+                        + x + "][" + y + "].");
+                }
+            }
+        }
+    }
+    @Test public void testMask()
     {
-        M_result = phaseImage;
-        return M_result;
+        OpService ops = M_context.getService(OpService.class);
+        float[][] phaseImage = {
+            {0, 1, 4, 7, 9, 2, 5, 3, 9, 5}
+        };
+        // The third pixel splits the image into two separate regions
+        boolean[][] mask = {
+            {true, true, false, true, true, true, true, true, true, true}
+        };
+        Quality quality = new NoneQuality();
+        quality.calculate(phaseImage, 0, 0);
+        float[][] result = (float[][])ops.run(QualityUnwrappingOp.class,
+            phaseImage, quality, false, 10, QualityUnwrappingOp.Frontier.Exact,
+            mask);
+        float[] expected = {0, 1, Float.NaN, -3, -1, 2, 5, 3, -1, -5};
+        for (int i = 0; i < 10; ++i) {
+            assertEquals(result[0][i], expected[i], "Masked pixels should be "
+                + "NaN, and each region should be unwrapped on its own, at "
+                + i + ".");
+        }
+        float[][] filled = (float[][])ops.run(QualityUnwrappingOp.class,
+            phaseImage, quality, false, 10, QualityUnwrappingOp.Frontier.Exact,
+            mask, -1);
+        assertEquals(filled[0][2], -1, "Masked pixels should be given the "
+            + "fill value.");
+    }
+    @Test public void testFlat()
+    {
+        OpService ops = M_context.getService(OpService.class);
+        float[][] phaseImage = {
+            {0, 3, 8, 1},
+            {9, 5, 2, 6},
+            {4, 7, 3, 0}
+        };
+        boolean[][] mask = {
+            {true, true, false, true},
+            {true, true, true, true},
+            {false, true, true, true}
+        };
+        Quality quality = new PhaseGradientQuality();
+        quality.setPhaseValue(10);
+        quality.calculate(phaseImage, 1, 1);
+        float[][] expected = (float[][])ops.run(QualityUnwrappingOp.class,
+            phaseImage, quality, false, 10,
+            QualityUnwrappingOp.Frontier.Exact, mask, -1);
+        float[] result = (float[])ops.run(FlatQualityUnwrappingOp.class,
+            ArrayOps.flatten(phaseImage), 3, 4,
+            ArrayOps.flatten(quality.getResult()), false, 10,
+            QualityUnwrappingOp.Frontier.Exact, ArrayOps.flatten(mask), -1);
+        for (int x = 0; x < 3; ++x) {
+            for (int y = 0; y < 4; ++y) {
+                assertEquals(result[y * 3 + x], expected[x][y], "Unwrapping "
+                    + "row-major pixels should give the same result, at ["
+                    + x + "][" + y + "].");
+            }
+        }
     }
-    public float[][] getResult()
+    @Test public void testConstantQuality()
     {
-        return M_result;
+        // With no quality, the pixels are unwrapped breadth-first from the
+        // center, which is the same as unwrapping the pixels closest to the
+        // center first, in the order they were reached
+        OpService ops = M_context.getService(OpService.class);
+        Random random = new Random(4);
+        float[][] phaseImage = new float[15][12];
+        float[][] distance = new float[15][12];
+        for (int x = 0; x < 15; ++x) {
+            for (int y = 0; y < 12; ++y) {
+                phaseImage[x][y] = random.nextFloat() * 10;
+                distance[x][y] = -Math.abs(x - 7) - Math.abs(y - 6);
+            }
+        }
+        Quality none = new NoneQuality();
+        none.calculate(phaseImage, 0, 0);
+        Quality closest = new TestQuality();
+        closest.calculate(distance, 0, 0);
+        float[][] expected = (float[][])ops.run(QualityUnwrappingOp.class,
+            phaseImage, closest, false, 10);
+        for (QualityUnwrappingOp.Frontier frontier
+                : QualityUnwrappingOp.Frontier.values()) {
+            float[][] result = (float[][])ops.run(QualityUnwrappingOp.class,
+                phaseImage, none, false, 10, frontier);
+            for (int x = 0; x < 15; ++x) {
+                for (int y = 0; y < 12; ++y) {
+                    assertEquals(result[x][y], expected[x][y], "A constant "
+                        + "quality should be unwrapped breadth-first with the "
+                        + frontier + " frontier, at coords [" + x + "][" + y
+                        + "].");
+                }
+            }
+        }
     }
-    float[][] M_result;
+    private Context M_context = new Context(OpService.class, StatusService.class);
 }
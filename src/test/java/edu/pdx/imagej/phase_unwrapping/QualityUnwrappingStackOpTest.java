@@ -24,6 +24,8 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.Test;
 
+import java.util.Random;
+
 import ij.ImagePlus;
 import ij.ImageStack;
 import ij.process.FloatProcessor;
@@ -159,6 +161,191 @@ public class QualityUnwrappingStackOpTest {
             + " but the same t size as the image should see only one z slice "
             + "(max).");
     }
+    @Test public void testCompositeSlices()
+    {
+        OpService ops = M_context.getService(OpService.class);
+
+        // One component follows the phase image and the other only has one
+        // slice, so the composite has to be calculated for every slice
+        TestDimensionQuality perSlice = new TestDimensionQuality(0, 0);
+        TestDimensionQuality oneSlice = new TestDimensionQuality(1, 1);
+        CompositeQuality quality = new CompositeQuality();
+        quality.setComponents(CompositeQuality.Operator.Product,
+                              new Quality[] {perSlice, oneSlice},
+                              new double[] {1, 1});
+        ops.run(QualityUnwrappingStackOp.class,
+                wrappedStack(), quality, false, 10, false, M_type);
+        assertEquals(perSlice.getMaxT(), 3, "A component that follows the "
+            + "phase image should see every frame.");
+        assertEquals(perSlice.getMaxZ(), 2, "A component that follows the "
+            + "phase image should see every z slice.");
+        assertEquals(oneSlice.getMaxT(), 1, "A component with one slice "
+            + "should only see its first frame.");
+        assertEquals(oneSlice.getMaxZ(), 1, "A component with one slice "
+            + "should only see its first z slice.");
+    }
+    @Test public void testParallel()
+    {
+        OpService ops = M_context.getService(OpService.class);
+        ImagePlus imp = wrappedStack();
+
+        Quality quality = new PhaseGradientQuality();
+        ImagePlus sequential = (ImagePlus)ops.run(
+            QualityUnwrappingStackOp.class,
+            imp, quality, false, 10, false, M_type,
+            QualityUnwrappingOp.Frontier.Exact, 0,
+            QualityUnwrappingStackOp.Algorithm.QualityGuided, false, null,
+            Float.NaN, 1);
+        ImagePlus parallel = (ImagePlus)ops.run(
+            QualityUnwrappingStackOp.class,
+            imp, quality, false, 10, false, M_type,
+            QualityUnwrappingOp.Frontier.Exact, 0,
+            QualityUnwrappingStackOp.Algorithm.QualityGuided, false, null,
+            Float.NaN, 4);
+        for (int i = 1; i <= 6; ++i) {
+            float[] expected = (float[])sequential.getStack().getPixels(i);
+            float[] actual = (float[])parallel.getStack().getPixels(i);
+            for (int j = 0; j < expected.length; ++j) {
+                assertEquals(actual[j], expected[j], "Unwrapping slices in "
+                    + "parallel should give the same result in the same order, "
+                    + "at slice " + i + ", pixel " + j + ".");
+            }
+        }
+    }
+    @Test public void testPipelined()
+    {
+        OpService ops = M_context.getService(OpService.class);
+        ImagePlus imp = wrappedStack();
+
+        // This quality can't be duplicated, so every step is done in order
+        Quality plainQuality = new PhaseGradientQuality() {
+            @Override public Quality duplicate() {return null;}
+        };
+        QualityUnwrappingStackOp.Algorithm[] algorithms = {
+            QualityUnwrappingStackOp.Algorithm.QualityGuided,
+            QualityUnwrappingStackOp.Algorithm.WeightedLeastSquares
+        };
+        for (QualityUnwrappingStackOp.Algorithm algorithm : algorithms) {
+            ImagePlus plain = (ImagePlus)ops.run(
+                QualityUnwrappingStackOp.class,
+                imp, plainQuality, false, 10, false, M_type,
+                QualityUnwrappingOp.Frontier.Exact, 0, algorithm, false, null,
+                Float.NaN, 1);
+            ImagePlus pipelined = (ImagePlus)ops.run(
+                QualityUnwrappingStackOp.class,
+                imp, new PhaseGradientQuality(), false, 10, false, M_type,
+                QualityUnwrappingOp.Frontier.Exact, 0, algorithm, false, null,
+                Float.NaN, 1);
+            for (int i = 1; i <= 6; ++i) {
+                float[] expected = (float[])plain.getStack().getPixels(i);
+                float[] actual = (float[])pipelined.getStack().getPixels(i);
+                for (int j = 0; j < expected.length; ++j) {
+                    assertEquals(actual[j], expected[j], "Pipelining the "
+                        + "slices should give the same result in the same "
+                        + "order, using " + algorithm + " at slice " + i
+                        + ", pixel " + j + ".");
+                }
+            }
+        }
+    }
+    @Test public void testVolume()
+    {
+        OpService ops = M_context.getService(OpService.class);
+
+        float[] actual = VolumeQualityUnwrappingOpTest.ramp(6, 5, 4);
+        ImageStack stack = new ImageStack(6, 5);
+        for (int z = 0; z < 4; ++z) {
+            float[] slice = new float[30];
+            for (int i = 0; i < 30; ++i) {
+                float value = actual[z * 30 + i];
+                slice[i] = value - 10 * (float)Math.floor(value / 10);
+            }
+            stack.addSlice(new FloatProcessor(6, 5, slice));
+        }
+        ImagePlus imp = new ImagePlus("", stack);
+        imp.setDimensions(1, 4, 1);
+
+        Quality[] qualities = {new NoneQuality(), new PhaseGradientQuality()};
+        for (Quality quality : qualities) {
+            ImagePlus result = (ImagePlus)ops.run(
+                QualityUnwrappingStackOp.class,
+                imp, quality, false, 10, false, M_type,
+                QualityUnwrappingOp.Frontier.Exact, 0,
+                QualityUnwrappingStackOp.Algorithm.QualityGuided, false, null,
+                Float.NaN, 1, QualityUnwrappingStackOp.Volume.Z);
+            float offset = ((float[])result.getStack().getPixels(1))[0]
+                           - actual[0];
+            for (int z = 0; z < 4; ++z) {
+                float[] pixels = (float[])result.getStack().getPixels(z + 1);
+                for (int i = 0; i < 30; ++i) {
+                    assertEquals(pixels[i] - actual[z * 30 + i], offset, 1e-4,
+                        "Unwrapping a volume should make every slice "
+                        + "consistent, using " + quality.getClass() + " at "
+                        + "slice " + (z + 1) + ", pixel " + i + ".");
+                }
+            }
+        }
+    }
+    @Test public void testReplay()
+    {
+        OpService ops = M_context.getService(OpService.class);
+        ImagePlus imp = wrappedStack();
+
+        // The quality only has one slice, so every slice after the first
+        // replays the order of the first, which should be exactly the same as
+        // unwrapping it normally, with or without a mask
+        Quality quality = new TestSharedQuality(20, 20);
+        Mask[] masks = {null, Mask.qualityThreshold(0.3f)};
+        for (Mask mask : masks) {
+            for (int parallel = 1; parallel <= 4; parallel += 3) {
+                ImagePlus plain = runReplay(ops, imp, quality, mask, parallel,
+                                            false);
+                ImagePlus replayed = runReplay(ops, imp, quality, mask,
+                                               parallel, true);
+                for (int i = 1; i <= 6; ++i) {
+                    float[] expected = (float[])plain.getStack().getPixels(i);
+                    float[] actual
+                        = (float[])replayed.getStack().getPixels(i);
+                    for (int j = 0; j < expected.length; ++j) {
+                        assertEquals(actual[j], expected[j], "Replaying the "
+                            + "order should give the same result, with "
+                            + (mask == null ? "no mask" : "a mask") + " and "
+                            + parallel + " parallel slices, at slice " + i
+                            + ", pixel " + j + ".");
+                    }
+                }
+            }
+        }
+    }
+    private static ImagePlus runReplay(OpService ops, ImagePlus imp,
+                                       Quality quality, Mask mask,
+                                       int parallel, boolean replay)
+    {
+        return (ImagePlus)ops.run(QualityUnwrappingStackOp.class,
+            imp, quality, false, 10, false, M_type,
+            QualityUnwrappingOp.Frontier.Exact, 0,
+            QualityUnwrappingStackOp.Algorithm.QualityGuided, false, mask,
+            Float.NaN, parallel, QualityUnwrappingStackOp.Volume.None, null,
+            StreamedStack.Format.Raw, replay);
+    }
+    // A stack with two z slices and three frames, each wrapped differently
+    static ImagePlus wrappedStack()
+    {
+        ImageStack stack = new ImageStack(20, 20);
+        for (int i = 0; i < 6; ++i) {
+            float[][] slice = new float[20][20];
+            for (int x = 0; x < 20; ++x) {
+                for (int y = 0; y < 20; ++y) {
+                    double value = (x * x + y * (i + 1)) * 0.3;
+                    slice[x][y] = (float)(value - 10 * Math.floor(value / 10));
+                }
+            }
+            stack.addSlice(new FloatProcessor(slice));
+        }
+        ImagePlus imp = new ImagePlus("", stack);
+        imp.setDimensions(1, 2, 3);
+        return imp;
+    }
     private Context M_context = new Context(OpService.class,
                                             StatusService.class);
     static private final QualityUnwrappingStackOp.OutputType M_type =
@@ -198,3 +385,29 @@ class TestDimensionQuality extends AbstractQuality {
     private int M_minZ = Integer.MAX_VALUE;
     private int M_maxZ = Integer.MIN_VALUE;
 }
+
+// A quality with only one slice of random values, which is shared by every
+// slice of the phase image
+class TestSharedQuality extends AbstractQuality {
+    public TestSharedQuality(int width, int height)
+    {
+        Random random = new Random(width * height);
+        M_result = new float[width][height];
+        for (int x = 0; x < width; ++x) {
+            for (int y = 0; y < height; ++y) {
+                M_result[x][y] = random.nextFloat();
+            }
+        }
+    }
+    @Override
+    public float[][] calculate(float[][] phaseImage, int t, int z)
+    {
+        return M_result;
+    }
+    @Override public float[][] getResult() {return M_result;}
+    @Override public int getTs() {return 1;}
+    @Override public int getZs() {return 1;}
+    @Override public Quality duplicate() {return this;}
+
+    private final float[][] M_result;
+}
@@ -0,0 +1,130 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+
+import org.scijava.Context;
+import org.scijava.app.StatusService;
+import net.imagej.ops.OpService;
+
+public class ReliabilityUnwrappingOpTest {
+    @Test public void testNormalUnwrapping()
+    {
+        OpService ops = M_context.getService(OpService.class);
+        float[][] phaseImage = {
+            {0, 1, 4, 7, 9, 2, 5, 3, 9, 5}
+        };
+        Quality quality = new NoneQuality();
+        quality.calculate(phaseImage, 0, 0);
+        float[][] result = (float[][])ops.run(ReliabilityUnwrappingOp.class,
+                                              phaseImage, quality, false, 10);
+        float[] differences = {1, 3, 3, 2, 3, 3, -2, -4, -4};
+        for (int i = 0; i < 9; ++i) {
+            float diff = result[0][i + 1] - result[0][i];
+            assertEquals(diff, differences[i], "The unwrapping should produce "
+                + "the correct values for the differences between values.");
+        }
+        assertEquals(result[0][5], phaseImage[0][5], "The center pixel should "
+            + "keep its original value.");
+    }
+    @Test public void testQuality()
+    {
+        OpService ops = M_context.getService(OpService.class);
+        float[][] phaseImage = {
+            {0, 3},
+            {8, 5}
+        };
+        float[][] quality1_values = {
+            {0, 1},
+            {0, 0}
+        };
+        float[][] quality2_values = {
+            {0, 0},
+            {1, 0}
+        };
+        Quality quality1 = new TestQuality();
+        Quality quality2 = new TestQuality();
+        quality1.calculate(quality1_values, 0, 0);
+        quality2.calculate(quality2_values, 0, 0);
+        float[][] result1 =(float[][])ops.run(ReliabilityUnwrappingOp.class,
+                                              phaseImage, quality1, false, 10);
+        float[][] result2 =(float[][])ops.run(ReliabilityUnwrappingOp.class,
+                                              phaseImage, quality2, false, 10);
+        assertEquals(result1[0][0], 0, "The quality should affect the path "
+            + "taken for residues (1).");
+        assertEquals(result2[0][0], 10, "The quality should affect the path "
+            + "taken for residues (2).");
+    }
+    @Test public void testMask()
+    {
+        OpService ops = M_context.getService(OpService.class);
+        float[][] phaseImage = {
+            {0, 1, 4, 7, 9, 2, 5, 3, 9, 5}
+        };
+        boolean[][] mask = {
+            {true, true, false, true, true, true, true, true, true, true}
+        };
+        Quality quality = new NoneQuality();
+        quality.calculate(phaseImage, 0, 0);
+        float[][] result = (float[][])ops.run(ReliabilityUnwrappingOp.class,
+            phaseImage, quality, false, 10, mask);
+        assertEquals(result[0][2], Float.NaN, "Masked pixels should be NaN.");
+        assertEquals(result[0][1] - result[0][0], 1, "The region cut off from "
+            + "the center should still be unwrapped.");
+        float[] expected = {-3, -1, 2, 5, 3, -1, -5};
+        for (int i = 3; i < 10; ++i) {
+            assertEquals(result[0][i], expected[i - 3], "The region with the "
+                + "center should be unwrapped normally, at " + i + ".");
+        }
+    }
+    @Test public void testFlat()
+    {
+        OpService ops = M_context.getService(OpService.class);
+        float[][] phaseImage = {
+            {0, 3, 8, 1},
+            {9, 5, 2, 6},
+            {4, 7, 3, 0}
+        };
+        boolean[][] mask = {
+            {true, true, false, true},
+            {true, true, true, true},
+            {false, true, true, true}
+        };
+        Quality quality = new PhaseGradientQuality();
+        quality.setPhaseValue(10);
+        quality.calculate(phaseImage, 1, 1);
+        float[][] expected = (float[][])ops.run(ReliabilityUnwrappingOp.class,
+            phaseImage, quality, false, 10, mask, -1);
+        float[] result = (float[])ops.run(FlatReliabilityUnwrappingOp.class,
+            ArrayOps.flatten(phaseImage), 3, 4,
+            ArrayOps.flatten(quality.getResult()), false, 10,
+            ArrayOps.flatten(mask), -1);
+        for (int x = 0; x < 3; ++x) {
+            for (int y = 0; y < 4; ++y) {
+                assertEquals(result[y * 3 + x], expected[x][y], "Unwrapping "
+                    + "row-major pixels should give the same result, at ["
+                    + x + "][" + y + "].");
+            }
+        }
+    }
+    private Context M_context = new Context(OpService.class, StatusService.class);
+}
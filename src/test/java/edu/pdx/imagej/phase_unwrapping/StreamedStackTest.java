@@ -0,0 +1,155 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import ij.ImagePlus;
+import ij.process.FloatProcessor;
+
+import org.scijava.Context;
+import org.scijava.app.StatusService;
+import net.imagej.ops.OpService;
+
+public class StreamedStackTest {
+    @Test public void testRaw() throws IOException
+    {
+        File file = new File(tempDirectory(), "stack.raw");
+        StreamedStack stack = new StreamedStack(
+            file, StreamedStack.Format.Raw, 3, 2, 4, 32);
+        // Out of order, leaving one slice unset
+        int[] order = {3, 1, 4};
+        for (int z : order) {
+            stack.setProcessor(slice(z), z);
+        }
+        assertEquals(file.length(), 4 * 6 * 4L, "A raw streamed stack should "
+            + "be the size of every slice.");
+        MappedStack mapped = new MappedStack(stack.getFileInfo(), 2);
+        for (int z = 1; z <= 4; ++z) {
+            float[] pixels = (float[])stack.getProcessor(z).getPixels();
+            float[] mappedPixels = (float[])mapped.getProcessor(z).getPixels();
+            for (int i = 0; i < 6; ++i) {
+                float expected = z == 2 ? 0 : z * 10 + i;
+                assertEquals(pixels[i], expected, "A streamed stack should "
+                    + "read back what was written (slice " + z + ", pixel " + i
+                    + ").");
+                assertEquals(mappedPixels[i], expected, "A raw streamed stack "
+                    + "should be readable as a raw file (slice " + z
+                    + ", pixel " + i + ").");
+            }
+        }
+    }
+    @Test public void testTooLarge() throws IOException
+    {
+        File file = new File(tempDirectory(), "large.raw");
+        // 4 GB slices
+        assertThrows(IllegalArgumentException.class, () -> new StreamedStack(
+            file, StreamedStack.Format.Raw, 32768, 32768, 2, 32),
+            "Slices larger than 2 GB should be rejected.");
+        assertFalse(file.exists(), "A stack that is rejected should not make "
+            + "its file.");
+    }
+    @Test public void testChunked() throws IOException
+    {
+        StreamedStack.Format[] formats = {
+            StreamedStack.Format.Chunked,
+            StreamedStack.Format.CompressedChunked
+        };
+        for (StreamedStack.Format format : formats) {
+            File directory = new File(tempDirectory(), "stack.n5");
+            StreamedStack stack
+                = new StreamedStack(directory, format, 3, 2, 3, 32);
+            stack.setProcessor(slice(2), 2);
+            assertTrue(new File(directory, "attributes.json").exists(), "A "
+                + "chunked stack should have N5 attributes (" + format + ").");
+            assertTrue(new File(directory, "0/0/1").exists(), "A chunked stack "
+                + "should write each slice to its own block (" + format
+                + ").");
+            for (int z = 1; z <= 3; ++z) {
+                float[] pixels = (float[])stack.getProcessor(z).getPixels();
+                for (int i = 0; i < 6; ++i) {
+                    assertEquals(pixels[i], z == 2 ? 20 + i : 0, "A chunked "
+                        + "stack should read back what was written (" + format
+                        + ", slice " + z + ", pixel " + i + ").");
+                }
+            }
+        }
+    }
+    @Test public void testStackOp() throws IOException
+    {
+        OpService ops = M_context.getService(OpService.class);
+        ImagePlus imp = QualityUnwrappingStackOpTest.wrappedStack();
+        ImagePlus expected = (ImagePlus)ops.run(
+            QualityUnwrappingStackOp.class,
+            imp, new PhaseGradientQuality(), false, 10, false,
+            QualityUnwrappingStackOp.OutputType.Type8Bit);
+        for (StreamedStack.Format format : StreamedStack.Format.values()) {
+            for (int parallel = 1; parallel <= 2; ++parallel) {
+                ImagePlus actual = (ImagePlus)ops.run(
+                    QualityUnwrappingStackOp.class,
+                    imp, new PhaseGradientQuality(), false, 10, false,
+                    QualityUnwrappingStackOp.OutputType.Type8Bit,
+                    QualityUnwrappingOp.Frontier.Exact, 0,
+                    QualityUnwrappingStackOp.Algorithm.QualityGuided, false,
+                    null, Float.NaN, parallel,
+                    QualityUnwrappingStackOp.Volume.None, tempDirectory(),
+                    format);
+                assertTrue(actual.getStack() instanceof StreamedStack, "An "
+                    + "output directory should stream the result to disk.");
+                assertEquals(actual.getNFrames(), 3, "A streamed result "
+                    + "should have the same frames as the phase image.");
+                for (int i = 1; i <= 6; ++i) {
+                    byte[] expectedPixels
+                        = (byte[])expected.getStack().getPixels(i);
+                    byte[] actualPixels
+                        = (byte[])actual.getStack().getPixels(i);
+                    for (int j = 0; j < expectedPixels.length; ++j) {
+                        assertEquals(actualPixels[j], expectedPixels[j],
+                            "Streaming the result should not change it ("
+                            + format + ", " + parallel + " parallel, slice "
+                            + i + ", pixel " + j + ").");
+                    }
+                }
+            }
+        }
+    }
+    private static FloatProcessor slice(int z)
+    {
+        float[] pixels = new float[6];
+        for (int i = 0; i < 6; ++i) pixels[i] = z * 10 + i;
+        return new FloatProcessor(3, 2, pixels);
+    }
+    private static File tempDirectory() throws IOException
+    {
+        File result = Files.createTempDirectory("streamed").toFile();
+        result.deleteOnExit();
+        return result;
+    }
+    private Context M_context = new Context(OpService.class,
+                                            StatusService.class);
+}
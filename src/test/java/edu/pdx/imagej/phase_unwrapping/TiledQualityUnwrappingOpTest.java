@@ -0,0 +1,91 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+
+import org.scijava.Context;
+import org.scijava.app.StatusService;
+import net.imagej.ops.OpService;
+
+public class TiledQualityUnwrappingOpTest {
+    @Test public void testSameAsSequential()
+    {
+        OpService ops = M_context.getService(OpService.class);
+        float[][] phaseImage = new float[90][70];
+        for (int x = 0; x < 90; ++x) {
+            for (int y = 0; y < 70; ++y) {
+                float value = (float)(0.3 * x + 0.2 * y
+                                      + 2 * Math.sin(x * 0.05));
+                phaseImage[x][y] = value - 10 * (float)Math.floor(value / 10);
+            }
+        }
+        Quality quality = new PhaseGradientQuality();
+        quality.setPhaseValue(10);
+        quality.calculate(phaseImage, 1, 1);
+        float[][] sequential = (float[][])ops.run(QualityUnwrappingOp.class,
+            phaseImage, quality, false, 10);
+        float[][] tiled = (float[][])ops.run(TiledQualityUnwrappingOp.class,
+            phaseImage, quality, false, 10, 20);
+        for (int x = 0; x < 90; ++x) {
+            for (int y = 0; y < 70; ++y) {
+                assertEquals(sequential[x][y], tiled[x][y], 1e-3, "Tiled "
+                    + "unwrapping of a smooth image should give the same result"
+                    + " as sequential unwrapping, at coords [" + x + "][" + y
+                    + "].");
+            }
+        }
+    }
+    @Test public void testMaskSplitsTile()
+    {
+        OpService ops = M_context.getService(OpService.class);
+        float[][] truth = new float[40][40];
+        float[][] phaseImage = new float[40][40];
+        boolean[][] mask = new boolean[40][40];
+        for (int x = 0; x < 40; ++x) {
+            for (int y = 0; y < 40; ++y) {
+                truth[x][y] = 0.7f * x + 0.5f * y + 3;
+                phaseImage[x][y] = truth[x][y]
+                                   - 10 * (float)Math.floor(truth[x][y] / 10);
+                // The first tile, with its overlap, is [0, 36) in both
+                // directions, so this cuts it in two.  The two halves only meet
+                // below it.
+                mask[x][y] = x != 10 || y >= 36;
+            }
+        }
+        Quality quality = new PhaseGradientQuality();
+        quality.setPhaseValue(10);
+        quality.calculate(phaseImage, 1, 1);
+        float[][] tiled = (float[][])ops.run(TiledQualityUnwrappingOp.class,
+            phaseImage, quality, false, 10, 20,
+            QualityUnwrappingOp.Frontier.Exact, mask);
+        for (int x = 0; x < 40; ++x) {
+            for (int y = 0; y < 40; ++y) {
+                if (!mask[x][y]) continue;
+                assertEquals(tiled[x][y] - tiled[20][20],
+                             truth[x][y] - truth[20][20], 1e-3, "Tiled "
+                    + "unwrapping should line up both parts of a tile that a "
+                    + "mask cuts in two, at coords [" + x + "][" + y + "].");
+            }
+        }
+    }
+    private Context M_context = new Context(OpService.class, StatusService.class);
+}
@@ -0,0 +1,102 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+import org.scijava.Context;
+import org.scijava.app.StatusService;
+import net.imagej.ops.OpService;
+
+public class VolumeQualityUnwrappingOpTest {
+    @Test public void testVolume()
+    {
+        OpService ops = M_context.getService(OpService.class);
+        float[] actual = ramp(6, 5, 4);
+        float[] phase = new float[actual.length];
+        for (int i = 0; i < actual.length; ++i) {
+            phase[i] = actual[i] - 10 * (float)Math.floor(actual[i] / 10);
+        }
+        float[] quality = new float[phase.length];
+        float[] result = (float[])ops.run(VolumeQualityUnwrappingOp.class,
+            phase, 6, 5, 4, quality, false, 10);
+        float offset = result[0] - actual[0];
+        for (int i = 0; i < result.length; ++i) {
+            assertEquals(result[i] - actual[i], offset, 1e-4, "Every slice of "
+                + "the volume should be unwrapped consistently, at pixel " + i
+                + ".");
+        }
+        assertEquals(Math.round(offset / 10) * 10, offset, 1e-4, "The volume "
+            + "should only be off by a multiple of the phase value.");
+    }
+    @Test public void testSingleSlice()
+    {
+        OpService ops = M_context.getService(OpService.class);
+        float[][] phaseImage = {
+            {0, 3, 8, 1},
+            {9, 5, 2, 6},
+            {4, 7, 3, 0}
+        };
+        Quality quality = new PhaseGradientQuality();
+        quality.setPhaseValue(10);
+        quality.calculate(phaseImage, 1, 1);
+        float[][] expected = (float[][])ops.run(QualityUnwrappingOp.class,
+            phaseImage, quality, false, 10);
+        float[] result = (float[])ops.run(VolumeQualityUnwrappingOp.class,
+            ArrayOps.flatten(phaseImage), 3, 4, 1,
+            ArrayOps.flatten(quality.getResult()), false, 10);
+        for (int x = 0; x < 3; ++x) {
+            for (int y = 0; y < 4; ++y) {
+                assertEquals(result[y * 3 + x], expected[x][y], "A volume with "
+                    + "one slice should be unwrapped the same as the slice, at "
+                    + "[" + x + "][" + y + "].");
+            }
+        }
+    }
+    @Test public void testInPlace()
+    {
+        OpService ops = M_context.getService(OpService.class);
+        float[] phase = {0, 4, 8, 2, 6, 0, 4, 8};
+        float[] quality = new float[phase.length];
+        float[] result = (float[])ops.run(VolumeQualityUnwrappingOp.class,
+            phase, 2, 2, 2, quality, false, 10,
+            QualityUnwrappingOp.Frontier.Exact, null, Float.NaN, true);
+        assertTrue(result == phase, "Unwrapping in place should put the result "
+            + "into the phase.");
+    }
+    // A volume that changes slowly enough in every direction to be unwrapped
+    static float[] ramp(int width, int height, int depth)
+    {
+        float[] result = new float[width * height * depth];
+        for (int z = 0; z < depth; ++z) {
+            for (int y = 0; y < height; ++y) {
+                for (int x = 0; x < width; ++x) {
+                    result[(z * height + y) * width + x]
+                        = 1.7f * x + 2.3f * y + 3.9f * z + 0.1f * x * z;
+                }
+            }
+        }
+        return result;
+    }
+    private Context M_context = new Context(OpService.class,
+                                            StatusService.class);
+}
@@ -0,0 +1,140 @@
+/* Copyright (C) 2019 Portland State University
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of version 3 of the GNU Lesser General Public License
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For any questions regarding the license, please contact the Free Software
+ * Foundation.  For any other questions regarding this program, please contact
+ * David Cohoe at dcohoe@pdx.edu.
+ */
+
+package edu.pdx.imagej.phase_unwrapping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+
+import org.scijava.Context;
+import org.scijava.app.StatusService;
+import net.imagej.ops.OpService;
+
+public class WeightedLeastSquaresUnwrappingOpTest {
+    @Test public void testNoneQuality()
+    {
+        OpService ops = M_context.getService(OpService.class);
+        // With the same weight everywhere, this is the unweighted problem.
+        float[][] phaseImage = new float[20][20];
+        for (int x = 0; x < 20; ++x) {
+            for (int y = 0; y < 20; ++y) {
+                double angle1 = Math.atan2(y - 9.5, x - 6.5);
+                double angle2 = Math.atan2(y - 9.5, x - 12.5);
+                double value = (angle1 - angle2) / (2 * Math.PI) * 10 + x * 0.5;
+                phaseImage[x][y] = (float)(value - 10 * Math.floor(value / 10));
+            }
+        }
+        Quality quality = new NoneQuality();
+        quality.calculate(phaseImage, 0, 0);
+        float[][] expected = (float[][])ops.run(
+            LeastSquaresUnwrappingOp.class, phaseImage, 10);
+        float[][] result = (float[][])ops.run(
+            WeightedLeastSquaresUnwrappingOp.class,
+            phaseImage, quality, false, 10, 1e-8, 100);
+        for (int x = 0; x < 20; ++x) {
+            for (int y = 0; y < 20; ++y) {
+                assertEquals(result[x][y], expected[x][y], 1e-3, "A constant "
+                    + "quality should give the unweighted result, at coords ["
+                    + x + "][" + y + "].");
+            }
+        }
+    }
+    @Test public void testSmooth()
+    {
+        OpService ops = M_context.getService(OpService.class);
+        // A smooth surface with no residues is unwrapped exactly, no matter
+        // what the weights are.
+        float[][] expected = new float[23][14];
+        float[][] phaseImage = new float[23][14];
+        float[][] qualityValues = new float[23][14];
+        for (int x = 0; x < 23; ++x) {
+            for (int y = 0; y < 14; ++y) {
+                double value = 0.03 * (x - 11) * (x - 11) + 0.5 * y + 7;
+                expected[x][y] = (float)value;
+                phaseImage[x][y] = (float)(value - 10 * Math.floor(value / 10));
+                qualityValues[x][y] = (x * 7 + y * 13) % 10;
+            }
+        }
+        Quality quality = new TestQuality();
+        quality.calculate(qualityValues, 0, 0);
+        float[][] result = (float[][])ops.run(
+            WeightedLeastSquaresUnwrappingOp.class,
+            phaseImage, quality, false, 10, 1e-8, 1000);
+        float shift = expected[11][7] - phaseImage[11][7];
+        for (int x = 0; x < 23; ++x) {
+            for (int y = 0; y < 14; ++y) {
+                assertEquals(result[x][y] + shift, expected[x][y], 1e-3,
+                    "Weighted least squares unwrapping should find the "
+                    + "surface, at coords [" + x + "][" + y + "].");
+            }
+        }
+    }
+    @Test public void testNaNQuality()
+    {
+        OpService ops = M_context.getService(OpService.class);
+        // The same surface as testSmooth, where one pixel without a quality
+        // shouldn't change anything
+        float[][] expected = new float[23][14];
+        float[][] phaseImage = new float[23][14];
+        float[][] qualityValues = new float[23][14];
+        for (int x = 0; x < 23; ++x) {
+            for (int y = 0; y < 14; ++y) {
+                double value = 0.03 * (x - 11) * (x - 11) + 0.5 * y + 7;
+                expected[x][y] = (float)value;
+                phaseImage[x][y] = (float)(value - 10 * Math.floor(value / 10));
+                qualityValues[x][y] = (x * 7 + y * 13) % 10;
+            }
+        }
+        qualityValues[5][4] = Float.NaN;
+        Quality quality = new TestQuality();
+        quality.calculate(qualityValues, 0, 0);
+        float[][] result = (float[][])ops.run(
+            WeightedLeastSquaresUnwrappingOp.class,
+            phaseImage, quality, false, 10, 1e-8, 1000);
+        float shift = expected[11][7] - phaseImage[11][7];
+        for (int x = 0; x < 23; ++x) {
+            for (int y = 0; y < 14; ++y) {
+                assertEquals(result[x][y] + shift, expected[x][y], 1e-3,
+                    "A NaN quality should not stop the surface from being "
+                    + "found, at coords [" + x + "][" + y + "].");
+            }
+        }
+    }
+    @Test public void testInitialGuess()
+    {
+        OpService ops = M_context.getService(OpService.class);
+        float[][] phaseImage = {
+            {0, 1, 4, 7, 9, 2, 5, 3, 9, 5}
+        };
+        float[][] initial = {
+            {0, 1, 4, 7, 9, 12, 15, 13, 9, 5}
+        };
+        Quality quality = new NoneQuality();
+        quality.calculate(phaseImage, 0, 0);
+        float[][] result = (float[][])ops.run(
+            WeightedLeastSquaresUnwrappingOp.class,
+            phaseImage, quality, false, 10, 1e-8, 0, initial);
+        for (int i = 0; i < 10; ++i) {
+            assertEquals(result[0][i], initial[0][i] - 10, 1e-4, "With no "
+                + "iterations, the initial guess should be the result, shifted "
+                + "so that the center pixel keeps its value.");
+        }
+    }
+    private Context M_context = new Context(OpService.class, StatusService.class);
+}